@@ -0,0 +1,501 @@
+package VEOGenerator;
+
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * *************************************************************
+ *
+ * V E O B E N C H M A R K
+ *
+ * This class measures the performance of the hot paths of the generator.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is a set of micro benchmarks covering the parts of the generator
+ * in which most of the time is spent. Each benchmark is run for a number of
+ * warm up iterations (which are discarded), then a number of measured
+ * iterations. For each benchmark the following are reported:
+ * <ul>
+ * <li>throughput (operations per second, with the standard deviation across
+ * iterations, and MB/s where an operation processes a known amount of
+ * data)</li>
+ * <li>the bytes allocated per operation, and the allocation rate</li>
+ * <li>the number of garbage collections, and the time spent in them, during
+ * the measured iterations</li>
+ * </ul>
+ * The benchmarks are:
+ * <ul>
+ * <li>b64.array.* - B64.toBase64(byte[]) on a signature sized array</li>
+ * <li>b64.stream - B64.toBase64(InputStream, VEOGenerator) on 64KB</li>
+ * <li>output.&lt;hash&gt;.&lt;n&gt;sig - VEOGenerator.outputDataToVeo() of
+ * 8KB of XML while calculating n (1-4) signatures with the given hash
+ * algorithm</li>
+ * <li>fragment.string, fragment.column - finalising a StringFragment and a
+ * ColumnFragment</li>
+ * <li>table.parse - reading a 1000 row control file with a
+ * TableDataSource</li>
+ * <li>veo.record - building a complete signed record VEO with one 64KB PDF
+ * encoding, using the templates in the template directory and a signer whose
+ * key pair and self signed certificate are generated for the run</li>
+ * </ul>
+ * The command line arguments are
+ * <pre>
+ *    VEOBenchmark [-t &lt;templateDir&gt;] [-filter &lt;string&gt;] [-warmup &lt;n&gt;] [-iterations &lt;n&gt;] [-time &lt;ms&gt;]
+ * </pre>
+ * Only benchmarks whose name contains the filter string are run. The template
+ * directory defaults to 'templates'.
+ * <p>
+ * The result of each operation is stored in a volatile field, so the JIT
+ * cannot eliminate the work being measured as dead code. This class is a
+ * development tool in its own source root (src-bench). It is in the generator's
+ * package (as it uses package private members), but is compiled into its own
+ * directory and never shipped in the distribution jar. Run it with 'ant bench'.
+ */
+public class VEOBenchmark {
+
+    File templateDir;   // templates used by the end to end benchmark
+    String filter;      // only run benchmarks containing this string
+    int warmup;         // number of warm up iterations
+    int iterations;     // number of measured iterations
+    long iterationTime; // length of each iteration (ms)
+    File workDir;       // scratch directory
+    ThreadMXBean threads; // used to measure allocation
+    List<GarbageCollectorMXBean> gcs; // used to measure GC
+    volatile Object sink; // consumes the result of each operation
+
+    /**
+     * An operation being benchmarked. The result is consumed, so that the
+     * work is not eliminated.
+     */
+    private interface Op {
+
+        Object run() throws Exception;
+    }
+
+    /**
+     * Construct a benchmark run.
+     *
+     * @param args command line arguments
+     * @throws VEOError if the arguments are invalid
+     */
+    public VEOBenchmark(String args[]) throws VEOError {
+        int i;
+        String name = "VEOBenchmark(): ";
+
+        templateDir = new File("templates");
+        filter = "";
+        warmup = 3;
+        iterations = 5;
+        iterationTime = 1000;
+        try {
+            for (i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase()) {
+                    case "-t":
+                        i++;
+                        templateDir = new File(args[i]);
+                        break;
+                    case "-filter":
+                        i++;
+                        filter = args[i];
+                        break;
+                    case "-warmup":
+                        i++;
+                        warmup = Integer.parseInt(args[i]);
+                        break;
+                    case "-iterations":
+                        i++;
+                        iterations = Math.max(1, Integer.parseInt(args[i]));
+                        break;
+                    case "-time":
+                        i++;
+                        iterationTime = Math.max(10, Long.parseLong(args[i]));
+                        break;
+                    default:
+                        throw new VEOError(name + "unrecognised argument '" + args[i] + "'");
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new VEOError(name + "invalid arguments. Usage: VEOBenchmark [-t <templateDir>] [-filter <string>] [-warmup <n>] [-iterations <n>] [-time <ms>]");
+        }
+        try {
+            workDir = Files.createTempDirectory("veobench").toFile();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed creating scratch directory: " + ioe.getMessage());
+        }
+        threads = ManagementFactory.getThreadMXBean();
+        gcs = ManagementFactory.getGarbageCollectorMXBeans();
+    }
+
+    /**
+     * Run all the benchmarks
+     *
+     * @throws Exception if a benchmark failed
+     */
+    public void run() throws Exception {
+        final VEOGenerator vg, vgs, vgr;
+        final B64 b64;
+        final byte[] sig, bin;
+        final ByteBuffer xml;
+        final ByteArrayInputStream bais;
+        final StringFragment sf;
+        final ColumnFragment cf;
+        final ArrayDataSource ads;
+        final File control, attachment, veo;
+        final PFXUser signer;
+        final Fragment rData, dData;
+        final String[][] rows;
+        KeyPair kp;
+        Signature s;
+        String[] hashAlgs = {"SHA1", "SHA256", "SHA384", "SHA512"};
+        int i, j;
+
+        System.out.println(String.format("%-22s %12s %10s %9s %10s %11s %5s %7s",
+                "Benchmark", "ops/s", "+/-", "MB/s", "B/op", "alloc MB/s", "GCs", "GC ms"));
+
+        // a generator writing to a scratch file (the file is rewound by each
+        // operation so that it does not grow)
+        vg = scratchGenerator(new File(workDir, "scratch.veo"));
+
+        // Base64
+        b64 = new B64();
+        sig = TestData.randomBytes(256, 1);
+        bench("b64.array.256", sig.length, () -> b64.toBase64(sig));
+        bin = TestData.randomBytes(65536, 2);
+        bais = new ByteArrayInputStream(bin);
+        bench("b64.stream.64K", bin.length, () -> {
+            bais.reset();
+            vg.veo.position(0);
+            b64.toBase64(bais, vg);
+            return vg.veo.position();
+        });
+
+        // outputDataToVeo while signing
+        kp = generateKeyPair();
+        xml = ByteBuffer.wrap(sampleXML(8192).getBytes(StandardCharsets.UTF_8));
+        vgs = scratchGenerator(new File(workDir, "signing.veo"));
+        vgs.signing = true;
+        for (i = 0; i < hashAlgs.length; i++) {
+            for (j = 1; j <= 4; j++) {
+                vgs.signatures.clear();
+                while (vgs.signatures.size() < j) {
+                    s = Signature.getInstance(hashAlgs[i] + "withRSA");
+                    s.initSign(kp.getPrivate());
+                    vgs.signatures.add(s);
+                }
+                bench("output." + hashAlgs[i] + "." + j + "sig", xml.limit(), () -> {
+                    xml.rewind();
+                    vgs.veo.position(0);
+                    vgs.outputDataToVeo(xml);
+                    return vgs.veo.position();
+                });
+            }
+        }
+        vgs.signing = false;
+        vgs.signatures.clear();
+
+        // fragments
+        sf = new StringFragment("benchmark", sampleXML(512));
+        ads = new ArrayDataSource(new String[]{"s", "bench.veo", "Title with <markup> & an ampersand", "22/0001"});
+        bench("fragment.string", sf.encoded.limit(), () -> {
+            vg.veo.position(0);
+            sf.finalise(ads, vg);
+            return vg.veo.position();
+        });
+        cf = new ColumnFragment("benchmark", 3);
+        bench("fragment.column", 0, () -> {
+            vg.veo.position(0);
+            cf.finalise(ads, vg);
+            return vg.veo.position();
+        });
+
+        // control file parsing
+        control = new File(workDir, "control.txt");
+        writeControlFile(control, 1000);
+        bench("table.parse.1000rows", control.length(), () -> {
+            TableDataSource tds = new TableDataSource(control);
+            int n = 0;
+            while (!tds.isAtEnd()) {
+                n += tds.getNoColumns();
+                tds.getNextRow();
+            }
+            tds.close();
+            return n;
+        });
+
+        // complete record VEO
+        if (!"veo.record".contains(filter)) {
+            return;
+        }
+        signer = TestData.createSigner(workDir, "password");
+        rData = Fragment.parseTemplate(new File(templateDir, "record.txt"), new String[0]);
+        dData = Fragment.parseTemplate(new File(templateDir, "document.txt"), new String[0]);
+        vgr = new VEOGenerator(new File(templateDir, "encodingTemplates"), new String[0]);
+        attachment = new File(workDir, "attachment.pdf");
+        Files.write(attachment.toPath(), TestData.randomBytes(65536, 3));
+        veo = new File(workDir, "record.veo");
+        rows = new String[][]{
+            {"r", veo.getName(), "", "22/0001", "Title"},
+            {"d", "PROV-test", "Benchmark document"},
+            {"e", attachment.getPath()}};
+        bench("veo.record", attachment.length(), () -> {
+            DataSource ds = new StreamDataSource(Arrays.asList(rows).iterator());
+            vgr.startVEO(veo, 1, 1);
+            vgr.addSignatureBlock(signer, "SHA256");
+            vgr.addLockSignatureBlock(1, signer, "SHA256");
+            vgr.startRecord(rData, ds);
+            ds.getNextRow();
+            vgr.startDocument(dData, ds);
+            ds.getNextRow();
+            vgr.addEncoding(new File(ds.getColumn(2)));
+            ds.getNextRow();
+            vgr.endDocument();
+            vgr.endRecord();
+            vgr.endVEO();
+            return vgr.bytesOut;
+        });
+    }
+
+    /**
+     * Run one benchmark and print the results
+     *
+     * @param name name of the benchmark
+     * @param bytesPerOp bytes processed by each operation (0 if not
+     * meaningful)
+     * @param op the operation
+     * @throws Exception if the operation failed
+     */
+    private void bench(String name, long bytesPerOp, Op op) throws Exception {
+        double[] rate;
+        double mean, sd, seconds;
+        long ops, totalOps, start, end, iterStart, alloc, gcCount, gcTime;
+        int i;
+
+        if (!name.contains(filter)) {
+            return;
+        }
+
+        // warm up
+        for (i = 0; i < warmup; i++) {
+            runFor(op);
+        }
+
+        // measure
+        rate = new double[iterations];
+        totalOps = 0;
+        gcCount = -gcCount();
+        gcTime = -gcTime();
+        alloc = -allocatedBytes();
+        start = System.nanoTime();
+        for (i = 0; i < iterations; i++) {
+            iterStart = System.nanoTime();
+            ops = runFor(op);
+            rate[i] = ops * 1e9 / (System.nanoTime() - iterStart);
+            totalOps += ops;
+        }
+        end = System.nanoTime();
+        alloc += allocatedBytes();
+        gcCount += gcCount();
+        gcTime += gcTime();
+
+        mean = 0;
+        for (i = 0; i < rate.length; i++) {
+            mean += rate[i];
+        }
+        mean /= rate.length;
+        sd = 0;
+        for (i = 0; i < rate.length; i++) {
+            sd += (rate[i] - mean) * (rate[i] - mean);
+        }
+        sd = rate.length > 1 ? Math.sqrt(sd / (rate.length - 1)) : 0;
+        seconds = (end - start) / 1e9;
+        System.out.println(String.format("%-22s %12.1f %10.1f %9s %10s %11s %5d %7d",
+                name, mean, sd,
+                bytesPerOp > 0 ? String.format("%.1f", mean * bytesPerOp / 1e6) : "-",
+                alloc >= 0 ? Long.toString(alloc / Math.max(1, totalOps)) : "n/a",
+                alloc >= 0 ? String.format("%.1f", alloc / 1e6 / seconds) : "n/a",
+                gcCount, gcTime));
+    }
+
+    /**
+     * Repeat an operation for one iteration
+     *
+     * @return the number of times the operation was run
+     */
+    private long runFor(Op op) throws Exception {
+        long n, deadline;
+
+        n = 0;
+        deadline = System.nanoTime() + iterationTime * 1000000;
+        do {
+            sink = op.run();
+            n++;
+        } while (System.nanoTime() < deadline);
+        return n;
+    }
+
+    /**
+     * Bytes allocated by this thread so far (-1 if not supported by the JVM)
+     */
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Total number of garbage collections so far
+     */
+    private long gcCount() {
+        long n;
+        int i;
+
+        n = 0;
+        for (i = 0; i < gcs.size(); i++) {
+            n += Math.max(0, gcs.get(i).getCollectionCount());
+        }
+        return n;
+    }
+
+    /**
+     * Total time (ms) spent in garbage collection so far
+     */
+    private long gcTime() {
+        long n;
+        int i;
+
+        n = 0;
+        for (i = 0; i < gcs.size(); i++) {
+            n += Math.max(0, gcs.get(i).getCollectionTime());
+        }
+        return n;
+    }
+
+    /**
+     * Construct a generator that writes to a scratch file, without starting a
+     * VEO
+     */
+    private static VEOGenerator scratchGenerator(File f) throws VEOError, IOException {
+        VEOGenerator vg;
+
+        vg = new VEOGenerator();
+        vg.fos = new FileOutputStream(f);
+        vg.veo = vg.fos.getChannel();
+        return vg;
+    }
+
+    /**
+     * Generate indented XML text (which contains whitespace that is skipped
+     * when signing) of approximately the given length
+     */
+    private static String sampleXML(int length) {
+        StringBuilder sb;
+        int i;
+
+        sb = new StringBuilder();
+        for (i = 0; sb.length() < length; i++) {
+            sb.append("      <naa:Keyword>\r\n       <naa:KeywordTerm>Term ");
+            sb.append(i);
+            sb.append("</naa:KeywordTerm>\r\n      </naa:Keyword>\r\n");
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * Write a control file containing the given number of rows
+     */
+    private static void writeControlFile(File f, int rows) throws IOException {
+        int i;
+
+        try (BufferedWriter bw = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8)) {
+            for (i = 0; i < rows; i++) {
+                switch (i % 3) {
+                    case 0:
+                        bw.write("r\tveo" + i + ".veo\t\t22/" + i + "\tA title for record " + i);
+                        break;
+                    case 1:
+                        bw.write("d\tPROV-test\tDocument " + i);
+                        break;
+                    default:
+                        bw.write("e\tattachments/file" + i + ".pdf");
+                        break;
+                }
+                bw.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Generate an RSA key pair
+     */
+    private static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        KeyPairGenerator kpg;
+
+        kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        return kpg.generateKeyPair();
+    }
+
+    /**
+     * Delete the scratch directory
+     */
+    private void cleanUp() {
+        File[] files;
+        int i;
+
+        files = workDir.listFiles();
+        if (files != null) {
+            for (i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+        workDir.delete();
+    }
+
+    /**
+     * Main program.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String args[]) {
+        VEOBenchmark vb;
+
+        vb = null;
+        try {
+            vb = new VEOBenchmark(args);
+            vb.run();
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e.toString());
+            if (vb != null) {
+                vb.cleanUp(); // System.exit() does not run the finally block
+            }
+            System.exit(-1);
+        } finally {
+            if (vb != null) {
+                vb.cleanUp();
+            }
+        }
+    }
+}
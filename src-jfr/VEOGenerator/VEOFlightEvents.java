@@ -0,0 +1,189 @@
+package VEOGenerator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * *************************************************************
+ *
+ * V E O F L I G H T E V E N T S
+ *
+ * The flight recorder event types emitted while building VEOs.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * The Java Flight Recorder event types emitted by {@link VEOEvents}. As the
+ * flight recorder API (jdk.jfr) is not part of the Java 8 platform, this class
+ * is kept in a separate source root (src-jfr), which is only compiled if the
+ * JDK building the project provides the API. VEOEvents loads it by name, so
+ * the generator builds and runs without it. The events appear in the
+ * 'VEOGenerator' category of a recording, and are enabled in the usual way,
+ * e.g.
+ * <pre>
+ *    java -XX:StartFlightRecording:filename=run.jfr,settings=profile ...
+ * </pre>
+ * (the events are enabled by default, and have no threshold).
+ */
+final class VEOFlightEvents implements VEOEvents.Recorder {
+
+    // the type of event for each stage, so whether an event is enabled can
+    // be checked before it is allocated
+    private static final EventType[] TYPES = {
+        EventType.getEventType(StartVEOEvent.class),
+        EventType.getEventType(SignatureBlockEvent.class),
+        EventType.getEventType(RecordEvent.class),
+        EventType.getEventType(DocumentEvent.class),
+        EventType.getEventType(EncodingEvent.class),
+        EventType.getEventType(FileEvent.class),
+        EventType.getEventType(SigningEvent.class),
+        EventType.getEventType(PatchEvent.class)
+    };
+
+    VEOFlightEvents() {
+    }
+
+    /**
+     * The fields common to all the events
+     */
+    @Category("VEOGenerator")
+    abstract static class StageEvent extends Event {
+
+        @Label("VEO")
+        @Description("Name of the VEO being built")
+        String veo;
+
+        @Label("Sequence Number")
+        int seqNo;
+
+        @Label("Bytes Written")
+        @Description("Bytes written to the VEO during this stage")
+        @DataAmount
+        long bytes;
+
+        @Label("Attachment")
+        @Description("Path of the file included in the VEO (if any)")
+        String attachment;
+
+        transient long startBytes; // bytes written to the VEO when the stage began
+    }
+
+    @Name("VEOGenerator.StartVEO")
+    @Label("Start VEO")
+    static final class StartVEOEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.SignatureBlock")
+    @Label("Signature Block")
+    static final class SignatureBlockEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.Record")
+    @Label("Record")
+    static final class RecordEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.Document")
+    @Label("Document")
+    static final class DocumentEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.Encoding")
+    @Label("Encoding")
+    static final class EncodingEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.File")
+    @Label("File")
+    static final class FileEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.Signing")
+    @Label("Signing")
+    @Description("Calculating a signature at the end of the VEO")
+    static final class SigningEvent extends StageEvent {
+    }
+
+    @Name("VEOGenerator.Patch")
+    @Label("Signature Patch")
+    @Description("Writing a signature back into its signature block")
+    static final class PatchEvent extends StageEvent {
+    }
+
+    /**
+     * Create and begin an event for a stage. Nothing is allocated unless
+     * this type of event is enabled in a running recording.
+     *
+     * @param stage the stage (see VEOEvents)
+     * @param bytesOut bytes written to the VEO so far
+     * @return the event, or null if this type of event is not enabled
+     */
+    @Override
+    public Object begin(int stage, long bytesOut) {
+        StageEvent e;
+
+        if (!TYPES[stage].isEnabled()) {
+            return null;
+        }
+        switch (stage) {
+            case VEOEvents.START_VEO:
+                e = new StartVEOEvent();
+                break;
+            case VEOEvents.SIGNATURE_BLOCK:
+                e = new SignatureBlockEvent();
+                break;
+            case VEOEvents.RECORD:
+                e = new RecordEvent();
+                break;
+            case VEOEvents.DOCUMENT:
+                e = new DocumentEvent();
+                break;
+            case VEOEvents.ENCODING:
+                e = new EncodingEvent();
+                break;
+            case VEOEvents.FILE:
+                e = new FileEvent();
+                break;
+            case VEOEvents.SIGNING:
+                e = new SigningEvent();
+                break;
+            default:
+                e = new PatchEvent();
+                break;
+        }
+        e.startBytes = bytesOut;
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End an event, and commit it if it is to be recorded
+     *
+     * @param event the event returned by begin()
+     * @param veo the name of the VEO
+     * @param seqNo the sequence number of the VEO
+     * @param bytesOut bytes written to the VEO so far
+     * @param attachment the path of the attachment (may be null)
+     */
+    @Override
+    public void end(Object event, String veo, int seqNo, long bytesOut, String attachment) {
+        StageEvent e;
+
+        e = (StageEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.veo = veo;
+            e.seqNo = seqNo;
+            e.bytes = bytesOut - e.startBytes;
+            e.attachment = attachment;
+            e.commit();
+        }
+    }
+}
@@ -66,13 +66,16 @@ public B64() {}
 public void toBase64(InputStream in, VEOGenerator veo)
 	throws IOException, VEOError {
 	int i, length;
+	long total;
 	byte bin[] = new byte[3];
 	byte b[] = new byte[4];
 	byte bout[] = new byte[78];
 	byte lf[] = {0x0a, 0x0d};
 
 	i = 0;
+	total = 0;
 	while ((length = in.read(bin)) != -1) {
+		total += length;
 		if (length == 1) { bin[1] = 0; bin[2] = 0; }
 		if (length == 2) { bin[2] = 0; }
 
@@ -116,6 +119,23 @@ public void toBase64(InputStream in, VEOGenerator veo)
 		bout[i+1] = 0x0a;
 		veo.outputDataToVeo(bout, 0, i+2);
 	}
+	VEOMetrics.base64BytesEncoded.add(total);
+}
+
+/**
+ * Calculate the number of octets toBase64(InputStream, VEOGenerator) produces
+ * from a number of binary bytes: four characters for every three bytes (or
+ * part thereof), plus a carriage return/line feed after every 76 characters
+ * and after the final partial line.
+ *
+ * @param	length	the number of binary bytes
+ * @return	the number of octets of Base64
+ */
+public static long encodedLength(long length) {
+	long chars;
+
+	chars = 4*((length+2)/3);
+	return chars + 2*((chars+75)/76);
 }
 
 /**
@@ -193,6 +213,7 @@ public ByteBuffer toBase64(byte[] bin) {
 	}
 	bb.limit(bb.position());
 	bb.rewind();
+	VEOMetrics.base64BytesEncoded.add(bin.length);
 	return bb;
 }
 
@@ -0,0 +1,565 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * *************************************************************
+ *
+ * B U N D L E V E O O U T P U T
+ *
+ * This class writes VEOs as entries in rolling ZIP or TAR bundles.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This output engine writes each completed VEO as an entry in a bundle (a ZIP
+ * or TAR archive), rather than as a file of its own, avoiding the cost of
+ * creating and closing a file per VEO.
+ * <p>
+ * While a VEO is being built it is held in memory. If it grows beyond 8MB, it
+ * is spooled to a temporary file in the bundle directory instead. Once the
+ * signatures have been patched in and the VEO is closed, it is appended to the
+ * current bundle. An abandoned VEO is never added to a bundle. ZIP entries are
+ * stored (not compressed), so each VEO can be read directly from the bundle
+ * at the offset recorded in the index.
+ * <p>
+ * Bundles are named '&lt;prefix&gt;-&lt;n&gt;.zip' (or '.tar'), where the
+ * prefix is the time the engine was created. A bundle is written under a
+ * temporary name ('.&lt;name&gt;.partial'), and is forced to disk and renamed
+ * when it is complete. A bundle is complete when it contains the maximum
+ * number of VEOs, when adding the next VEO would make it larger than the
+ * maximum size, or when the engine is closed. Before a bundle is renamed, an
+ * index is written beside it ('&lt;name&gt;.idx'), with a line per entry
+ * giving the entry name, the offset of the VEO in the bundle, and its length,
+ * separated by tabs.
+ * <p>
+ * The entry name of a VEO is its path relative to the bundle directory (or
+ * just its file name if it is not in the bundle directory). TAR bundles use
+ * the ustar format, which limits entry names to 255 characters.
+ */
+public class BundleVEOOutput extends VEOOutput {
+
+    File dir;               // directory in which bundles are written
+    boolean tar;            // true if writing TAR rather than ZIP bundles
+    int maxCount;           // maximum number of VEOs in a bundle
+    long maxBytes;          // maximum size of a bundle
+    String prefix;          // prefix of the bundle names
+    int bundleNo;           // number of the current bundle
+    File bundle;            // final name of the current bundle (null if none)
+    File partial;           // file the current bundle is being written to
+    FileOutputStream fos;   // stream writing the current bundle
+    CountingStream out;     // counts the bytes written to the bundle
+    ZipOutputStream zos;    // ZIP writer (null if TAR)
+    StringBuilder index;    // index of the current bundle
+    int count;              // number of VEOs in the current bundle
+    BufferChannel last;     // the last VEO added (retained for readBack())
+    long noVEOs;            // number of VEOs written
+    int noBundles;          // number of bundles completed
+
+    static final int SPOOL_LIMIT = 8 * 1024 * 1024;
+    static final int TAR_BLOCK = 512;
+
+    /**
+     * Construct a bundle output engine.
+     *
+     * @param dir the directory in which the bundles are written (null for the
+     * current directory)
+     * @param tar true to write TAR bundles, false for ZIP
+     * @param maxCount the maximum number of VEOs in a bundle
+     * @param maxBytes the maximum size of a bundle in bytes
+     */
+    public BundleVEOOutput(File dir, boolean tar, int maxCount, long maxBytes) {
+        this.dir = (dir == null ? new File(".") : dir).getAbsoluteFile();
+        this.tar = tar;
+        this.maxCount = maxCount < 1 ? 1 : maxCount;
+        this.maxBytes = maxBytes < 1 ? Long.MAX_VALUE : maxBytes;
+        prefix = "veos-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        bundleNo = 0;
+        bundle = null;
+        partial = null;
+        fos = null;
+        out = null;
+        zos = null;
+        index = null;
+        count = 0;
+        last = null;
+        noVEOs = 0;
+        noBundles = 0;
+    }
+
+    /**
+     * Open a buffer to hold a VEO until it is complete.
+     *
+     * @param veo the name of the VEO (used to name the entry)
+     * @param sizeHint the expected size of the VEO (0 if unknown)
+     * @return the channel
+     * @throws IOException if the channel could not be created
+     */
+    @Override
+    public synchronized FileChannel open(File veo, long sizeHint) throws IOException {
+        releaseLast();
+        return new BufferChannel(entryName(veo), sizeHint);
+    }
+
+    /**
+     * Mark a VEO as abandoned, so that it is not added to the bundle when its
+     * channel is closed.
+     *
+     * @param ch the channel returned by open()
+     */
+    @Override
+    public void abandon(FileChannel ch) {
+        if (ch instanceof BufferChannel) {
+            ((BufferChannel) ch).abandoned = true;
+        }
+    }
+
+    /**
+     * Read back the VEO most recently added to a bundle.
+     *
+     * @param veo the name of the VEO
+     * @return a channel reading the VEO
+     * @throws IOException if the VEO was not the last added
+     */
+    @Override
+    public synchronized ReadableByteChannel readBack(File veo) throws IOException {
+        if (last == null || !last.entry.equals(entryName(veo))) {
+            throw new IOException("BundleVEOOutput.readBack(): '" + veo + "' was not the last VEO added to a bundle");
+        }
+        if (last.spool != null) {
+            return FileChannel.open(last.spoolFile.toPath(), StandardOpenOption.READ);
+        }
+        return Channels.newChannel(new ByteArrayInputStream(last.buf, 0, (int) last.size));
+    }
+
+    /**
+     * Complete the current bundle (if any).
+     *
+     * @throws VEOError if the bundle could not be completed
+     */
+    @Override
+    public synchronized void close() throws VEOError {
+        releaseLast();
+        try {
+            finishBundle();
+        } catch (IOException ioe) {
+            throw new VEOError("BundleVEOOutput.close(): failed completing bundle '" + bundle + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Report on the bundles written
+     *
+     * @return a one line report
+     */
+    @Override
+    public synchronized String report() {
+        return noVEOs + " VEO(s) written to " + (noBundles + (bundle == null ? 0 : 1)) + " bundle(s)";
+    }
+
+    @Override
+    public String toString() {
+        return (tar ? "TAR" : "ZIP") + " bundles in '" + dir + "' (up to " + maxCount + " VEOs or " + maxBytes / (1024 * 1024) + "MB each)";
+    }
+
+    /**
+     * Get the entry name of a VEO (its path relative to the bundle directory)
+     */
+    private String entryName(File veo) {
+        String d, v;
+
+        d = dir.getPath() + File.separator;
+        v = veo.getAbsolutePath();
+        if (v.startsWith(d)) {
+            v = v.substring(d.length());
+        } else {
+            v = veo.getName();
+        }
+        return v.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Add a completed VEO to the current bundle, starting a new bundle if
+     * necessary, and completing the bundle if it is now full.
+     */
+    private synchronized void add(BufferChannel bc) throws IOException {
+        CRC32 crc;
+        ZipEntry ze;
+        long offset;
+
+        releaseLast();
+        if (bundle != null && out.count + bc.size > maxBytes) {
+            finishBundle();
+        }
+        if (bundle == null) {
+            startBundle();
+        }
+        if (tar) {
+            out.write(tarHeader(bc.entry, bc.size));
+            offset = out.count;
+            copy(bc, out);
+            out.write(new byte[(int) ((TAR_BLOCK - bc.size % TAR_BLOCK) % TAR_BLOCK)]);
+        } else {
+            crc = new CRC32();
+            copy(bc, new OutputStream() {
+                @Override
+                public void write(int b) {
+                    crc.update(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    crc.update(b, off, len);
+                }
+            });
+            ze = new ZipEntry(bc.entry);
+            ze.setMethod(ZipEntry.STORED);
+            ze.setSize(bc.size);
+            ze.setCompressedSize(bc.size);
+            ze.setCrc(crc.getValue());
+            zos.putNextEntry(ze);
+            offset = out.count;
+            copy(bc, zos);
+            zos.closeEntry();
+        }
+        index.append(bc.entry).append('\t').append(offset).append('\t').append(bc.size).append('\n');
+        count++;
+        noVEOs++;
+        last = bc;
+        if (count >= maxCount || out.count >= maxBytes) {
+            finishBundle();
+        }
+    }
+
+    /**
+     * Copy the contents of a buffer channel to a stream
+     */
+    private static void copy(BufferChannel bc, OutputStream os) throws IOException {
+        ByteBuffer bb;
+        byte[] b;
+        long posn;
+        int n;
+
+        if (bc.spool == null) {
+            os.write(bc.buf, 0, (int) bc.size);
+            return;
+        }
+        b = new byte[65536];
+        bb = ByteBuffer.wrap(b);
+        posn = 0;
+        while (posn < bc.size) {
+            bb.clear();
+            if ((n = bc.spool.read(bb, posn)) <= 0) {
+                throw new IOException("unexpected end of spool file '" + bc.spoolFile + "'");
+            }
+            os.write(b, 0, n);
+            posn += n;
+        }
+    }
+
+    /**
+     * Start a new bundle
+     */
+    private void startBundle() throws IOException {
+        bundleNo++;
+        bundle = new File(dir, String.format("%s-%06d%s", prefix, bundleNo, tar ? ".tar" : ".zip"));
+        partial = new File(dir, "." + bundle.getName() + ".partial");
+        fos = new FileOutputStream(partial);
+        out = new CountingStream(new BufferedOutputStream(fos, 1024 * 1024));
+        zos = tar ? null : new ZipOutputStream(out);
+        index = new StringBuilder();
+        count = 0;
+    }
+
+    /**
+     * Complete the current bundle (if any): finish the archive, force it to
+     * disk, write its index, and give it its final name.
+     */
+    private void finishBundle() throws IOException {
+        File idx;
+
+        if (bundle == null) {
+            return;
+        }
+        try {
+            if (tar) {
+                out.write(new byte[2 * TAR_BLOCK]);
+            } else {
+                zos.finish();
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        idx = new File(dir, bundle.getName() + ".idx");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(idx), StandardCharsets.UTF_8)) {
+            w.write(index.toString());
+        }
+        Files.move(partial.toPath(), bundle.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        noBundles++;
+        bundle = null;
+        partial = null;
+        fos = null;
+        out = null;
+        zos = null;
+        index = null;
+    }
+
+    /**
+     * Release the last VEO added (deleting its spool file, if any)
+     */
+    private void releaseLast() {
+        if (last != null) {
+            last.release();
+            last = null;
+        }
+    }
+
+    /**
+     * Construct a ustar header for an entry
+     */
+    private static byte[] tarHeader(String entry, long size) throws IOException {
+        byte[] h, n;
+        int i, split, sum;
+
+        h = new byte[TAR_BLOCK];
+        n = entry.getBytes(StandardCharsets.UTF_8);
+        if (n.length <= 100) {
+            System.arraycopy(n, 0, h, 0, n.length);
+        } else {
+            // split the name into a prefix (up to 155 bytes) and name (up to 100)
+            split = -1;
+            for (i = Math.min(n.length - 1, 155); i > 0; i--) {
+                if (n[i] == '/' && n.length - i - 1 <= 100) {
+                    split = i;
+                    break;
+                }
+            }
+            if (split == -1) {
+                throw new IOException("entry name too long for a TAR bundle: '" + entry + "'");
+            }
+            System.arraycopy(n, split + 1, h, 0, n.length - split - 1);
+            System.arraycopy(n, 0, h, 345, split);
+        }
+        if (size > 077777777777L) {
+            throw new IOException("VEO too large for a TAR bundle: '" + entry + "'");
+        }
+        octal(h, 100, 8, 0644);
+        octal(h, 108, 8, 0);
+        octal(h, 116, 8, 0);
+        octal(h, 124, 12, size);
+        octal(h, 136, 12, System.currentTimeMillis() / 1000);
+        for (i = 148; i < 156; i++) {
+            h[i] = ' ';
+        }
+        h[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+        sum = 0;
+        for (i = 0; i < TAR_BLOCK; i++) {
+            sum += h[i] & 0xff;
+        }
+        octal(h, 148, 7, sum);
+        return h;
+    }
+
+    /**
+     * Write a zero padded, NUL terminated, octal number into a header field
+     */
+    private static void octal(byte[] h, int off, int len, long v) {
+        String s;
+
+        s = Long.toOctalString(v);
+        while (s.length() < len - 1) {
+            s = "0" + s;
+        }
+        System.arraycopy(s.getBytes(StandardCharsets.US_ASCII), 0, h, off, len - 1);
+        h[off + len - 1] = 0;
+    }
+
+    /**
+     * Stream that counts the bytes written through it
+     */
+    private static class CountingStream extends FilterOutputStream {
+
+        long count;
+
+        CountingStream(OutputStream os) {
+            super(os);
+            count = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * The channel holding one VEO until it is complete. The VEO is held in
+     * memory, unless it grows beyond the spool limit, when it is moved to a
+     * spool file.
+     */
+    class BufferChannel extends VEOChannel {
+
+        String entry;           // entry name of the VEO
+        byte[] buf;             // the VEO (if held in memory)
+        File spoolFile;         // spool file (null if held in memory)
+        FileChannel spool;      // channel writing the spool file
+        long posn;              // current write position
+        long size;              // length of the VEO (highest position written)
+        boolean abandoned;      // true if the VEO is not to be added
+
+        BufferChannel(String entry, long sizeHint) {
+            this.entry = entry;
+            buf = new byte[(int) Math.min(Math.max(sizeHint, 65536), SPOOL_LIMIT)];
+            spoolFile = null;
+            spool = null;
+            posn = 0;
+            size = 0;
+            abandoned = false;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n;
+
+            n = write(src, posn);
+            posn += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            int n;
+
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            n = src.remaining();
+            if (spool == null && position + n > SPOOL_LIMIT) {
+                spoolFile = File.createTempFile(".veo", ".spool", dir);
+                spool = FileChannel.open(spoolFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                spool.write(ByteBuffer.wrap(buf, 0, (int) size), 0);
+                buf = null;
+            }
+            if (spool != null) {
+                while (src.hasRemaining()) {
+                    position += spool.write(src, position);
+                }
+            } else {
+                if (position + n > buf.length) {
+                    byte[] b = new byte[(int) Math.min(Math.max(buf.length * 2L, position + n), SPOOL_LIMIT)];
+                    System.arraycopy(buf, 0, b, 0, (int) size);
+                    buf = b;
+                }
+                src.get(buf, (int) position, n);
+                position += n;
+            }
+            if (position > size) {
+                size = position;
+            }
+            return n;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return posn;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("BufferChannel.position(): negative position");
+            }
+            posn = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public FileChannel truncate(long length) throws IOException {
+            if (length < size) {
+                size = length;
+            }
+            if (posn > length) {
+                posn = length;
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            /* nothing to force until the VEO is added to a bundle */
+        }
+
+        /**
+         * Close the VEO, adding it to the current bundle unless it has been
+         * abandoned
+         */
+        @Override
+        protected void implCloseChannel() throws IOException {
+            if (abandoned) {
+                release();
+                return;
+            }
+            try {
+                add(this);
+            } catch (IOException ioe) {
+                release();
+                throw ioe;
+            }
+        }
+
+        /**
+         * Release the memory or spool file holding the VEO
+         */
+        void release() {
+            buf = null;
+            if (spool != null) {
+                try {
+                    spool.close();
+                } catch (IOException ioe) {
+                    /* ignore */ }
+                spool = null;
+                spoolFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * *************************************************************
+ *
+ * C S V D A T A S O U R C E
+ *
+ * This class represents data obtained from a file of comma separated values.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class represents a DataSource that is a file of comma separated values
+ * as defined in RFC 4180. Each record (row) may represent the data for record
+ * metadata, file metadata, document metadata or an encoding, exactly as for a
+ * {@link TableDataSource}: the first field contains 'r' for record metadata,
+ * 'f' for file metadata, 'd' for document metadata, 'e' for an encoding, and
+ * 's' for simple record.
+ * <p>
+ * Fields may be quoted using double quotes. A quoted field may contain the
+ * delimiter, tabs, carriage returns and line feeds, and a double quote is
+ * represented by two double quotes. Records may be terminated by CR LF, LF, or
+ * CR. Blank lines are ignored. The file must be encoded in UTF-8 (a leading
+ * byte order mark is ignored).
+ * <p>
+ * The file is read through a FileChannel into a fixed size buffer and parsed
+ * in a single pass as the VEOs are built, so the file may be arbitrarily
+ * large. The delimiter defaults to a comma but may be changed (e.g. to a
+ * semicolon).
+ * <p>
+ * If the file cannot be read, or ends within a quoted field, the DataSource
+ * ends at that record and the failure is returned by {@link #getError}, so
+ * the run fails rather than silently building only some of the VEOs.
+ */
+public class CSVDataSource extends DataSource {
+
+    FileChannel fc;         // the file being read
+    ByteBuffer bb;          // raw bytes read from the file
+    CharBuffer cb;          // decoded characters waiting to be parsed
+    CharsetDecoder decoder; // UTF-8 decoder
+    boolean eof;            // true when all bytes have been read from the file
+    boolean flushed;        // true when the decoder has been flushed
+    int pushback;           // character read but not consumed (-2 if none)
+    char delimiter;         // the field delimiter
+    StringBuilder field;    // the field being parsed
+    ArrayList<String> fields; // the fields of the record being parsed
+    int recordNo;           // number of the record being parsed (from 1)
+    VEOError error;         // failure reading or parsing the file (null if none)
+
+    private static final int BUFFER_SIZE = 65536;
+
+    // states of the parser
+    private static final int FIELD_START = 0; // at the start of a field
+    private static final int UNQUOTED = 1;    // within an unquoted field
+    private static final int QUOTED = 2;      // within a quoted field
+    private static final int QUOTE_SEEN = 3;  // seen a quote in a quoted field
+
+    /**
+     * Construct a new CSVDataSource from the specified file using a comma as
+     * the delimiter.
+     *
+     * @param csv the file containing the data.
+     * @throws VEOError if the file could not be opened
+     */
+    public CSVDataSource(File csv) throws VEOError {
+        this(csv, ',');
+    }
+
+    /**
+     * Construct a new CSVDataSource from the specified file.
+     *
+     * @param csv the file containing the data.
+     * @param delimiter the character separating fields
+     * @throws VEOError if the file could not be opened
+     */
+    public CSVDataSource(File csv, char delimiter) throws VEOError {
+        super();
+
+        String name = "CSVDataSource(): ";
+
+        if (csv == null) {
+            throw new VEOError(name + "CSV file is null");
+        }
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new VEOError(name + "invalid delimiter");
+        }
+        try {
+            fc = FileChannel.open(csv.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException nsfe) {
+            throw new VEOError(name + "input file '" + csv.getAbsolutePath() + "' not found");
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed opening input file '" + csv.getAbsolutePath() + "': " + ioe.getMessage());
+        }
+        this.delimiter = delimiter;
+        bb = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        cb = CharBuffer.allocate(BUFFER_SIZE);
+        cb.flip();
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        eof = false;
+        flushed = false;
+        field = new StringBuilder();
+        fields = new ArrayList<>();
+        recordNo = 0;
+        error = null;
+        atEnd = false;
+
+        // skip any byte order mark
+        pushback = -2;
+        pushback = nextChar();
+        if (pushback == 0xfeff) {
+            pushback = -2;
+        }
+
+        // read first row
+        readRecord();
+    }
+
+    /**
+     * Close the Data Source
+     *
+     * @throws VEOError if the file failed to close
+     */
+    public void close() throws VEOError {
+        String name = "CSVDataSource.close(): ";
+
+        try {
+            fc.close();
+        } catch (IOException ioe) {
+            throw new VEOError(name + " input file failed to close");
+        }
+    }
+
+    @Override
+    public int getNextRow() {
+        return readRecord();
+    }
+
+    /**
+     * Return the error that ended the DataSource early: the file could not be
+     * read, or it ended within a quoted field.
+     *
+     * @return the error, or null if all the records were read
+     */
+    @Override
+    public VEOError getError() {
+        return error;
+    }
+
+    /**
+     * Read records until a non blank one is found, and work out its type.
+     * Unknown row types are treated in the same way as TableDataSource.
+     *
+     * @return the type of row found
+     */
+    private int readRecord() {
+
+        // return immediately if at end
+        if (atEnd) {
+            return DS_AtEnd;
+        }
+
+        // skip blank lines. A record cut short by an error is not returned
+        do {
+            if (!parseRecord() || error != null) {
+                atEnd = true;
+                rowType = DS_AtEnd;
+                return rowType;
+            }
+        } while (fields.size() == 1 && fields.get(0).length() == 0);
+
+        column = fields.toArray(new String[fields.size()]);
+        rowType = rowTypeOf(column[0]);
+        if (rowType == DS_Unknown) {
+            rowType = DS_AtEnd;
+        }
+        return rowType;
+    }
+
+    /**
+     * Parse the next record into fields. If the file ends within a quoted
+     * field, the record is malformed and the error is recorded.
+     *
+     * @return false if at the end of the file and no record was found
+     */
+    private boolean parseRecord() {
+        int c, state;
+        boolean any;
+        String name = "CSVDataSource.parseRecord(): ";
+
+        fields.clear();
+        field.setLength(0);
+        state = FIELD_START;
+        any = false;
+        recordNo++;
+        while (true) {
+            c = nextChar();
+            if (c == -1) {
+                if (!any) {
+                    return false;
+                }
+                if (state == QUOTED && error == null) {
+                    error = new VEOError(name + "malformed record " + recordNo + ": file ended within a quoted field");
+                }
+                endField();
+                return true;
+            }
+            any = true;
+            switch (state) {
+                case FIELD_START:
+                case UNQUOTED:
+                    if (c == delimiter) {
+                        endField();
+                        state = FIELD_START;
+                    } else if (c == '\r' || c == '\n') {
+                        endRecord(c);
+                        return true;
+                    } else if (c == '"' && state == FIELD_START) {
+                        state = QUOTED;
+                    } else {
+                        field.append((char) c);
+                        state = UNQUOTED;
+                    }
+                    break;
+                case QUOTED:
+                    if (c == '"') {
+                        state = QUOTE_SEEN;
+                    } else {
+                        field.append((char) c);
+                    }
+                    break;
+                case QUOTE_SEEN:
+                    if (c == '"') {
+                        field.append('"');
+                        state = QUOTED;
+                    } else if (c == delimiter) {
+                        endField();
+                        state = FIELD_START;
+                    } else if (c == '\r' || c == '\n') {
+                        endRecord(c);
+                        return true;
+                    } else {
+                        // not strictly RFC 4180, but keep the character
+                        field.append((char) c);
+                        state = UNQUOTED;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Finish the current field
+     */
+    private void endField() {
+        fields.add(field.toString());
+        field.setLength(0);
+    }
+
+    /**
+     * Finish the current record, consuming the LF of a CR LF pair
+     */
+    private void endRecord(int c) {
+        int n;
+
+        endField();
+        if (c == '\r') {
+            n = nextChar();
+            if (n != '\n') {
+                pushback = n;
+            }
+        }
+    }
+
+    /**
+     * Get the next character from the file.
+     *
+     * @return the character, or -1 if at the end of the file
+     */
+    private int nextChar() {
+        int c;
+
+        if (pushback != -2) {
+            c = pushback;
+            pushback = -2;
+            return c;
+        }
+        if (!cb.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return cb.get();
+    }
+
+    /**
+     * Refill the character buffer from the file.
+     *
+     * @return false if there are no more characters
+     */
+    private boolean fill() {
+        String name = "CSVDataSource.fill(): ";
+        boolean drained;
+
+        if (flushed) {
+            return false;
+        }
+        cb.clear();
+        while (true) {
+            if (!eof) {
+                try {
+                    if (fc.read(bb) == -1) {
+                        eof = true;
+                    }
+                } catch (IOException ioe) {
+                    error = new VEOError(name + "failed reading input file (record " + recordNo + "): " + ioe.getMessage());
+                    flushed = true;
+                    cb.flip();
+                    return false;
+                }
+            }
+            bb.flip();
+            decoder.decode(bb, cb, eof);
+            drained = !bb.hasRemaining();
+            bb.compact();
+            if (eof && drained) {
+                decoder.flush(cb);
+                flushed = true;
+            }
+            if (cb.position() > 0 || flushed) {
+                break;
+            }
+        }
+        cb.flip();
+        return cb.hasRemaining();
+    }
+}
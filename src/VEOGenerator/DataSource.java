@@ -1,5 +1,7 @@
 package VEOGenerator;
 
+import VERSCommon.VEOError;
+
 /**
  * *************************************************************
  *
@@ -147,6 +149,18 @@ abstract public class DataSource {
      */
     abstract public int getNextRow();
 
+    /**
+     * Return the error that ended the data source early. A data source that
+     * could not deliver all of its rows (e.g. because the connection to a
+     * database was lost) is at its end, but the rows returned are incomplete;
+     * users of a data source must check this once it is at its end.
+     *
+     * @return the error, or null if all the rows were returned
+     */
+    public VEOError getError() {
+        return null;
+    }
+
     /**
      * This method gets the number of columns in the current row. There is no
      * requirement that each row contains the same number of columns.
@@ -172,6 +186,40 @@ abstract public class DataSource {
         return column[i - 1];
     }
 
+    /**
+     * Work out the type of a row from the contents of its first column. The
+     * first non blank character of the column is used ('f', 'r', 'd', 'e', or
+     * 's', in either case). DS_Unknown is returned if the column is null,
+     * empty, or does not start with one of these characters. This routine is
+     * used by sub-classes.
+     *
+     * @param s the contents of the first column of the row
+     * @return the type of the row
+     */
+    protected static int rowTypeOf(String s) {
+        if (s == null) {
+            return DS_Unknown;
+        }
+        s = s.trim();
+        if (s.length() == 0) {
+            return DS_Unknown;
+        }
+        switch (Character.toLowerCase(s.charAt(0))) {
+            case 'f':
+                return DS_File;
+            case 'r':
+                return DS_Record;
+            case 'd':
+                return DS_Document;
+            case 'e':
+                return DS_Encoding;
+            case 's':
+                return DS_SimpleRecord;
+            default:
+                return DS_Unknown;
+        }
+    }
+
     /**
      * Escape all the XML special characters in a String. XML requires the
      * following characters to be escaped in character data: '&' to '&amp;',
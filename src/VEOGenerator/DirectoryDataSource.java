@@ -0,0 +1,364 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * *************************************************************
+ *
+ * D I R E C T O R Y D A T A S O U R C E
+ *
+ * This class represents data derived from the files in a directory tree.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is a DataSource that generates one VEO for each file found in a
+ * directory tree. It removes the need to hand generate control files for bulk
+ * batches (e.g. digitisation projects) in which each file is to become a
+ * record.
+ * <p>
+ * The tree is walked by a fixed pool of threads (one task per directory), and
+ * rows are passed to the consumer as the walk proceeds, so VEOs start being
+ * generated as soon as the first file is found. Only a fixed number of rows is
+ * buffered; if the consumer falls behind, the walk pauses. The order in which
+ * files are returned is not defined, except that files within a single
+ * directory are returned in name order.
+ * <p>
+ * Only regular files whose path (relative to the root of the tree) matches a
+ * glob pattern (e.g. '**.tif') are included. A null pattern includes all
+ * files.
+ * <p>
+ * For each file, either a simple record row (type 's') or a record, document,
+ * and encoding row (types 'r', 'd', and 'e') is produced:
+ * <pre>
+ *    s &lt;veo&gt; &lt;file&gt; metadata1 metadata2...
+ * or
+ *    r &lt;veo&gt; metadata1 metadata2...
+ *    d metadata1 metadata2...
+ *    e &lt;file&gt;
+ * </pre>
+ * The VEO name is the path of the file relative to the root with the
+ * directory separators replaced by '-', and '.veo' appended (e.g.
+ * 'box1/scan001.tif' becomes 'box1-scan001.tif.veo'). The file is the absolute
+ * path of the file. Different paths can still give the same name (e.g.
+ * 'a-b/c.pdf' and 'a/b-c.pdf'); the second file is not included (as its VEO
+ * would overwrite the first), and the clash is reported by {@link #getError}
+ * once the walk has finished, so the run fails. Directories that cannot be
+ * read are reported in the same way.
+ * <p>
+ * The metadata columns are taken from a sidecar file if one exists. A sidecar
+ * file has the full name of the file with the sidecar suffix (by default
+ * '.meta') appended, e.g. 'scan001.tif.meta', so that 'scan001.tif' and
+ * 'scan001.pdf' each have their own. The first line of the sidecar file
+ * contains the metadata columns separated by tabs. Sidecar files are never
+ * themselves turned into VEOs. If there is no sidecar file the metadata
+ * columns are the names of the directories between the root and the file,
+ * followed by the name of the file without its extension. A sidecar file that
+ * cannot be read is reported by {@link #getError} (and its file is not
+ * included), rather than being replaced by these columns.
+ */
+public class DirectoryDataSource extends StreamDataSource {
+
+    Path root;              // root of the directory tree
+    PathMatcher matcher;    // pattern files must match (null if all files)
+    boolean simpleRecords;  // true if 's' rows are generated, false if 'r','d','e'
+    String sidecarSuffix;   // suffix of sidecar files (null if none)
+    ExecutorService pool;   // threads walking the tree
+    AtomicInteger pending;  // directories waiting to be, or being, walked
+    Set<String> veoNames;   // names of the VEOs generated so far
+
+    /**
+     * Start walking a directory tree. The walk starts immediately, using one
+     * thread per available processor.
+     *
+     * @param root the root of the directory tree
+     * @param pattern glob pattern that the relative path of a file must match
+     * to be included (null to include all files)
+     * @param rowType 's' to generate simple record rows, or 'r' to generate
+     * record, document, and encoding rows
+     * @param sidecarSuffix the suffix of sidecar files containing metadata
+     * (e.g. '.meta'), or null if sidecar files are not used
+     * @throws VEOError if the root is not a directory or the arguments are
+     * invalid
+     */
+    public DirectoryDataSource(File root, String pattern, char rowType, String sidecarSuffix) throws VEOError {
+        this(root, pattern, rowType, sidecarSuffix, Runtime.getRuntime().availableProcessors(), 1000);
+    }
+
+    /**
+     * Start walking a directory tree.
+     *
+     * @param root the root of the directory tree
+     * @param pattern glob pattern that the relative path of a file must match
+     * to be included (null to include all files)
+     * @param rowType 's' to generate simple record rows, or 'r' to generate
+     * record, document, and encoding rows
+     * @param sidecarSuffix the suffix of sidecar files containing metadata
+     * (e.g. '.meta'), or null if sidecar files are not used
+     * @param threads the number of threads walking the tree
+     * @param capacity the maximum number of rows buffered before the walk
+     * pauses
+     * @throws VEOError if the root is not a directory or the arguments are
+     * invalid
+     */
+    public DirectoryDataSource(File root, String pattern, char rowType, String sidecarSuffix, int threads, int capacity) throws VEOError {
+        super(capacity);
+
+        String name = "DirectoryDataSource(): ";
+
+        if (root == null) {
+            throw new VEOError(name + "root directory is null");
+        }
+        if (!root.isDirectory()) {
+            throw new VEOError(name + "'" + root.getAbsolutePath() + "' is not a directory");
+        }
+        switch (Character.toLowerCase(rowType)) {
+            case 's':
+                simpleRecords = true;
+                break;
+            case 'r':
+                simpleRecords = false;
+                break;
+            default:
+                throw new VEOError(name + "row type must be 's' or 'r', not '" + rowType + "'");
+        }
+        this.root = root.toPath().toAbsolutePath().normalize();
+        try {
+            matcher = pattern == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        } catch (IllegalArgumentException iae) {
+            throw new VEOError(name + "invalid pattern '" + pattern + "': " + iae.getMessage());
+        }
+        this.sidecarSuffix = (sidecarSuffix == null || sidecarSuffix.equals("")) ? null : sidecarSuffix;
+        if (threads < 1) {
+            threads = 1;
+        }
+
+        // walk the tree in the background; the data source is closed when
+        // the last directory has been walked. A plain pool is used (rather
+        // than a ForkJoinPool) as the walkers block when the buffer is full
+        veoNames = ConcurrentHashMap.newKeySet();
+        pending = new AtomicInteger(0);
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "DirectoryDataSource walker");
+            t.setDaemon(true);
+            return t;
+        });
+        walkLater(this.root);
+    }
+
+    /**
+     * Stop walking the tree. Any rows not yet consumed are discarded, and the
+     * data source will be at its end once the walk has stopped.
+     */
+    public void cancel() {
+        pool.shutdownNow();
+        queue.clear();
+        close();
+    }
+
+    /**
+     * Queue a directory to be walked
+     */
+    private void walkLater(Path dir) {
+        pending.incrementAndGet();
+        try {
+            pool.execute(() -> walk(dir));
+        } catch (RejectedExecutionException ree) {
+            walked(); // cancelled
+        }
+    }
+
+    /**
+     * Note that a directory has been walked, closing the data source after
+     * the last one
+     */
+    private void walked() {
+        if (pending.decrementAndGet() == 0) {
+            pool.shutdown();
+            close();
+        }
+    }
+
+    /**
+     * Walk one directory, queueing each subdirectory to be walked, then
+     * generating the rows for the files in the directory
+     */
+    private void walk(Path dir) {
+        List<Path> files;
+        int i;
+
+        try {
+            files = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path p : ds) {
+                    if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                        walkLater(p);
+                    } else if (Files.isRegularFile(p)) {
+                        files.add(p);
+                    }
+                }
+            } catch (IOException ioe) {
+                failed("failed reading directory '" + dir + "': " + ioe.getMessage());
+                return;
+            }
+            Collections.sort(files);
+            for (i = 0; i < files.size() && !pool.isShutdown(); i++) {
+                emit(files.get(i));
+            }
+        } catch (VEOError ve) {
+            // data source was cancelled
+        } catch (RuntimeException re) {
+            failed("walk failed: " + re.toString());
+        } finally {
+            walked();
+        }
+    }
+
+    /**
+     * Record a problem with the walk. The walk continues, but the data source
+     * will report the (first) problem once it is at its end.
+     */
+    private void failed(String msg) {
+        System.err.println("DirectoryDataSource: " + msg);
+        if (error == null) {
+            error = new VEOError("DirectoryDataSource: " + msg);
+        }
+    }
+
+    /**
+     * Generate the rows for one file
+     *
+     * @param file the file
+     * @throws VEOError if the data source has been cancelled
+     */
+    private void emit(Path file) throws VEOError {
+        Path rel;
+        String fileName, base, veoName;
+        String[] meta, row, doc;
+        int i;
+
+        rel = root.relativize(file);
+        fileName = file.getFileName().toString();
+        if (sidecarSuffix != null && fileName.endsWith(sidecarSuffix)) {
+            return;
+        }
+        if (matcher != null && !matcher.matches(rel)) {
+            return;
+        }
+
+        // name of VEO is derived from the relative path, and must be unique
+        veoName = rel.toString().replace(File.separatorChar, '-').replace('/', '-') + ".veo";
+        if (!veoNames.add(veoName)) {
+            failed("'" + rel + "' not included, as another file already gives the VEO name '" + veoName + "'");
+            return;
+        }
+
+        // get metadata from the sidecar file or path components
+        base = stripExtension(fileName);
+        meta = null;
+        if (sidecarSuffix != null) {
+            try {
+                meta = readSidecar(sidecarOf(file, sidecarSuffix));
+            } catch (VEOError ve) {
+                failed("'" + rel + "' not included: " + ve.getMessage());
+                return;
+            }
+        }
+        if (meta == null) {
+            meta = new String[rel.getNameCount()];
+            for (i = 0; i < rel.getNameCount() - 1; i++) {
+                meta[i] = rel.getName(i).toString();
+            }
+            meta[i] = base;
+        }
+
+        if (simpleRecords) {
+            row = new String[3 + meta.length];
+            row[0] = "s";
+            row[1] = veoName;
+            row[2] = file.toString();
+            System.arraycopy(meta, 0, row, 3, meta.length);
+            addRow(row);
+        } else {
+            row = new String[2 + meta.length];
+            row[0] = "r";
+            row[1] = veoName;
+            System.arraycopy(meta, 0, row, 2, meta.length);
+            doc = new String[1 + meta.length];
+            doc[0] = "d";
+            System.arraycopy(meta, 0, doc, 1, meta.length);
+            addRows(row, doc, new String[]{"e", file.toString()});
+        }
+    }
+
+    /**
+     * Get the sidecar file of a file (the full name of the file with the
+     * sidecar suffix appended)
+     *
+     * @param file the file
+     * @param sidecarSuffix the suffix of sidecar files
+     * @return the sidecar file (which may not exist)
+     */
+    static Path sidecarOf(Path file, String sidecarSuffix) {
+        return file.resolveSibling(file.getFileName().toString() + sidecarSuffix);
+    }
+
+    /**
+     * Read the metadata columns from the first line of a sidecar file.
+     *
+     * @param sidecar the sidecar file
+     * @return the columns, or null if the sidecar file does not exist
+     * @throws VEOError if the sidecar file exists but could not be read
+     */
+    static String[] readSidecar(Path sidecar) throws VEOError {
+        String s;
+
+        if (!Files.isRegularFile(sidecar)) {
+            return null;
+        }
+        try (BufferedReader br = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8)) {
+            s = br.readLine();
+        } catch (IOException ioe) {
+            throw new VEOError("DirectoryDataSource.readSidecar(): failed reading sidecar file '" + sidecar + "': " + ioe.getMessage());
+        }
+        if (s == null) {
+            return new String[0];
+        }
+        return s.split("\t");
+    }
+
+    /**
+     * Remove the file extension (if any) from the last component of a path
+     */
+    static String stripExtension(String s) {
+        int i, j;
+
+        i = s.lastIndexOf('.');
+        j = Math.max(s.lastIndexOf('/'), s.lastIndexOf(File.separatorChar));
+        if (i <= j + 1) {
+            return s;
+        }
+        return s.substring(0, i);
+    }
+}
@@ -79,6 +79,8 @@ public class EncodingFragment extends Fragment {
         String s, fileType;
         String[] temp;
         Fragment t;
+        long start;
+        Object ev;
 
         // get data
         if (data.getNoColumns() < column) {
@@ -88,6 +90,8 @@ public class EncodingFragment extends Fragment {
 
         // extract file name of encoding from strings[column] and check that it
         // exists
+        start = System.nanoTime();
+        ev = VEOEvents.begin(VEOEvents.ENCODING, veo);
         s = data.getColumn(column);
         if (s == null) {
             throw new VEOError(location
@@ -145,6 +149,8 @@ public class EncodingFragment extends Fragment {
             data = new ArrayDataSource(temp);
         }
         t.finalise(data, veo);
+        VEOMetrics.encoding.record(System.nanoTime() - start);
+        VEOEvents.end(ev, veo, s);
 
         // finalise any trailing fragments (if any)
         if (next != null) {
@@ -6,6 +6,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * *************************************************************
@@ -101,6 +105,8 @@ public class FileFragment extends Fragment {
         B64 b64;
         FileInputStream fis;
         BufferedInputStream bis;
+        InputStream is;
+        MessageDigest md;
         byte bin[], bout[];
         byte lessthan[] = {0x26, 0x6c, 0x74, 0x3b};
         byte greaterthan[] = {0x26, 0x67, 0x74, 0x3b};
@@ -131,6 +137,16 @@ public class FileFragment extends Fragment {
                     + "file '" + s + "' is not a normal file");
         }
 
+        // when only sizing the VEO, the Base64 encoding of a binary file is
+        // not generated, as its length follows from the length of the file
+        if (type == TYPE_BINARY && veo.sizing) {
+            veo.skipOutput(B64.encodedLength(file.length()));
+            if (next != null) {
+                next.finalise(data, veo);
+            }
+            return;
+        }
+
         // open input file as a buffered binary file
         try {
             fis = new FileInputStream(file);
@@ -140,20 +156,32 @@ public class FileFragment extends Fragment {
         }
         bis = new BufferedInputStream(fis);
 
+        // if required, digest the file as it is read
+        md = null;
+        is = bis;
+        if (veo.digesting) {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new VEOError(location + "SHA-256 not available: " + nsae.getMessage());
+            }
+            is = new DigestInputStream(bis, md);
+        }
+
         // if type is binary
         try {
             if (type == TYPE_BINARY) {
                 b64 = new B64();
 
                 // for each byte in source
-                b64.toBase64(bis, veo);
+                b64.toBase64(is, veo);
 
                 // if type is utf8
             } else if (type == TYPE_UTF8) {
                 bin = new byte[1];
 
                 // for each byte in source
-                while (bis.read(bin) != -1) {
+                while (is.read(bin) != -1) {
                     // if special character replace by escaped version
                     switch (bin[0]) {
                         // i.e. ascii '<'
@@ -178,7 +206,7 @@ public class FileFragment extends Fragment {
             } else if (type == TYPE_XML_UTF8) {
                 // for each byte in source write to VEO and signatures
                 bin = new byte[1];
-                while (bis.read(bin) != -1) {
+                while (is.read(bin) != -1) {
                     veo.outputDataToVeo(bin);
                 }
 
@@ -187,6 +215,10 @@ public class FileFragment extends Fragment {
             throw new VEOError(location + "Error reading input file: "
                     + ioe.getMessage());
         }
+        VEOMetrics.attachmentBytesRead.add(file.length());
+        if (md != null) {
+            veo.addAttachmentDigest(file.getAbsolutePath(), file.length(), md.digest());
+        }
 
         try {
             bis.close();
@@ -0,0 +1,409 @@
+package VEOGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * *************************************************************
+ *
+ * G Z I P V E O O U T P U T
+ *
+ * This class writes gzip compressed VEOs, compressing in parallel.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This output engine writes each VEO compressed in the gzip format, using
+ * several threads to compress it (in the manner of pigz). The signatures are
+ * calculated by the generator over the uncompressed VEO, exactly as for an
+ * uncompressed VEO; decompressing the file gives the same VEO as would have
+ * been written without compression.
+ * <p>
+ * The file consists of two gzip members (which gzip and GZIPInputStream
+ * decompress as one stream):
+ * <ul>
+ * <li>the head of the VEO (up to the end of the lock signature block, so
+ * containing all the signature placeholders). This is held in memory until the
+ * VEO is complete and the signatures have been patched in, and is then
+ * written, uncompressed (as stored deflate blocks), into space reserved for it
+ * at the start of the file. As the head is stored, the size of the space is
+ * known as soon as the head is.</li>
+ * <li>the remainder of the VEO. This is cut into 128KB blocks, and each block
+ * compressed by a thread from a shared pool, primed with the last 32KB of the
+ * preceding block. Each block ends on a byte boundary (a sync flush), so the
+ * compressed blocks are simply written in order to form a single deflate
+ * stream. The CRC is calculated as the blocks are queued.</li>
+ * </ul>
+ * Only a limited number of blocks are queued per VEO, so memory use is
+ * bounded however large the VEO.
+ * <p>
+ * The generator tells the engine where the head ends (see
+ * {@link VEOOutput#signatureBlocksWritten}). Until then the VEO is held in
+ * memory, so a VEO whose head is never marked is written entirely as stored
+ * blocks.
+ */
+public class GzipVEOOutput extends VEOOutput {
+
+    int threads;            // number of threads compressing
+    int level;              // compression level
+    ExecutorService pool;   // threads compressing the blocks
+
+    static final int BLOCK = 128 * 1024;
+    static final int DICT = 32 * 1024;
+    static final int STORED_MAX = 65535;
+    static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    /**
+     * Construct a gzip output engine.
+     *
+     * @param threads the number of threads to compress with (0 for the number
+     * of processors)
+     * @param level the compression level (1-9)
+     */
+    public GzipVEOOutput(int threads, int level) {
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.level = level < 1 || level > 9 ? Deflater.DEFAULT_COMPRESSION : level;
+        pool = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "GzipVEOOutput compress");
+            t.setDaemon(true);
+            return t;
+        });
+        deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+    }
+
+    /**
+     * Create a compressed VEO.
+     *
+     * @param veo the file to contain the compressed VEO
+     * @param sizeHint not used
+     * @return the channel
+     * @throws IOException if the file could not be created
+     */
+    @Override
+    public FileChannel open(File veo, long sizeHint) throws IOException {
+        return new GzipChannel(veo);
+    }
+
+    /**
+     * Mark the end of the head of the VEO.
+     *
+     * @param ch the channel returned by open()
+     * @throws IOException if the head could not be marked
+     */
+    @Override
+    public void signatureBlocksWritten(FileChannel ch) throws IOException {
+        if (ch instanceof GzipChannel) {
+            ((GzipChannel) ch).endHead();
+        }
+    }
+
+    /**
+     * Stop the compressing threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "gzip compressed files (" + threads + " compressing thread(s))";
+    }
+
+    /**
+     * Compress a block as part of a deflate stream, primed with the end of the
+     * preceding block. The result ends on a byte boundary; if last, it ends
+     * the deflate stream.
+     */
+    private byte[] deflate(byte[] block, int len, byte[] dict, boolean last) {
+        Deflater d;
+        ByteArrayOutputStream out;
+        byte[] buf;
+        int n;
+
+        d = deflaters.get();
+        d.reset();
+        if (dict != null) {
+            d.setDictionary(dict);
+        }
+        d.setInput(block, 0, len);
+        out = new ByteArrayOutputStream(len / 2 + 64);
+        buf = new byte[65536];
+        if (last) {
+            d.finish();
+            while (!d.finished()) {
+                n = d.deflate(buf, 0, buf.length);
+                out.write(buf, 0, n);
+            }
+        } else {
+            do {
+                n = d.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                out.write(buf, 0, n);
+            } while (n == buf.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the size of a gzip member holding the given number of bytes as
+     * stored deflate blocks
+     */
+    private static long storedMemberSize(long len) {
+        long blocks;
+
+        blocks = len == 0 ? 1 : (len + STORED_MAX - 1) / STORED_MAX;
+        return GZIP_HEADER.length + blocks * 5 + len + 8;
+    }
+
+    /**
+     * Put an int into a buffer little endian (as gzip requires)
+     */
+    private static void putIntLE(byte[] b, int off, long v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >> 8);
+        b[off + 2] = (byte) (v >> 16);
+        b[off + 3] = (byte) (v >> 24);
+    }
+
+    /**
+     * The channel writing one compressed VEO.
+     */
+    class GzipChannel extends VEOChannel {
+
+        FileOutputStream fos;   // the compressed file
+        FileChannel fc;         // channel writing the compressed file
+        byte[] head;            // the head of the VEO (uncompressed)
+        long headEnd;           // length of the head (-1 until it is known)
+        byte[] block;           // block of the body being filled
+        int blockLen;           // bytes in the block
+        byte[] dict;            // end of the preceding block (null if first)
+        ArrayDeque<Future<byte[]>> queue; // blocks being compressed (in order)
+        CRC32 crc;              // CRC of the body
+        long posn;              // current write position
+        long size;              // length of the VEO (highest position written)
+
+        GzipChannel(File veo) throws IOException {
+            fos = new FileOutputStream(veo);
+            fc = fos.getChannel();
+            head = new byte[65536];
+            headEnd = -1;
+            block = null;
+            blockLen = 0;
+            dict = null;
+            queue = new ArrayDeque<>();
+            crc = new CRC32();
+            posn = 0;
+            size = 0;
+        }
+
+        /**
+         * The head is complete; reserve the space for it and start the body
+         */
+        void endHead() throws IOException {
+            if (headEnd != -1) {
+                return;
+            }
+            headEnd = size;
+            fc.position(storedMemberSize(headEnd));
+            fc.write(ByteBuffer.wrap(GZIP_HEADER));
+            block = new byte[BLOCK];
+            blockLen = 0;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n;
+
+            n = write(src, posn);
+            posn += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            int n, len;
+
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            n = src.remaining();
+
+            // writing to the head (including patching the signatures)
+            if (headEnd == -1 || position + n <= headEnd) {
+                if (position + n > head.length) {
+                    head = Arrays.copyOf(head, (int) Math.max(head.length * 2L, position + n));
+                }
+                src.get(head, (int) position, n);
+                if (position + n > size) {
+                    size = position + n;
+                }
+                return n;
+            }
+
+            // the body can only be appended to
+            if (position != size) {
+                throw new IOException("GzipChannel.write(): cannot write at " + position + " after the head of a compressed VEO (length " + size + ")");
+            }
+            while (src.hasRemaining()) {
+                len = Math.min(src.remaining(), BLOCK - blockLen);
+                src.get(block, blockLen, len);
+                blockLen += len;
+                if (blockLen == BLOCK) {
+                    submit(false);
+                }
+            }
+            size += n;
+            return n;
+        }
+
+        /**
+         * Queue the current block for compression, and write any blocks
+         * that have been compressed
+         */
+        private void submit(boolean last) throws IOException {
+            final byte[] b, d;
+            final int len;
+
+            b = block;
+            len = blockLen;
+            d = dict;
+            crc.update(b, 0, len);
+            queue.add(pool.submit(() -> deflate(b, len, d, last)));
+            dict = len >= DICT ? Arrays.copyOfRange(b, len - DICT, len) : null;
+            block = new byte[BLOCK];
+            blockLen = 0;
+            while (!queue.isEmpty() && (queue.size() > threads * 2 || queue.peek().isDone())) {
+                writeNext();
+            }
+        }
+
+        /**
+         * Wait for the oldest queued block, and write it
+         */
+        private void writeNext() throws IOException {
+            ByteBuffer bb;
+
+            try {
+                bb = ByteBuffer.wrap(queue.remove().get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("GzipChannel: interrupted compressing VEO");
+            } catch (ExecutionException ee) {
+                throw new IOException("GzipChannel: failed compressing VEO: " + ee.getCause().getMessage());
+            }
+            while (bb.hasRemaining()) {
+                fc.write(bb);
+            }
+        }
+
+        /**
+         * Write the head of the VEO as a gzip member of stored blocks
+         */
+        private void writeHead() throws IOException {
+            ByteBuffer bb;
+            CRC32 hcrc;
+            byte[] trailer;
+            int off, len;
+
+            bb = ByteBuffer.allocate((int) storedMemberSize(headEnd));
+            bb.put(GZIP_HEADER);
+            off = 0;
+            do {
+                len = (int) Math.min(STORED_MAX, headEnd - off);
+                bb.put((byte) (off + len == headEnd ? 1 : 0));
+                bb.put((byte) len).put((byte) (len >> 8));
+                bb.put((byte) ~len).put((byte) (~len >> 8));
+                bb.put(head, off, len);
+                off += len;
+            } while (off < headEnd);
+            hcrc = new CRC32();
+            hcrc.update(head, 0, (int) headEnd);
+            trailer = new byte[8];
+            putIntLE(trailer, 0, hcrc.getValue());
+            putIntLE(trailer, 4, headEnd);
+            bb.put(trailer);
+            bb.flip();
+            while (bb.hasRemaining()) {
+                fc.write(bb, bb.position());
+            }
+        }
+
+        @Override
+        public long position() throws IOException {
+            return posn;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("GzipChannel.position(): negative position");
+            }
+            posn = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public FileChannel truncate(long length) throws IOException {
+            throw new UnsupportedOperationException("GzipChannel.truncate(): not supported");
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            fc.force(metaData);
+        }
+
+        /**
+         * Complete the VEO: compress the last block, write the remaining
+         * blocks and the body trailer, and then write the head into the space
+         * reserved for it
+         */
+        @Override
+        protected void implCloseChannel() throws IOException {
+            byte[] trailer;
+
+            try {
+                if (headEnd == -1) {
+                    headEnd = size;
+                    fc.position(storedMemberSize(headEnd));
+                } else {
+                    submit(true);
+                    while (!queue.isEmpty()) {
+                        writeNext();
+                    }
+                    trailer = new byte[8];
+                    putIntLE(trailer, 0, crc.getValue());
+                    putIntLE(trailer, 4, size - headEnd);
+                    fc.write(ByteBuffer.wrap(trailer));
+                }
+                writeHead();
+            } finally {
+                for (Future<byte[]> f : queue) {
+                    f.cancel(false);
+                }
+                fos.close();
+            }
+        }
+    }
+}
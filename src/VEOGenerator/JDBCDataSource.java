@@ -0,0 +1,369 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * *************************************************************
+ *
+ * J D B C D A T A S O U R C E
+ *
+ * This class represents data obtained from a query on a relational database.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is a DataSource in which each row is a row of a JDBC ResultSet.
+ * It allows VEOs to be generated directly from metadata held in a database
+ * without first exporting it to a control file.
+ * <p>
+ * One column of the ResultSet (the type column) contains the type of the row
+ * ('f', 'r', 'd', 'e', or 's') as it would appear in the first column of a
+ * control file. The type column becomes column 1 of the DataSource, and the
+ * remaining columns of the ResultSet follow in order. For example, the query
+ * <pre>
+ *     SELECT veo_name, attachment, title, row_type FROM ...
+ * </pre>
+ * with a type column of 4 produces rows equivalent to the control file row
+ * <pre>
+ *     s veo_name attachment title
+ * </pre>
+ * SQL NULL values are returned as empty strings. A row whose type column is
+ * not one of the row types is given the type DS_AtEnd (so VEOCreator reports
+ * it as out of sequence and skips it), exactly as an unrecognised row is by a
+ * {@link TableDataSource} or {@link CSVDataSource}.
+ * <p>
+ * The rows are read from the ResultSet as the VEOs are built; only the current
+ * row is held by this class. The fetch size controls how many rows the JDBC
+ * driver fetches from the database in each round trip. Note that some drivers
+ * only honour the fetch size under particular conditions (e.g. PostgreSQL
+ * requires auto commit to be turned off on the Connection).
+ * <p>
+ * If the ResultSet cannot be read (e.g. the connection to the database is
+ * lost), the DataSource ends at that row and the failure is returned by
+ * {@link #getError}, so the run fails rather than silently building only some
+ * of the VEOs.
+ * <p>
+ * The DataSource must be closed when it is no longer required.
+ */
+public class JDBCDataSource extends DataSource {
+
+    ResultSet rs;       // the rows
+    Statement stmt;     // statement created by this class (null if passed a ResultSet)
+    int typeColumn;     // column in the ResultSet containing the row type
+    int noColumns;      // number of columns in the ResultSet
+    VEOError error;     // failure reading the ResultSet (null if none)
+
+    /**
+     * Construct a JDBCDataSource by executing a query. The query is executed
+     * as a forward only, read only, statement.
+     *
+     * @param conn the connection to the database
+     * @param query the SQL query that returns the rows
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * (0 to use the driver default)
+     * @param typeColumn the column in the result (starting at 1) that contains
+     * the type of the row
+     * @throws VEOError if the query could not be executed
+     */
+    public JDBCDataSource(Connection conn, String query, int fetchSize, int typeColumn) throws VEOError {
+        super();
+
+        ResultSet r;
+        String name = "JDBCDataSource(): ";
+
+        if (conn == null) {
+            throw new VEOError(name + "connection is null");
+        }
+        if (query == null) {
+            throw new VEOError(name + "query is null");
+        }
+        try {
+            stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (fetchSize > 0) {
+                stmt.setFetchSize(fetchSize);
+            }
+            r = stmt.executeQuery(query);
+        } catch (SQLException sqle) {
+            closeStatement();
+            throw new VEOError(name + "failed executing query '" + query + "': " + sqle.getMessage());
+        }
+        init(r, fetchSize, typeColumn, name);
+    }
+
+    /**
+     * Construct a JDBCDataSource from an existing ResultSet. The ResultSet
+     * should be positioned before the first row.
+     *
+     * @param rs the rows
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * (0 to leave the fetch size unchanged)
+     * @param typeColumn the column in the result (starting at 1) that contains
+     * the type of the row
+     * @throws VEOError if the ResultSet could not be read
+     */
+    public JDBCDataSource(ResultSet rs, int fetchSize, int typeColumn) throws VEOError {
+        super();
+
+        stmt = null;
+        init(rs, fetchSize, typeColumn, "JDBCDataSource(): ");
+    }
+
+    /**
+     * Construct a JDBCDataSource from an existing ResultSet, identifying the
+     * type column by its label.
+     *
+     * @param rs the rows
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * (0 to leave the fetch size unchanged)
+     * @param typeColumnLabel the label of the column that contains the type of
+     * the row
+     * @throws VEOError if the ResultSet could not be read or the column does
+     * not exist
+     */
+    public JDBCDataSource(ResultSet rs, int fetchSize, String typeColumnLabel) throws VEOError {
+        super();
+
+        String name = "JDBCDataSource(): ";
+
+        stmt = null;
+        if (rs == null) {
+            throw new VEOError(name + "result set is null");
+        }
+        try {
+            typeColumn = rs.findColumn(typeColumnLabel);
+        } catch (SQLException sqle) {
+            throw new VEOError(name + "type column '" + typeColumnLabel + "' not found: " + sqle.getMessage());
+        }
+        init(rs, fetchSize, typeColumn, name);
+    }
+
+    /**
+     * Common initialisation. Checks the type column and reads the first row.
+     */
+    private void init(ResultSet rs, int fetchSize, int typeColumn, String name) throws VEOError {
+        ResultSetMetaData rsmd;
+
+        if (rs == null) {
+            throw new VEOError(name + "result set is null");
+        }
+        this.rs = rs;
+        error = null;
+        try {
+            rsmd = rs.getMetaData();
+            noColumns = rsmd.getColumnCount();
+            if (fetchSize > 0) {
+                rs.setFetchSize(fetchSize);
+            }
+        } catch (SQLException sqle) {
+            close();
+            throw new VEOError(name + "failed reading result set: " + sqle.getMessage());
+        }
+        if (typeColumn < 1 || typeColumn > noColumns) {
+            close();
+            throw new VEOError(name + "type column (" + typeColumn + ") must be between 1 and " + noColumns);
+        }
+        this.typeColumn = typeColumn;
+
+        // read first row
+        atEnd = false;
+        readRow();
+    }
+
+    /**
+     * Close the Data Source. This closes the ResultSet, and the Statement if it
+     * was created by this class. The Connection is not closed.
+     */
+    public void close() {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+        } catch (SQLException sqle) {
+            /* ignore */ }
+        closeStatement();
+    }
+
+    /**
+     * Close the statement if it was created by this class
+     */
+    private void closeStatement() {
+        try {
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException sqle) {
+            /* ignore */ }
+    }
+
+    @Override
+    public int getNextRow() {
+        return readRow();
+    }
+
+    /**
+     * Return the failure reading the ResultSet that ended the data source
+     * early.
+     *
+     * @return the error, or null if all the rows were read
+     */
+    @Override
+    public VEOError getError() {
+        return error;
+    }
+
+    /**
+     * Read the next row from the ResultSet, putting the type column first.
+     *
+     * @return the type of the row found
+     */
+    private int readRow() {
+        String name = "JDBCDataSource.getNextRow(): ";
+        String s;
+        int i, j;
+
+        // return immediately if at end
+        if (atEnd) {
+            return DS_AtEnd;
+        }
+
+        try {
+            if (!rs.next()) {
+                atEnd = true;
+                rowType = DS_AtEnd;
+                return rowType;
+            }
+            column = new String[noColumns];
+            j = 1;
+            for (i = 1; i <= noColumns; i++) {
+                s = rs.getString(i);
+                if (s == null) {
+                    s = "";
+                }
+                if (i == typeColumn) {
+                    column[0] = s;
+                } else {
+                    column[j] = s;
+                    j++;
+                }
+            }
+        } catch (SQLException sqle) {
+            error = new VEOError(name + "failed reading result set: " + sqle.getMessage());
+            atEnd = true;
+            rowType = DS_AtEnd;
+            return rowType;
+        }
+        rowType = rowTypeOf(column[0]);
+        if (rowType == DS_Unknown) {
+            rowType = DS_AtEnd;
+        }
+        return rowType;
+    }
+
+    /**
+     * Test program. A JDBCDataSource is driven by a stub ResultSet to check
+     * that it gives the same row types as a TableDataSource reading the same
+     * rows (including an unrecognised row type), and that a failure reading
+     * the ResultSet ends it with the failure returned by getError().
+     *
+     * @param args command line arguments (not used)
+     */
+    public static void main(String args[]) {
+        String[][] rows;
+        String[] types;
+        File f;
+        JDBCDataSource jds;
+        TableDataSource tds;
+        String expected, got;
+        int i;
+
+        rows = new String[][]{{"veo1.veo", "s", "a.pdf"}, {"veo2.veo", "r", "Title"}, {"", "x", ""}, {"veo3.veo", "s", "b.pdf"}};
+        try {
+            // the same rows as a control file (type column first)
+            f = File.createTempFile("jdbc", ".txt");
+            f.deleteOnExit();
+            types = new String[rows.length];
+            for (i = 0; i < rows.length; i++) {
+                types[i] = rows[i][1] + "\t" + rows[i][0] + "\t" + rows[i][2];
+            }
+            Files.write(f.toPath(), String.join("\n", types).getBytes(StandardCharsets.UTF_8));
+            tds = new TableDataSource(f);
+            expected = readAll(tds);
+            tds.close();
+
+            jds = new JDBCDataSource(stubResultSet(rows, -1), 0, 2);
+            got = readAll(jds);
+            jds.close();
+            System.out.println("Row types: TableDataSource '" + expected + "', JDBCDataSource '" + got + "'");
+            if (!got.equals(expected) || jds.getError() != null) {
+                System.out.println("Failed");
+                System.exit(-1);
+            }
+
+            jds = new JDBCDataSource(stubResultSet(rows, 2), 0, 2);
+            got = readAll(jds);
+            jds.close();
+            System.out.println("Failure reading row 2: JDBCDataSource '" + got + "', error: " + jds.getError());
+            if (!got.equals(DS_SimpleRecord + " ") || jds.getError() == null) {
+                System.out.println("Failed");
+                System.exit(-1);
+            }
+        } catch (VEOError | IOException e) {
+            System.out.println("Failed: " + e.getMessage());
+            System.exit(-1);
+        }
+        System.out.println("Passed");
+    }
+
+    /**
+     * Read a DataSource to its end, returning the type of each row
+     */
+    private static String readAll(DataSource ds) {
+        StringBuilder sb;
+
+        sb = new StringBuilder();
+        while (!ds.isAtEnd()) {
+            sb.append(ds.getRowType());
+            sb.append(' ');
+            ds.getNextRow();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A stub ResultSet returning the given rows, which fails when moving to
+     * row failAt (counting from 1; -1 if it never fails)
+     */
+    private static ResultSet stubResultSet(String[][] rows, int failAt) {
+        final int[] row = {0};
+
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, m, a) -> {
+            switch (m.getName()) {
+                case "next":
+                    row[0]++;
+                    if (row[0] == failAt) {
+                        throw new SQLException("connection lost");
+                    }
+                    return row[0] <= rows.length;
+                case "getString":
+                    return rows[row[0] - 1][(Integer) a[0] - 1];
+                case "getMetaData":
+                    return Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class},
+                            (p, m2, a2) -> m2.getName().equals("getColumnCount") ? rows[0].length : null);
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,291 @@
+package VEOGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * *************************************************************
+ *
+ * M A P P E D V E O O U T P U T
+ *
+ * This class writes VEOs into preallocated, memory mapped files.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This output engine writes each VEO through a memory mapped window onto a
+ * preallocated file. Before writing starts, the file is extended to the
+ * expected size of the VEO, so the file system can allocate the file as a few
+ * large extents rather than extending it on every write. The VEO is written by
+ * copying into a window (of up to 16MB) mapped onto the file; the window slides
+ * along the file as the VEO is written, and back to the start when the
+ * signatures are patched in. If the VEO turns out to be larger than expected,
+ * the file is extended again, by at least as much as has been allocated so far.
+ * When the VEO is closed, the file is truncated to the exact length of the VEO.
+ * <p>
+ * The expected size is the size hint given by the generator (see
+ * {@link VEOGenerator#setSizeHint}). If there is no hint, the size of the
+ * previous VEO written is used, as successive VEOs in a run are usually of a
+ * similar size.
+ */
+public class MappedVEOOutput extends VEOOutput {
+
+    volatile long lastSize; // size of the last VEO written (0 if none)
+
+    static final long WINDOW = 16 * 1024 * 1024; // maximum size of the mapped window
+    static final long MIN_ALLOCATION = 1024 * 1024; // minimum preallocation
+    static final long MAX_EXTENSION = 256 * 1024 * 1024; // maximum single extension
+    static final long PAGE = 4096;
+
+    /**
+     * Construct a mapped output engine.
+     */
+    public MappedVEOOutput() {
+        lastSize = 0;
+    }
+
+    /**
+     * Open a VEO for writing, preallocating it.
+     *
+     * @param veo the file to contain the VEO
+     * @param sizeHint the expected size of the VEO (0 if unknown)
+     * @return the channel
+     * @throws IOException if the file could not be created
+     */
+    @Override
+    public FileChannel open(File veo, long sizeHint) throws IOException {
+        if (sizeHint <= 0) {
+            sizeHint = lastSize;
+        }
+        return new MappedChannel(veo, sizeHint);
+    }
+
+    @Override
+    public String toString() {
+        return "preallocated memory mapped files";
+    }
+
+    /**
+     * The channel writing one VEO.
+     */
+    class MappedChannel extends VEOChannel {
+
+        RandomAccessFile raf;   // the file
+        FileChannel fc;         // channel used to map the file
+        MappedByteBuffer window; // the mapped window (null if none)
+        long windowStart;       // offset in the file of the start of the window
+        long posn;              // current write position
+        long size;              // length of the VEO (highest position written)
+        long allocated;         // length of the file (as preallocated)
+
+        MappedChannel(File veo, long sizeHint) throws IOException {
+            raf = new RandomAccessFile(veo, "rw");
+            fc = raf.getChannel();
+            window = null;
+            windowStart = 0;
+            posn = 0;
+            size = 0;
+            allocated = 0;
+            try {
+                raf.setLength(0);
+                allocate(roundUp(Math.max(sizeHint, MIN_ALLOCATION)));
+            } catch (IOException ioe) {
+                raf.close();
+                throw ioe;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n;
+
+            n = write(src, posn);
+            posn += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            ByteBuffer part;
+            int n, len, limit;
+
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            n = 0;
+            while (src.hasRemaining()) {
+                mapWindow(position);
+                len = (int) Math.min(src.remaining(), windowStart + window.capacity() - position);
+                window.position((int) (position - windowStart));
+                if (len == src.remaining()) {
+                    window.put(src);
+                } else {
+                    limit = src.limit();
+                    src.limit(src.position() + len);
+                    part = src.slice();
+                    src.position(src.limit());
+                    src.limit(limit);
+                    window.put(part);
+                }
+                position += len;
+                n += len;
+            }
+            if (position > size) {
+                size = position;
+            }
+            return n;
+        }
+
+        /**
+         * Ensure the window covers the given position, extending the file if
+         * necessary.
+         */
+        private void mapWindow(long position) throws IOException {
+            long start, len, need;
+
+            if (window != null && position >= windowStart && position < windowStart + window.capacity()) {
+                return;
+            }
+            if (position >= allocated) {
+                need = position + 1 - allocated;
+                allocate(allocated + roundUp(Math.max(need, Math.min(Math.max(allocated, MIN_ALLOCATION), MAX_EXTENSION))));
+            }
+            unmap(window);
+            start = position - position % WINDOW;
+            len = Math.min(WINDOW, allocated - start);
+            window = fc.map(FileChannel.MapMode.READ_WRITE, start, len);
+            windowStart = start;
+        }
+
+        /**
+         * Extend the file to the given length
+         */
+        private void allocate(long length) throws IOException {
+            raf.setLength(length);
+            allocated = length;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return posn;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("MappedChannel.position(): negative position");
+            }
+            posn = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public FileChannel truncate(long length) throws IOException {
+            if (length < size) {
+                size = length;
+            }
+            if (posn > length) {
+                posn = length;
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (window != null) {
+                window.force();
+            }
+            fc.force(metaData);
+        }
+
+        /**
+         * Close the VEO, truncating the file to the length written
+         */
+        @Override
+        protected void implCloseChannel() throws IOException {
+            unmap(window);
+            window = null;
+            try {
+                raf.setLength(size);
+            } finally {
+                raf.close();
+                lastSize = size;
+            }
+        }
+    }
+
+    /**
+     * Round a length up to a whole number of pages
+     */
+    private static long roundUp(long length) {
+        return (length + PAGE - 1) / PAGE * PAGE;
+    }
+
+    /**
+     * Release a mapped buffer now, rather than when it is garbage collected
+     * (a long run would otherwise accumulate mappings). There is no public API
+     * to do this, so it is attempted through sun.misc.Unsafe (Java 9 on) or
+     * the buffer's cleaner (Java 8). If neither is available the buffer is
+     * left to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer mbb) {
+        if (mbb == null || UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(mbb);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            /* ignore */ }
+    }
+
+    private interface Unmapper {
+
+        void unmap(MappedByteBuffer mbb) throws ReflectiveOperationException;
+    }
+
+    private static final Unmapper UNMAPPER = findUnmapper();
+
+    private static Unmapper findUnmapper() {
+        Class<?> c;
+        Field f;
+        final Object unsafe;
+        final Method m;
+
+        try {
+            c = Class.forName("sun.misc.Unsafe");
+            m = c.getMethod("invokeCleaner", ByteBuffer.class);
+            f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            return mbb -> m.invoke(unsafe, mbb);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            /* not Java 9 or later */ }
+        return mbb -> {
+            Method cm, clean;
+            Object cleaner;
+
+            cm = mbb.getClass().getMethod("cleaner");
+            cm.setAccessible(true);
+            cleaner = cm.invoke(mbb);
+            if (cleaner != null) {
+                clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        };
+    }
+}
@@ -0,0 +1,237 @@
+package VEOGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * *************************************************************
+ *
+ * S I Z I N G V E O O U T P U T
+ *
+ * This class measures the size of VEOs without writing them.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This output engine writes nothing: it discards the VEOs it is given, and
+ * records the size of each (the highest position written, exactly as the VEO
+ * would be on disk). It is used to estimate the space a run will need. If the
+ * generator is also sizing (see {@link VEOGenerator#setSizing}), the Base64
+ * encodings of binary files are not generated; the generator just moves the
+ * position on by their length.
+ * <p>
+ * As well as the total size of the VEOs, the space they will occupy on disk
+ * is estimated by rounding each VEO up to a whole number of blocks.
+ */
+public class SizingVEOOutput extends VEOOutput {
+
+    long blockSize;         // size of a disk block
+    long noVEOs;            // number of VEOs sized
+    long bytes;             // total size of the VEOs
+    long blocks;            // total disk blocks occupied by the VEOs
+    long largest;           // size of the largest VEO
+    File lastVEO;           // the last VEO sized (null if none)
+    long lastSize;          // size of the last VEO sized
+
+    /**
+     * Construct a sizing output engine.
+     *
+     * @param blockSize the size of a disk block (4096 if less than 1)
+     */
+    public SizingVEOOutput(long blockSize) {
+        this.blockSize = blockSize < 1 ? 4096 : blockSize;
+        noVEOs = 0;
+        bytes = 0;
+        blocks = 0;
+        largest = 0;
+        lastVEO = null;
+        lastSize = 0;
+    }
+
+    /**
+     * Start sizing a VEO. No file is created.
+     *
+     * @param veo the file that would contain the VEO
+     * @param sizeHint not used
+     * @return the channel
+     */
+    @Override
+    public FileChannel open(File veo, long sizeHint) {
+        return new SizingChannel(veo);
+    }
+
+    /**
+     * Note that a VEO being sized has been abandoned, so it is not counted.
+     *
+     * @param ch the channel returned by open()
+     */
+    @Override
+    public void abandon(FileChannel ch) {
+        if (ch instanceof SizingChannel) {
+            ((SizingChannel) ch).abandoned = true;
+        }
+    }
+
+    /**
+     * Record the size of a completed VEO
+     */
+    private synchronized void sized(File veo, long size) {
+        noVEOs++;
+        bytes += size;
+        blocks += (size + blockSize - 1) / blockSize;
+        if (size > largest) {
+            largest = size;
+        }
+        lastVEO = veo;
+        lastSize = size;
+    }
+
+    /**
+     * Get the number of VEOs sized
+     *
+     * @return the number of VEOs
+     */
+    public synchronized long getNoVEOs() {
+        return noVEOs;
+    }
+
+    /**
+     * Get the total size of the VEOs sized
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the space the VEOs sized would occupy on disk
+     *
+     * @return the space in bytes (a whole number of blocks per VEO)
+     */
+    public synchronized long getDiskBytes() {
+        return blocks * blockSize;
+    }
+
+    /**
+     * Get the last VEO sized
+     *
+     * @return the file that would contain the VEO (null if none)
+     */
+    public synchronized File getLastVEO() {
+        return lastVEO;
+    }
+
+    /**
+     * Get the size of the last VEO sized
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getLastSize() {
+        return lastSize;
+    }
+
+    /**
+     * Report on the VEOs sized
+     *
+     * @return a one line report
+     */
+    @Override
+    public synchronized String report() {
+        return String.format("%d VEO(s) sized: %d bytes (%.1f MB), %.1f MB on disk in %d byte blocks, largest %d bytes",
+                noVEOs, bytes, bytes / 1e6, blocks * blockSize / 1e6, blockSize, largest);
+    }
+
+    @Override
+    public String toString() {
+        return "nowhere (only their sizes are measured)";
+    }
+
+    /**
+     * The channel sizing one VEO.
+     */
+    class SizingChannel extends VEOChannel {
+
+        File veo;               // the file that would contain the VEO
+        long posn;              // current write position
+        long size;              // highest position written
+        boolean abandoned;      // true if the VEO was abandoned
+
+        SizingChannel(File veo) {
+            this.veo = veo;
+            posn = 0;
+            size = 0;
+            abandoned = false;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n;
+
+            n = write(src, posn);
+            posn += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            int n;
+
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            n = src.remaining();
+            src.position(src.limit());
+            if (position + n > size) {
+                size = position + n;
+            }
+            return n;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return posn;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("SizingChannel.position(): negative position");
+            }
+            posn = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public FileChannel truncate(long length) throws IOException {
+            if (length < size) {
+                size = length;
+            }
+            if (posn > length) {
+                posn = length;
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            if (!abandoned) {
+                sized(veo, size);
+            }
+        }
+    }
+}
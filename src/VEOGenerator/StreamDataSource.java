@@ -0,0 +1,383 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * *************************************************************
+ *
+ * S T R E A M D A T A S O U R C E
+ *
+ * This class represents a data source whose rows are pushed into it, one at a
+ * time, by a producer while the VEOs are being built.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is a DataSource in which the rows are supplied incrementally by a
+ * producer rather than being read from a file or held in memory as a whole.
+ * <p>
+ * Each row is an array of Strings. The first element of the array is the type
+ * of the row ('f', 'r', 'd', 'e', or 's') and the remaining elements are the
+ * remaining columns, exactly as if the row had been read from a control file
+ * by a {@link TableDataSource}.
+ * <p>
+ * Rows may be supplied in one of two ways. A producer thread can push rows
+ * using {@link #addRow} and signal the end of the data using {@link #close}
+ * (or, if it cannot supply all the rows, using {@link #fail}).
+ * The rows are held in a bounded queue; if the consumer (e.g.
+ * {@link VEOCreator#buildVEOs(DataSource)}) falls behind, addRow() blocks until
+ * there is space. Alternatively, the rows can be pulled from an Iterator, in
+ * which case a row is only requested from the iterator when it is needed.
+ * <p>
+ * In either case, only a small, fixed, number of rows is held in memory at any
+ * time regardless of the number of VEOs being built, and building starts as
+ * soon as the first row is available. A typical use is:
+ * <pre>
+ * sds = new StreamDataSource(100);
+ * producer = new Thread(() -&gt; {
+ *     ... sds.addRow(new String[]{"s", "veo1.veo", "file1.pdf", "Title"});
+ *     ...
+ *     sds.close();
+ * });
+ * producer.start();
+ * vc.buildVEOs(sds);
+ * </pre>
+ */
+public class StreamDataSource extends DataSource {
+
+    BlockingQueue<String[]> queue; // rows pushed by producer (null if pulling)
+    Iterator<String[]> source; // rows pulled from iterator (null if pushing)
+    boolean started;    // true once the first row has been obtained
+    volatile boolean closed; // true once the producer has finished
+    volatile VEOError error; // error that ended the rows early (null if none)
+    final Object producerLock = new Object(); // keeps groups of rows together
+
+    // marker placed in the queue to signal the end of the rows
+    private static final String[] END_OF_ROWS = new String[0];
+
+    /**
+     * Construct a StreamDataSource that rows are pushed into using
+     * {@link #addRow}.
+     *
+     * @param capacity the maximum number of rows buffered before addRow()
+     * blocks the producer
+     */
+    public StreamDataSource(int capacity) {
+        super();
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        queue = new ArrayBlockingQueue<>(capacity);
+        source = null;
+        atEnd = false;
+        rowType = DS_Unknown;
+        started = false;
+        closed = false;
+        error = null;
+    }
+
+    /**
+     * Construct a StreamDataSource that pulls its rows from an Iterator. The
+     * next row is only requested from the iterator when the consumer moves to
+     * it.
+     *
+     * @param rows the source of the rows
+     */
+    public StreamDataSource(Iterator<String[]> rows) {
+        super();
+        queue = null;
+        source = rows;
+        atEnd = false;
+        rowType = DS_Unknown;
+        started = false;
+        closed = true;
+        error = null;
+    }
+
+    /**
+     * Add a row to the end of the data source. If the buffer is full, this
+     * method blocks until the consumer has taken a row.
+     *
+     * @param row the columns of the row (the first being the row type)
+     * @throws VEOError if the data source has been closed, the row is null, or
+     * the producer was interrupted while waiting
+     */
+    public void addRow(String[] row) throws VEOError {
+        String name = "StreamDataSource.addRow(): ";
+
+        checkRow(row, name);
+        synchronized (producerLock) {
+            checkOpen(name);
+            try {
+                queue.put(row);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new VEOError(name + "interrupted while waiting to add row");
+            }
+        }
+    }
+
+    /**
+     * Add a group of rows (e.g. the record, document, and encoding rows of one
+     * VEO) to the end of the data source. The rows are added contiguously even
+     * if several producers are adding rows at the same time. If the buffer is
+     * full, this method blocks until the consumer has taken enough rows.
+     *
+     * @param rows the rows to add, in order
+     * @throws VEOError if the data source has been closed, a row is null, or
+     * the producer was interrupted while waiting
+     */
+    public void addRows(String[]... rows) throws VEOError {
+        String name = "StreamDataSource.addRows(): ";
+        int i;
+
+        for (i = 0; i < rows.length; i++) {
+            checkRow(rows[i], name);
+        }
+        synchronized (producerLock) {
+            checkOpen(name);
+            try {
+                for (i = 0; i < rows.length; i++) {
+                    queue.put(rows[i]);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new VEOError(name + "interrupted while waiting to add row");
+            }
+        }
+    }
+
+    /**
+     * Add a row to the end of the data source, waiting no longer than the given
+     * time for space in the buffer.
+     *
+     * @param row the columns of the row (the first being the row type)
+     * @param timeout how long to wait
+     * @param unit the units of the timeout
+     * @return true if the row was added, false if the time expired first
+     * @throws VEOError if the data source has been closed, the row is null, or
+     * the producer was interrupted while waiting
+     */
+    public boolean offerRow(String[] row, long timeout, TimeUnit unit) throws VEOError {
+        String name = "StreamDataSource.offerRow(): ";
+
+        checkRow(row, name);
+        synchronized (producerLock) {
+            checkOpen(name);
+            try {
+                return queue.offer(row, timeout, unit);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new VEOError(name + "interrupted while waiting to add row");
+            }
+        }
+    }
+
+    /**
+     * Check that a row can be added
+     */
+    private void checkRow(String[] row, String name) throws VEOError {
+        if (queue == null) {
+            throw new VEOError(name + "rows cannot be added to a data source that reads from an Iterator");
+        }
+        if (row == null) {
+            throw new VEOError(name + "row is null");
+        }
+    }
+
+    /**
+     * Check that the data source has not been closed. Must be called holding
+     * the producerLock, so that no row can be queued after the end marker.
+     */
+    private void checkOpen(String name) throws VEOError {
+        if (closed) {
+            throw new VEOError(name + "data source has been closed");
+        }
+    }
+
+    /**
+     * Signal that the producer has finished adding rows. Once the consumer has
+     * taken the remaining rows, the data source will be at its end. This
+     * method blocks if the buffer is full; if interrupted, it still waits
+     * until the end has been queued (so the consumer is never left waiting),
+     * and then restores the interrupt.
+     */
+    public void close() {
+        boolean interrupted;
+
+        if (queue == null) {
+            return;
+        }
+        interrupted = false;
+        synchronized (producerLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            while (true) {
+                try {
+                    queue.put(END_OF_ROWS);
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Signal that the producer cannot supply the remaining rows. The data
+     * source is closed, and once the consumer has taken the rows already
+     * added, the data source will be at its end and {@link #getError} will
+     * return the error. Only the first failure is recorded.
+     *
+     * @param e the reason the rows could not be supplied
+     */
+    public void fail(VEOError e) {
+        if (error == null) {
+            error = e;
+        }
+        close();
+    }
+
+    /**
+     * Return the error that ended the data source early (see {@link #fail}),
+     * or an error if the consumer was interrupted while waiting for a row.
+     *
+     * @return the error, or null if all the rows were returned
+     */
+    @Override
+    public VEOError getError() {
+        return error;
+    }
+
+    /**
+     * Move to the next row, waiting for the producer if necessary. The type of
+     * the new row is returned, or DS_AtEnd if there are no more rows.
+     *
+     * @return type of the current row (DS_AtEnd if there are no more rows in
+     * data source).
+     */
+    @Override
+    public int getNextRow() {
+        String[] row;
+
+        started = true;
+        if (atEnd) {
+            return DS_AtEnd;
+        }
+
+        // get the next row, either from the iterator or the queue
+        row = END_OF_ROWS;
+        if (source != null) {
+            if (source.hasNext()) {
+                row = source.next();
+            }
+        } else {
+            try {
+                row = queue.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new VEOError("StreamDataSource.getNextRow(): interrupted while waiting for the next row");
+                }
+            }
+        }
+        if (row == null || row == END_OF_ROWS) {
+            atEnd = true;
+            column = null;
+            rowType = DS_AtEnd;
+            return rowType;
+        }
+        column = row;
+        rowType = column.length > 0 ? rowTypeOf(column[0]) : DS_Unknown;
+        return rowType;
+    }
+
+    /**
+     * Obtain the first row if it has not yet been obtained. The first row is
+     * fetched lazily so that constructing the data source never blocks.
+     */
+    private void start() {
+        if (!started) {
+            getNextRow();
+        }
+    }
+
+    /**
+     * Return the type of the current row, waiting for the first row if
+     * necessary.
+     *
+     * @return type of row.
+     */
+    @Override
+    public int getRowType() {
+        start();
+        return rowType;
+    }
+
+    /**
+     * Returns true if at the end of the data source, waiting for the first row
+     * if necessary.
+     *
+     * @return true if there are no further rows in this data source.
+     */
+    @Override
+    public boolean isAtEnd() {
+        start();
+        return atEnd;
+    }
+
+    /**
+     * This method gets the number of columns in the current row.
+     *
+     * @return the number of columns in this row.
+     */
+    @Override
+    public int getNoColumns() {
+        start();
+        if (column == null) {
+            return 0;
+        }
+        return column.length;
+    }
+
+    /**
+     * Get the contents of the requested column as a string. The first column is
+     * column 1. Return the empty string ("") if the requested column is less
+     * than 1, or greater than the number of columns in the row.
+     *
+     * @param i number of column to return
+     * @return the string value of the requested column
+     */
+    @Override
+    public String getColumn(int i) {
+        start();
+        if (atEnd || i < 1 || column.length < i || column[i - 1] == null) {
+            return "";
+        }
+        return column[i - 1];
+    }
+
+    /**
+     * Return a string representation of the DataSource.
+     *
+     * @return a String representing the current row.
+     */
+    @Override
+    public String toString() {
+        if (column == null) {
+            return "Column data\n";
+        }
+        return super.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package VEOGenerator;
 
 import VERSCommon.VEOError;
+import java.nio.ByteBuffer;
 
 /**
  * *************************************************************
@@ -20,7 +21,8 @@ import VERSCommon.VEOError;
  */
 public class StringFragment extends Fragment {
 
-    String string;
+    String string;      // static content (null until needed if built from bytes)
+    ByteBuffer encoded; // static content encoded in UTF-8
 
     /**
      * Constructor
@@ -31,6 +33,20 @@ public class StringFragment extends Fragment {
     public StringFragment(String location, String string) {
         super(location);
         this.string = string;
+        encoded = cs.encode(string);
+    }
+
+    /**
+     * Constructor from content that has already been encoded in UTF-8 (e.g.
+     * when loaded from a {@link TemplateSnapshot}).
+     *
+     * @param location location of the fragment that generated this substitution
+     * @param encoded the static content encoded in UTF-8
+     */
+    StringFragment(String location, ByteBuffer encoded) {
+        super(location);
+        this.string = null;
+        this.encoded = encoded;
     }
 
     /**
@@ -43,8 +59,8 @@ public class StringFragment extends Fragment {
             throws VEOError {
         Fragment f;
 
-        // output to VEO
-        veo.outputDataToVeo(cs.encode(string));
+        // output to VEO (the content is encoded once, when constructed)
+        veo.outputDataToVeo(encoded.duplicate());
 
         // finalise any trailing fragments (if any)
         if (next != null) {
@@ -60,6 +76,9 @@ public class StringFragment extends Fragment {
     @Override
     public String toString() {
         String s;
+        if (string == null) {
+            string = cs.decode(encoded.duplicate()).toString();
+        }
         s = "String Fragment: '" + string + "'\n";
         if (next != null) {
             s += next.toString();
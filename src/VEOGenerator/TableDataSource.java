@@ -103,7 +103,6 @@ public class TableDataSource extends DataSource {
      */
     private int readLine() {
         String s;
-        char c;
 
         // return immediately if at end
         if (atEnd) {
@@ -134,26 +133,9 @@ public class TableDataSource extends DataSource {
 
         // look at 1st column to see if this is a record (value 'r'), file ('f')
         // document ('d'),  encoding ('e'), or simple record (value 's').
-        c = (column[0].trim().toLowerCase()).charAt(0);
-        switch (c) {
-            case 'f':
-                rowType = DS_File;
-                break;
-            case 'r':
-                rowType = DS_Record;
-                break;
-            case 'd':
-                rowType = DS_Document;
-                break;
-            case 'e':
-                rowType = DS_Encoding;
-                break;
-            case 's':
-                rowType = DS_SimpleRecord;
-                break;
-            default:
-                rowType = DS_AtEnd;
-                break;
+        rowType = rowTypeOf(column[0]);
+        if (rowType == DS_Unknown) {
+            rowType = DS_AtEnd;
         }
 //int m;
 //for (m=0;m<column.length;m++)
@@ -0,0 +1,625 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * *************************************************************
+ *
+ * T E M P L A T E S N A P S H O T
+ *
+ * This class represents a complete set of parsed templates that can be saved
+ * to, and quickly loaded from, a binary file.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class holds the complete set of parsed templates used by
+ * {@link VEOCreator}: the encoding templates, and the record, file, and
+ * document templates. Parsing the templates from their text files is a
+ * significant part of the startup time of VEOCreator. Once parsed, the
+ * templates can be saved in a binary snapshot file, which can be loaded much
+ * more quickly in later runs.
+ * <p>
+ * The snapshot file contains the fragments of each template, with the static
+ * text already encoded in UTF-8, and a SHA-256 hash of the template files it
+ * was built from. The snapshot file is loaded by mapping it into memory, and
+ * the static text is written to the VEOs directly from the mapped file. If the
+ * hash of the current template files differs from the hash in the snapshot,
+ * the snapshot is not used (see {@link #loadOrParse}).
+ * <p>
+ * Argument substitutions ('$$ argument x $$') are resolved when a template is
+ * parsed, so the value of each command line argument that the templates
+ * substitute is included in the hash, and a snapshot is only reused if those
+ * arguments are the same. Other arguments are not hashed. A template that
+ * substitutes a password (the argument after '-p', or the second after '-s')
+ * would put the password in the snapshot file, so no snapshot is saved or
+ * loaded for such templates.
+ * <p>
+ * Only templates consisting of the Fragment classes produced by
+ * {@link Fragment#parseTemplate} can be saved.
+ */
+public class TemplateSnapshot {
+
+    HashMap<String, Fragment> encTemplates; // the encoding templates
+    Fragment record;    // the record metadata template (record.txt)
+    Fragment file;      // the file metadata template (file.txt)
+    Fragment document;  // the document metadata template (document.txt)
+    byte[] digest;      // hash of the template files this was built from
+
+    private static final byte[] MAGIC = {'V', 'E', 'O', 'T', 'M', 'P', 'L', '1'};
+    private static final String ENC_PREFIX = "enc/";
+
+    // fragment types in the snapshot file
+    private static final byte T_STRING = 1;
+    private static final byte T_DATE = 2;
+    private static final byte T_SEQNO = 3;
+    private static final byte T_COLUMN = 4;
+    private static final byte T_COLUMN_XML = 5;
+    private static final byte T_FILE = 6;
+    private static final byte T_ENCODING = 7;
+
+    /**
+     * Construct an empty snapshot
+     */
+    private TemplateSnapshot() {
+        encTemplates = new HashMap<>();
+        record = null;
+        file = null;
+        document = null;
+        digest = null;
+    }
+
+    /**
+     * Parse the templates in a template directory. The template directory
+     * must contain the files 'record.txt', 'file.txt', and 'document.txt', and
+     * the directory 'encodingTemplates'.
+     *
+     * @param templateDir the template directory
+     * @param args the command line arguments used in argument substitutions
+     * @return the parsed templates
+     * @throws VEOError if a template could not be read
+     */
+    public static TemplateSnapshot parse(File templateDir, String[] args) throws VEOError {
+        TemplateSnapshot ts;
+
+        ts = new TemplateSnapshot();
+        ts.encTemplates = new VEOGenerator(new File(templateDir, "encodingTemplates"), args).encTemplates;
+        ts.record = Fragment.parseTemplate(new File(templateDir, "record.txt"), args);
+        ts.file = Fragment.parseTemplate(new File(templateDir, "file.txt"), args);
+        ts.document = Fragment.parseTemplate(new File(templateDir, "document.txt"), args);
+        ts.digest = hashSources(templateDir, args);
+        return ts;
+    }
+
+    /**
+     * Load the templates from a snapshot file, or parse them if the snapshot
+     * file does not exist or is out of date. If the templates were parsed, a
+     * new snapshot file is written (a failure to write the snapshot is
+     * reported, but is not an error).
+     *
+     * @param templateDir the template directory
+     * @param args the command line arguments used in argument substitutions
+     * @param snapshot the snapshot file
+     * @return the templates
+     * @throws VEOError if a template could not be read
+     */
+    public static TemplateSnapshot loadOrParse(File templateDir, String[] args, File snapshot) throws VEOError {
+        TemplateSnapshot ts;
+        byte[] digest;
+
+        digest = hashSources(templateDir, args);
+        if (digest == null) {
+            System.err.println("TemplateSnapshot.loadOrParse(): the templates substitute a password, so they are not snapshotted");
+            return parse(templateDir, args);
+        }
+        ts = load(snapshot, digest);
+        if (ts != null) {
+            return ts;
+        }
+        ts = parse(templateDir, args);
+        try {
+            ts.save(snapshot);
+        } catch (VEOError ve) {
+            System.err.println(ve.getMessage());
+        }
+        return ts;
+    }
+
+    /**
+     * Get the encoding templates.
+     *
+     * @return a map from file extension to encoding template
+     */
+    public HashMap<String, Fragment> getEncodingTemplates() {
+        return encTemplates;
+    }
+
+    /**
+     * Get the record metadata template.
+     *
+     * @return the template
+     */
+    public Fragment getRecordTemplate() {
+        return record;
+    }
+
+    /**
+     * Get the file metadata template.
+     *
+     * @return the template
+     */
+    public Fragment getFileTemplate() {
+        return file;
+    }
+
+    /**
+     * Get the document metadata template.
+     *
+     * @return the template
+     */
+    public Fragment getDocumentTemplate() {
+        return document;
+    }
+
+    /**
+     * Calculate the hash of the template files. The files are hashed in a
+     * fixed order, and the name and length of each file is included, followed
+     * by the position and value of each command line argument the templates
+     * substitute.
+     *
+     * @param templateDir the template directory
+     * @param args the command line arguments
+     * @return the hash, or null if a template substitutes a password (in
+     * which case the templates must not be snapshotted)
+     * @throws VEOError if a template file could not be read
+     */
+    static byte[] hashSources(File templateDir, String[] args) throws VEOError {
+        MessageDigest md;
+        ArrayList<File> sources;
+        File[] encFiles;
+        TreeSet<Integer> used;
+        byte[] b;
+        int i;
+        String name = "TemplateSnapshot.hashSources(): ";
+
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new VEOError(name + "SHA-256 not supported: " + nsae.getMessage());
+        }
+
+        // the sources are the three metadata templates and the encoding templates
+        sources = new ArrayList<>();
+        sources.add(new File(templateDir, "record.txt"));
+        sources.add(new File(templateDir, "file.txt"));
+        sources.add(new File(templateDir, "document.txt"));
+        encFiles = new File(templateDir, "encodingTemplates").listFiles((File f) -> !f.isDirectory() && f.getName().contains(".txt"));
+        if (encFiles == null) {
+            throw new VEOError(name + "cannot list encoding template directory in '" + templateDir + "'");
+        }
+        Arrays.sort(encFiles);
+        sources.addAll(Arrays.asList(encFiles));
+
+        used = new TreeSet<>();
+        for (i = 0; i < sources.size(); i++) {
+            try {
+                b = Files.readAllBytes(sources.get(i).toPath());
+            } catch (NoSuchFileException nsfe) {
+                throw new VEOError(name + "template file '" + sources.get(i) + "' does not exist");
+            } catch (IOException ioe) {
+                throw new VEOError(name + "failed reading template file '" + sources.get(i) + "': " + ioe.getMessage());
+            }
+            md.update(sources.get(i).getName().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(ByteBuffer.allocate(8).putLong(0, b.length));
+            md.update(b);
+            findArguments(new String(b, StandardCharsets.UTF_8), args, used);
+        }
+        for (Integer arg : used) {
+            if (isPassword(args, arg)) {
+                return null;
+            }
+            md.update(ByteBuffer.allocate(4).putInt(0, arg));
+            md.update(args[arg].getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        return md.digest();
+    }
+
+    /**
+     * Find the command line arguments substituted by a template. The
+     * substitutions are found and split into tokens in the same way as
+     * {@link Fragment#parseTemplate} does; invalid references are ignored, as
+     * parsing the template will report them.
+     *
+     * @param template the text of the template
+     * @param args the command line arguments
+     * @param used the set to which the positions of the arguments are added
+     */
+    private static void findArguments(String template, String[] args, TreeSet<Integer> used) {
+        String[] parts, tokens;
+        int i, j, k, arg;
+
+        if (args == null) {
+            return;
+        }
+        parts = template.split(Pattern.quote("$$"), -1);
+        for (i = 1; i < parts.length; i += 2) {
+            tokens = parts[i].split(" ");
+            for (j = 0; j < tokens.length && tokens[j].isEmpty(); j++) {
+            }
+            if (j == tokens.length || !tokens[j].toLowerCase().equals("argument")) {
+                continue;
+            }
+            for (k = j + 1; k < tokens.length && tokens[k].isEmpty(); k++) {
+            }
+            if (k == tokens.length) {
+                continue;
+            }
+            try {
+                arg = Integer.parseInt(tokens[k]);
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            if (arg >= 0 && arg < args.length) {
+                used.add(arg);
+            }
+        }
+    }
+
+    /**
+     * Is a command line argument a password? (The argument after '-p', or the
+     * second argument after '-s'.)
+     */
+    private static boolean isPassword(String[] args, int arg) {
+        return (arg >= 1 && args[arg - 1].toLowerCase(Locale.ROOT).equals("-p"))
+                || (arg >= 2 && args[arg - 2].toLowerCase(Locale.ROOT).equals("-s"));
+    }
+
+    /**
+     * Save the templates in a snapshot file. The file is written to a
+     * temporary file, which then replaces the snapshot file, so a partially
+     * written snapshot is never seen.
+     *
+     * @param snapshot the snapshot file
+     * @throws VEOError if the snapshot could not be written, or a template
+     * contains a Fragment that cannot be saved
+     */
+    public void save(File snapshot) throws VEOError {
+        ByteArrayOutputStream baos;
+        DataOutputStream dos;
+        Path p, tmp;
+        String name = "TemplateSnapshot.save(): ";
+
+        if (digest == null) {
+            throw new VEOError(name + "the templates substitute a password, which must not be written to a snapshot");
+        }
+        baos = new ByteArrayOutputStream();
+        dos = new DataOutputStream(baos);
+        try {
+            dos.write(MAGIC);
+            dos.write(digest);
+            dos.writeInt(3 + encTemplates.size());
+            writeTemplate(dos, "record", record);
+            writeTemplate(dos, "file", file);
+            writeTemplate(dos, "document", document);
+            for (Map.Entry<String, Fragment> e : encTemplates.entrySet()) {
+                writeTemplate(dos, ENC_PREFIX + e.getKey(), e.getValue());
+            }
+            dos.flush();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed building snapshot: " + ioe.getMessage());
+        }
+
+        p = snapshot.toPath().toAbsolutePath();
+        tmp = p.resolveSibling(p.getFileName().toString() + ".tmp");
+        try {
+            Files.write(tmp, baos.toByteArray());
+            Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ioe2) {
+                /* ignore */ }
+            throw new VEOError(name + "failed writing snapshot file '" + p + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Write one template (a list of fragments)
+     */
+    private static void writeTemplate(DataOutputStream dos, String id, Fragment f) throws IOException, VEOError {
+        Fragment g;
+        ByteBuffer bb;
+        int n;
+        String name = "TemplateSnapshot.save(): ";
+
+        writeString(dos, id);
+        n = 0;
+        for (g = f; g != null; g = g.next) {
+            n++;
+        }
+        dos.writeInt(n);
+        for (g = f; g != null; g = g.next) {
+            if (g.getClass() == StringFragment.class) {
+                dos.writeByte(T_STRING);
+                writeString(dos, g.location);
+                bb = ((StringFragment) g).encoded.duplicate();
+                dos.writeInt(bb.remaining());
+                while (bb.hasRemaining()) {
+                    dos.writeByte(bb.get());
+                }
+            } else if (g.getClass() == DateFragment.class) {
+                dos.writeByte(T_DATE);
+                writeString(dos, g.location);
+            } else if (g.getClass() == SequenceNoFragment.class) {
+                dos.writeByte(T_SEQNO);
+                writeString(dos, g.location);
+            } else if (g.getClass() == ColumnFragment.class) {
+                dos.writeByte(T_COLUMN);
+                writeString(dos, g.location);
+                dos.writeInt(((ColumnFragment) g).column);
+            } else if (g.getClass() == ColumnXMLFragment.class) {
+                dos.writeByte(T_COLUMN_XML);
+                writeString(dos, g.location);
+                dos.writeInt(((ColumnXMLFragment) g).column);
+            } else if (g.getClass() == FileFragment.class) {
+                dos.writeByte(T_FILE);
+                writeString(dos, g.location);
+                dos.writeInt(((FileFragment) g).column);
+                dos.writeInt(((FileFragment) g).type);
+            } else if (g.getClass() == EncodingFragment.class) {
+                dos.writeByte(T_ENCODING);
+                writeString(dos, g.location);
+                dos.writeInt(((EncodingFragment) g).column);
+            } else {
+                throw new VEOError(name + "template '" + id + "' contains a " + g.getClass().getName() + " which cannot be saved");
+            }
+        }
+    }
+
+    /**
+     * Write a string as a length followed by its UTF-8 encoding
+     */
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] b;
+
+        b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(b.length);
+        dos.write(b);
+    }
+
+    /**
+     * Load the templates from a snapshot file. The snapshot is only loaded if
+     * its hash matches the expected hash.
+     *
+     * @param snapshot the snapshot file
+     * @param expected the expected hash of the template files (see
+     * {@link #hashSources})
+     * @return the templates, or null if the snapshot file does not exist, is
+     * out of date, or is damaged (or the expected hash is null)
+     */
+    static TemplateSnapshot load(File snapshot, byte[] expected) {
+        MappedByteBuffer mbb;
+        TemplateSnapshot ts;
+        byte[] magic, hash;
+        String id;
+        Fragment f;
+        int i, n;
+
+        if (snapshot == null || !snapshot.isFile() || expected == null) {
+            return null;
+        }
+        try (FileChannel fc = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        } catch (IOException ioe) {
+            System.err.println("TemplateSnapshot.load(): failed mapping snapshot file '" + snapshot + "': " + ioe.getMessage());
+            return null;
+        }
+
+        ts = new TemplateSnapshot();
+        try {
+            magic = new byte[MAGIC.length];
+            mbb.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                return null;
+            }
+            hash = new byte[32];
+            mbb.get(hash);
+            if (!Arrays.equals(hash, expected)) {
+                return null;
+            }
+            ts.digest = hash;
+            n = mbb.getInt();
+            for (i = 0; i < n; i++) {
+                id = readString(mbb);
+                f = readTemplate(mbb);
+                switch (id) {
+                    case "record":
+                        ts.record = f;
+                        break;
+                    case "file":
+                        ts.file = f;
+                        break;
+                    case "document":
+                        ts.document = f;
+                        break;
+                    default:
+                        if (id.startsWith(ENC_PREFIX) && f != null) {
+                            ts.encTemplates.put(id.substring(ENC_PREFIX.length()), f);
+                        }
+                        break;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("TemplateSnapshot.load(): snapshot file '" + snapshot + "' is damaged");
+            return null;
+        }
+        return ts;
+    }
+
+    /**
+     * Read one template (a list of fragments). The static text refers
+     * directly to the mapped snapshot file.
+     */
+    private static Fragment readTemplate(ByteBuffer bb) {
+        Fragment head, tail, f;
+        ByteBuffer text;
+        String location;
+        byte type;
+        int i, n, len, col;
+
+        head = null;
+        tail = null;
+        n = bb.getInt();
+        for (i = 0; i < n; i++) {
+            type = bb.get();
+            location = readString(bb);
+            switch (type) {
+                case T_STRING:
+                    len = bb.getInt();
+                    text = bb.slice();
+                    text.limit(len);
+                    bb.position(bb.position() + len);
+                    f = new StringFragment(location, text);
+                    break;
+                case T_DATE:
+                    f = new DateFragment(location);
+                    break;
+                case T_SEQNO:
+                    f = new SequenceNoFragment(location);
+                    break;
+                case T_COLUMN:
+                    f = new ColumnFragment(location, bb.getInt());
+                    break;
+                case T_COLUMN_XML:
+                    f = new ColumnXMLFragment(location, bb.getInt());
+                    break;
+                case T_FILE:
+                    col = bb.getInt();
+                    f = new FileFragment(location, col, bb.getInt());
+                    break;
+                case T_ENCODING:
+                    f = new EncodingFragment(location, bb.getInt());
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown fragment type " + type);
+            }
+            if (head == null) {
+                head = f;
+            } else {
+                tail.next = f;
+            }
+            tail = f;
+        }
+        return head;
+    }
+
+    /**
+     * Read a string written by writeString(). A length that does not fit in
+     * the rest of the buffer means the snapshot is damaged.
+     */
+    private static String readString(ByteBuffer bb) {
+        byte[] b;
+        int n;
+
+        n = bb.getInt();
+        if (n < 0 || n > bb.remaining()) {
+            throw new IllegalArgumentException("invalid string length " + n);
+        }
+        b = new byte[n];
+        bb.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Startup benchmark. This compares the time taken to parse the templates
+     * from their text files with the time taken to load them from a snapshot.
+     * The first iteration of each is reported separately, as it is the one
+     * that matters for the startup of a new JVM.
+     * <pre>
+     *    TemplateSnapshot &lt;templateDir&gt; &lt;snapshotFile&gt; [iterations]
+     * </pre>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String args[]) {
+        File templateDir, snapshot;
+        TemplateSnapshot ts;
+        int i, iterations;
+        long start, first, total;
+
+        if (args.length < 2) {
+            System.err.println("Usage: TemplateSnapshot <templateDir> <snapshotFile> [iterations]");
+            System.exit(-1);
+        }
+        templateDir = new File(args[0]);
+        snapshot = new File(args[1]);
+        iterations = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        if (iterations < 1) {
+            iterations = 1;
+        }
+
+        try {
+            // load from the snapshot (written first, if necessary)
+            if (load(snapshot, hashSources(templateDir, args)) == null) {
+                parse(templateDir, args).save(snapshot);
+            }
+            first = 0;
+            total = 0;
+            for (i = 0; i < iterations; i++) {
+                start = System.nanoTime();
+                ts = load(snapshot, hashSources(templateDir, args));
+                if (ts == null) {
+                    throw new VEOError("TemplateSnapshot.main(): snapshot failed to load");
+                }
+                if (i == 0) {
+                    first = System.nanoTime() - start;
+                }
+                total += System.nanoTime() - start;
+            }
+            System.out.println("Load from snapshot: first " + first / 1000 + "us, mean " + total / iterations / 1000 + "us (" + iterations + " iterations)");
+
+            // parse the text files
+            first = 0;
+            total = 0;
+            for (i = 0; i < iterations; i++) {
+                start = System.nanoTime();
+                parse(templateDir, args);
+                if (i == 0) {
+                    first = System.nanoTime() - start;
+                }
+                total += System.nanoTime() - start;
+            }
+            System.out.println("Parse templates:    first " + first / 1000 + "us, mean " + total / iterations / 1000 + "us (" + iterations + " iterations)");
+        } catch (VEOError e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
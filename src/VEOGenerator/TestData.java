@@ -0,0 +1,94 @@
+package VEOGenerator;
+
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * *************************************************************
+ *
+ * T E S T D A T A
+ *
+ * This class creates the data used to test and measure the generator.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * Helpers shared by the {@link WorkloadGenerator} and the benchmark harness to
+ * create test signers and pseudo random content. They are shipped with the
+ * generator, as the WorkloadGenerator is.
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * Generate pseudo random bytes from a seed, so the same seed always gives
+     * the same content
+     *
+     * @param length the number of bytes
+     * @param seed the seed
+     * @return the bytes
+     */
+    static byte[] randomBytes(int length, long seed) {
+        byte[] b;
+
+        b = new byte[length];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    /**
+     * Create a test signer ('signer.pfx' in the given directory) with a new
+     * RSA key pair and a self signed certificate, using the JDK's keytool
+     *
+     * @param dir the directory in which to create the PFX file
+     * @param password the password protecting the PFX file
+     * @return the signer
+     * @throws VEOError if the signer could not be created
+     */
+    static PFXUser createSigner(File dir, String password) throws VEOError {
+        File pfx, keytool;
+        Process p;
+        StringBuilder sb;
+        String s;
+        String name = "TestData.createSigner(): ";
+
+        pfx = new File(dir, "signer.pfx");
+        keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool");
+        try {
+            Files.deleteIfExists(pfx.toPath());
+            p = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "signer",
+                    "-keyalg", "RSA", "-keysize", "2048", "-sigalg", "SHA256withRSA",
+                    "-dname", "CN=Test Signer, O=Public Record Office Victoria, C=AU",
+                    "-validity", "3650", "-storetype", "PKCS12",
+                    "-keystore", pfx.getPath(), "-storepass", password, "-keypass", password)
+                    .redirectErrorStream(true).start();
+            sb = new StringBuilder();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                while ((s = br.readLine()) != null) {
+                    sb.append(s);
+                    sb.append(' ');
+                }
+            }
+            if (p.waitFor() != 0) {
+                throw new VEOError(name + "keytool failed: " + sb.toString());
+            }
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed running '" + keytool + "': " + ioe.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new VEOError(name + "interrupted while running keytool");
+        }
+        return new PFXUser(pfx.getPath(), password);
+    }
+}
@@ -0,0 +1,211 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * *************************************************************
+ *
+ * V E O B U L K V E R I F I E R
+ *
+ * This class verifies the signatures of a corpus of V2 VEOs in parallel.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class re-checks the signatures of a large number of existing V2 VEOs.
+ * Each VEO is checked by {@link VEOVerifier} (memory mapped, located with a
+ * byte scan, and digested in blocks). The directories given are walked, and
+ * the VEOs spread across the threads, by a work stealing ForkJoinPool, so a
+ * directory with many VEOs, or a few large VEOs, does not hold up the other
+ * threads.
+ * <p>
+ * The command line is
+ * <pre>
+ *    VEOBulkVerifier [-threads n] [-q] (file|directory)...
+ * </pre>
+ * where -threads sets the number of threads (default the number of
+ * processors), and -q only reports the VEOs that fail. Every file ending in
+ * '.veo' in the directory trees is checked. A line is printed for each VEO:
+ * <pre>
+ *    OK      path    signedObjectBytes   ms
+ *    FAILED  path    reason
+ * </pre>
+ * followed by the totals and the throughput. The exit status is 1 if any VEO
+ * failed.
+ */
+public class VEOBulkVerifier {
+
+    VEOVerifier verifier;   // the verifier (shared by the threads)
+    PrintStream out;        // where the results are reported
+    boolean quiet;          // true if only failures are reported
+    LongAdder noOK;         // number of VEOs that verified
+    LongAdder noFailed;     // number of VEOs that failed
+    LongAdder bytes;        // total length of the signed objects verified
+
+    /**
+     * Construct a bulk verifier.
+     *
+     * @param out where the results are reported
+     * @param quiet true if only the VEOs that fail are reported
+     */
+    public VEOBulkVerifier(PrintStream out, boolean quiet) {
+        verifier = new VEOVerifier(null);
+        this.out = out;
+        this.quiet = quiet;
+        noOK = new LongAdder();
+        noFailed = new LongAdder();
+        bytes = new LongAdder();
+    }
+
+    /**
+     * Verify all the VEOs in the given files and directory trees.
+     *
+     * @param roots the files and directories
+     * @param threads the number of threads to use
+     */
+    public void verifyAll(ArrayList<File> roots, int threads) {
+        ForkJoinPool pool;
+        ArrayList<VerifyTask> tasks;
+        int i;
+
+        pool = new ForkJoinPool(threads);
+        tasks = new ArrayList<>();
+        for (i = 0; i < roots.size(); i++) {
+            tasks.add(new VerifyTask(roots.get(i)));
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Verify a file, or the VEOs in a directory (forking a task for each
+     * entry)
+     */
+    private class VerifyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        File f;
+
+        VerifyTask(File f) {
+            this.f = f;
+        }
+
+        @Override
+        protected void compute() {
+            File[] entries;
+            ArrayList<VerifyTask> subtasks;
+            int i;
+
+            if (f.isDirectory()) {
+                entries = f.listFiles();
+                if (entries == null) {
+                    report("FAILED\t" + f + "\tcannot list directory");
+                    return;
+                }
+                subtasks = new ArrayList<>();
+                for (i = 0; i < entries.length; i++) {
+                    if (entries[i].isDirectory() || entries[i].getName().toLowerCase().endsWith(".veo")) {
+                        subtasks.add(new VerifyTask(entries[i]));
+                    }
+                }
+                invokeAll(subtasks);
+                return;
+            }
+            verifyOne(f);
+        }
+    }
+
+    /**
+     * Verify a single VEO and report the result
+     */
+    private void verifyOne(File veo) {
+        long start, n;
+
+        start = System.nanoTime();
+        try {
+            n = verifier.verify(veo);
+        } catch (VEOError ve) {
+            noFailed.increment();
+            report("FAILED\t" + veo + "\t" + ve.getMessage());
+            return;
+        }
+        noOK.increment();
+        bytes.add(n);
+        if (!quiet) {
+            report("OK\t" + veo + "\t" + n + "\t" + (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    /**
+     * Print a result line (one line at a time)
+     */
+    private synchronized void report(String s) {
+        out.println(s);
+    }
+
+    /**
+     * Main program.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String args[]) {
+        VEOBulkVerifier bv;
+        ArrayList<File> roots;
+        int i, threads;
+        boolean quiet;
+        long start;
+        double secs;
+
+        threads = Runtime.getRuntime().availableProcessors();
+        quiet = false;
+        roots = new ArrayList<>();
+        try {
+            for (i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase()) {
+                    case "-threads":
+                        i++;
+                        threads = Integer.parseInt(args[i]);
+                        break;
+                    case "-q":
+                        quiet = true;
+                        break;
+                    default:
+                        roots.add(new File(args[i]));
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            roots.clear();
+        }
+        if (roots.isEmpty() || threads < 1) {
+            System.err.println("Usage: VEOBulkVerifier [-threads n] [-q] (file|directory)...");
+            System.exit(2);
+        }
+
+        bv = new VEOBulkVerifier(System.out, quiet);
+        start = System.nanoTime();
+        bv.verifyAll(roots, threads);
+        secs = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d VEO(s) verified, %d failed, %.1f MB of signed objects in %.2fs (%.1f VEOs/s, %.1f MB/s) using %d thread(s)",
+                bv.noOK.sum() + bv.noFailed.sum(), bv.noFailed.sum(), bv.bytes.sum() / 1e6, secs,
+                (bv.noOK.sum() + bv.noFailed.sum()) / secs, bv.bytes.sum() / 1e6 / secs, threads));
+        System.exit(bv.noFailed.sum() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,104 @@
+package VEOGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * *************************************************************
+ *
+ * V E O C H A N N E L
+ *
+ * This class is the base of the channels returned by output engines.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is the base of the write only channels returned by a
+ * {@link VEOOutput}. It implements the parts of FileChannel that a
+ * {@link VEOGenerator} never uses: reading, mapping, and locking are not
+ * supported, and the gathering and transferring writes are implemented using
+ * {@link #write(ByteBuffer)}. A subclass implements writing, positioning, the
+ * size, truncation, forcing, and closing.
+ */
+abstract public class VEOChannel extends FileChannel {
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long n;
+        int i;
+
+        n = 0;
+        for (i = offset; i < offset + length; i++) {
+            n += write(srcs[i]);
+        }
+        return n;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        ByteBuffer bb;
+        long done;
+        int n;
+
+        bb = ByteBuffer.allocate((int) Math.min(count, 65536));
+        done = 0;
+        while (done < count) {
+            bb.clear();
+            if (count - done < bb.capacity()) {
+                bb.limit((int) (count - done));
+            }
+            if ((n = src.read(bb)) <= 0) {
+                break;
+            }
+            bb.flip();
+            while (bb.hasRemaining()) {
+                write(bb, position + done + bb.position());
+            }
+            done += n;
+        }
+        return done;
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        throw new UnsupportedOperationException("VEOChannel.map(): not supported");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        throw new UnsupportedOperationException("VEOChannel.lock(): not supported");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        throw new UnsupportedOperationException("VEOChannel.tryLock(): not supported");
+    }
+}
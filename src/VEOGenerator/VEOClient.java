@@ -0,0 +1,192 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * *************************************************************
+ *
+ * V E O C L I E N T
+ *
+ * This class submits jobs to a VEOServer.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class submits jobs to a {@link VEOServer} running on the same machine.
+ * It is a light weight replacement for running VEOCreator for each batch: the
+ * client does not load the templates or the PFX file, so it starts quickly
+ * and the job runs on a server that is already warmed up.
+ * <p>
+ * The command line arguments are
+ * <pre>
+ *    veoClient [-port &lt;port&gt;] [-token &lt;file&gt;] &lt;controlFile&gt; [&lt;outputDir&gt;]
+ *    veoClient [-port &lt;port&gt;] [-token &lt;file&gt;] -status
+ *    veoClient [-port &lt;port&gt;] [-token &lt;file&gt;] -stop
+ * </pre>
+ * The token presented to the server is read from the server's token file (by
+ * default '.veoserver-&lt;port&gt;' in the user's home directory).
+ * The result of the job (and its timings) is printed. The program exits with
+ * status 0 if the job succeeded, and -1 otherwise.
+ */
+public class VEOClient {
+
+    int port;       // port the server is listening on
+    String token;   // token presented to the server
+
+    /**
+     * Default port used by the client if none is specified
+     */
+    public static final int DEFAULT_PORT = 8920;
+
+    private static final String USAGE = "veoClient [-port <port>] [-token <file>] (<controlFile> [<outputDir>] | -status | -stop)";
+
+    /**
+     * Construct a client of a server on the loopback interface.
+     *
+     * @param port the port the server is listening on
+     * @param token the token presented to the server (see
+     * {@link VEOServer#readToken})
+     */
+    public VEOClient(int port, String token) {
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Submit a job to build the VEOs described in a control file, and wait for
+     * it to complete.
+     *
+     * @param control the control file
+     * @param outputDir the directory in which to place the VEOs (null to use
+     * the server's default)
+     * @return the reply from the server (see {@link VEOServer})
+     * @throws VEOError if the server could not be contacted
+     */
+    public String build(File control, File outputDir) throws VEOError {
+        String name = "VEOClient.build(): ";
+
+        if (control == null) {
+            throw new VEOError(name + "control file is null");
+        }
+        return send("BUILD\t" + control.getAbsolutePath() + "\t" + (outputDir == null ? "" : outputDir.getAbsolutePath()));
+    }
+
+    /**
+     * Send a request to the server and return its reply
+     *
+     * @param request the request (one line of tab separated fields, not
+     * including the token)
+     * @return the reply
+     * @throws VEOError if the server could not be contacted
+     */
+    public String send(String request) throws VEOError {
+        BufferedReader br;
+        Writer w;
+        String reply;
+        String name = "VEOClient.send(): ";
+
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            w.write(token);
+            w.write("\t");
+            w.write(request);
+            w.write("\n");
+            w.flush();
+            br = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            reply = br.readLine();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed contacting server on port " + port + ": " + ioe.getMessage());
+        }
+        if (reply == null) {
+            throw new VEOError(name + "server closed connection without replying");
+        }
+        return reply;
+    }
+
+    /**
+     * Main program.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String args[]) {
+        VEOClient client;
+        String reply, request;
+        String[] fields;
+        File control, output, tokenFile;
+        int i, port;
+        long start;
+
+        port = DEFAULT_PORT;
+        control = null;
+        output = null;
+        tokenFile = null;
+        request = null;
+        try {
+            for (i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase()) {
+                    case "-port":
+                        i++;
+                        port = Integer.parseInt(args[i]);
+                        break;
+                    case "-token":
+                        i++;
+                        tokenFile = new File(args[i]);
+                        break;
+                    case "-status":
+                        request = "STATUS";
+                        break;
+                    case "-stop":
+                        request = "STOP";
+                        break;
+                    default:
+                        if (control == null) {
+                            control = new File(args[i]);
+                        } else {
+                            output = new File(args[i]);
+                        }
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Usage: " + USAGE);
+            System.exit(-1);
+        }
+        if (control == null && request == null) {
+            System.err.println("Usage: " + USAGE);
+            System.exit(-1);
+        }
+
+        start = System.nanoTime();
+        try {
+            client = new VEOClient(port, VEOServer.readToken(tokenFile == null ? VEOServer.defaultTokenFile(port) : tokenFile));
+            reply = request != null ? client.send(request) : client.build(control, output);
+        } catch (VEOError e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+            return;
+        }
+        fields = reply.split("\t");
+        if (control != null && fields.length >= 4) {
+            System.out.println(fields[0] + ": " + fields[1] + " VEO(s) built; waited " + fields[2] + "ms, built in " + fields[3]
+                    + "ms, total " + (System.nanoTime() - start) / 1000000 + "ms" + (fields.length > 4 ? " (" + fields[4] + ")" : ""));
+        } else if (request != null && request.equals("STATUS") && fields.length >= 4) {
+            System.out.println(fields[1] + " job(s) run (" + fields[2] + " failed), " + fields[3] + " VEO(s) built");
+        } else {
+            System.out.println(reply.replace('\t', ' '));
+        }
+        if (!fields[0].equals("OK")) {
+            System.exit(-1);
+        }
+    }
+}
@@ -5,10 +5,14 @@ import VERSCommon.VEOError;
 import VERSCommon.VEOFatal;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -38,8 +42,88 @@ import java.util.TimeZone;
  * will prompt for the password).</li>
  * <li>-o <outputDir> the directory in which the VEOs are to be created. If not
  * present, the VEOs will be created in the current directory.</li>
+ * <li>-o may be given several times, to spread the VEOs across several
+ * output directories (normally on independent volumes) (see
+ * {@link VEOPlacement}).</li>
+ * <li>-placement rr|queued|hash how to choose the output directory for each
+ * VEO when several are given: in turn (the default), the directory with the
+ * fewest bytes of VEOs waiting to be published or moved, or by a hash of the
+ * VEO name. Cannot be used with -bundle.</li>
+ * <li>-layout hash|prefix &lt;depth&gt; &lt;fanout&gt; place the VEOs in
+ * nested subdirectories of the output directory derived from a hash or
+ * prefix of the VEO name, with depth levels of fanout subdirectories (or
+ * fanout characters of the name) each (see {@link VEOLayout}). The layout is
+ * recorded in the manifest.</li>
+ * <li>-locator &lt;file&gt; write a line to the file giving the name and
+ * final path of each VEO.</li>
  * <li>-v print information about the progress of the program. By default, not
  * set.</li>
+ * <li>-dir &lt;directory&gt; &lt;pattern&gt; instead of a data file, build a
+ * simple record VEO from each file in the directory tree whose relative path
+ * matches the glob pattern (see {@link DirectoryDataSource}).</li>
+ * <li>-watch &lt;directory&gt; instead of a data file, run continuously,
+ * building VEOs from control files and payloads as they arrive in the
+ * directory (see {@link VEOWatcher}).</li>
+ * <li>-quiet &lt;ms&gt; when watching, the time a file must be unchanged
+ * before it is considered complete (default 2000).</li>
+ * <li>-serve &lt;port&gt; instead of a data file, run as a server accepting
+ * jobs from {@link VEOClient} on the given loopback port (see
+ * {@link VEOServer}).</li>
+ * <li>-serveroot &lt;directory&gt; when serving, the directory that the output
+ * directories of jobs must lie within (default is the output directory).</li>
+ * <li>-token &lt;file&gt; when serving, write the token clients must present
+ * to this file (default is '.veoserver-&lt;port&gt;' in the user's home
+ * directory).</li>
+ * <li>-snapshot &lt;file&gt; load the parsed templates from a snapshot file
+ * if it is up to date, otherwise parse the templates and write the snapshot
+ * file (see {@link TemplateSnapshot}).</li>
+ * <li>-manifest &lt;file&gt; write a manifest giving the size and SHA-256
+ * digest of each VEO built, and of each file included in it (see
+ * {@link VEOManifest}).</li>
+ * <li>-atomic write each VEO to a temporary file, and only rename it to its
+ * final name when it is complete (see {@link VEOPublisher}).</li>
+ * <li>-fsync &lt;count&gt; &lt;ms&gt; as for -atomic, but also force each VEO
+ * to disk before it is renamed. The VEOs are committed in groups of up to
+ * count VEOs, or after ms milliseconds, whichever comes first.</li>
+ * <li>-mapped write each VEO through a memory mapped window onto a
+ * preallocated file, truncated to the exact length once complete (see
+ * {@link MappedVEOOutput}).</li>
+ * <li>-bundle zip|tar &lt;count&gt; &lt;MB&gt; write the VEOs as entries in
+ * ZIP or TAR bundles in the output directory, starting a new bundle after
+ * count VEOs or when a bundle would exceed MB megabytes (see
+ * {@link BundleVEOOutput}). Cannot be used with -mapped, -atomic, -fsync or
+ * -verify.</li>
+ * <li>-gzip write each VEO gzip compressed (as '&lt;name&gt;.gz'),
+ * compressing blocks of the VEO in parallel on all the processors (see
+ * {@link GzipVEOOutput}). Cannot be used with -mapped, -bundle or
+ * -verify.</li>
+ * <li>-stage &lt;directory&gt; &lt;MB&gt; size|sha256 build the VEOs in a
+ * (fast, local) staging directory, and move them to the output directory in
+ * the background, checking the size (or the SHA-256 digest) of each copy.
+ * Building waits if more than MB megabytes of VEOs are waiting to be moved
+ * (see {@link VEOMover}). Cannot be used with -bundle.</li>
+ * <li>-verify check the signatures of each VEO in the background once it is
+ * complete, moving any VEO that fails into a 'quarantine' directory beside it
+ * (see {@link VEOVerifier}).</li>
+ * <li>-metrics &lt;port&gt; serve the generator metrics as text at
+ * '/metrics' on the given loopback port while running (see
+ * {@link VEOMetrics}). The metrics are always available via JMX.</li>
+ * <li>-preflight check the whole data file (or directory tree) before
+ * building any VEOs, reporting every problem found (missing or unreadable
+ * files, duplicate VEO names, rows out of sequence, and rows with fewer
+ * columns than their template refers to). No VEOs are built if any problem is
+ * found (see {@link VEOPreflight}).</li>
+ * <li>-estimate &lt;threads&gt; &lt;count&gt; instead of building the VEOs,
+ * calculate the exact size of each VEO and the total space needed, without
+ * reading the binary files included (see {@link SizingVEOOutput}). The first
+ * count VEOs are then built in a temporary directory in the output directory
+ * to measure the throughput, and the time to build all the VEOs is
+ * projected. VEOCreator builds VEOs one at a time, so the projection for
+ * threads is for that many independent runs of VEOCreator, each given its
+ * share of the control file (assuming the work divides evenly, up to the
+ * number of processors, and that the disk keeps up). If count is 0, only
+ * the sizes are calculated. Cannot be used with options that write anything
+ * other than the VEOs.</li>
  * </ul>
  * <p>
  * The template files required are:
@@ -123,25 +207,61 @@ import java.util.TimeZone;
  *    e Image-10-0101.jpg
  *    s Image-10-0102.veo Image-10-0101.jpg metadata1 metadata2...
  * </pre>
+ * <p>
+ * If the name of the data file ends in '.csv', the data file is read as comma
+ * separated values (RFC 4180) instead. Columns may then be quoted, and a quoted
+ * column may contain commas, tabs, and line breaks.
  */
 public class VEOCreator {
 
     VEOGenerator vg;// the representation of the VEO
     boolean verbose;// true if verbose output
     File templateDir;// directory in which the templates are found
+    File snapshotFile;// snapshot of the parsed templates (null if not used)
     boolean noDataFile; // true data file is to be passed when building VEOs
     File dataFile;	// the data file which is to control production
+    File dataDir;	// directory tree to generate VEOs from instead of a data file
+    String dataPattern; // pattern of files to include from the directory tree
+    File watchDir;	// inbox to watch for content instead of a data file
+    long quietPeriod;	// time (ms) a file in the inbox must be unchanged to be complete
     String hashAlg; // hash algorithm to use
     File pfxFile;	// PFX file containing infor about the signer
     PFXUser signer;	// signer information
     String passwd;	// password for the PFX file
     File outputDir;	// directory in which to place the VEOs
+    ArrayList<File> roots;	// all the output directories given
+    int placementPolicy;	// how VEOs are placed across the output directories
+    File locatorFile;	// locator of the VEOs placed (null if not written)
+    VEOLayout layout;	// subdirectories VEOs are placed in (null if flat)
+    VEOPlacement placement; // places VEOs across output directories (null if one)
     Fragment rData;	// template for record metadata
     Fragment fData;	// template for file metadata
     Fragment dData;	// template for document metadata
     boolean help;           // true if printing a cheat list of command line options
+    int serverPort;	// loopback port to accept jobs on (0 if not a server)
+    File serverRoot;	// directory job output directories must lie within (null if output directory)
+    File tokenFile;	// file the server's token is written to (null if default)
+    int metricsPort;	// loopback port to serve metrics on (0 if not served)
+    File manifestFile;	// manifest of the VEOs built (null if not written)
+    VEOManifest manifest; // writer for the manifest
+    VEOVerifier verifier; // background verifier (null if not verifying)
+    VEOPublisher publisher; // publishes completed VEOs (null if written in place)
+    VEOOutput output;	// engine writing the VEOs (null if plain files)
+    String bundleFormat;	// 'zip' or 'tar' if writing bundles (null if not)
+    int bundleCount;	// maximum VEOs in a bundle
+    long bundleBytes;	// maximum size of a bundle
+    boolean gzip;		// true if writing gzip compressed VEOs
+    File stageDir;		// directory in which VEOs are staged (null if not staging)
+    long stageLimit;	// maximum bytes of staged VEOs waiting to be moved
+    boolean stageChecksum;	// true if moved VEOs are checked by digest, not size
+    VEOMover mover;		// moves staged VEOs to the output directory (null if not staging)
+    ConcurrentHashMap<String, File> stagedFor; // output directory of each staged VEO waiting to be published
+    boolean preflight;	// true if the data is checked before building
+    int estimateThreads;	// threads to project the run time for (0 if not estimating)
+    int calibrateVEOs;	// VEOs to build to measure the throughput when estimating
+    int veosBuilt;	// number of VEOs completed by the last call to buildVEOs()
 
-    private static final String USAGE = "veoCreator [-help] [-v] [-h <hashAlg>] -t <templateDir> [-d <dataFile>| -nd] -s <pfxFile> <password> [-o <outputDir>]";
+    private static final String USAGE = "veoCreator [-help] [-v] [-h <hashAlg>] -t <templateDir> [-d <dataFile>| -dir <directory> <pattern> | -watch <directory> [-quiet <ms>] | -serve <port> [-serveroot <directory>] [-token <file>] | -nd] -s <pfxFile> <password> [-o <outputDir>]... [-placement rr|queued|hash] [-locator <file>] [-layout hash|prefix <depth> <fanout>] [-snapshot <file>] [-manifest <file>] [-atomic | -fsync <count> <ms>] [-mapped | -bundle zip|tar <count> <MB> | -gzip] [-stage <directory> <MB> size|sha256] [-verify] [-metrics <port>] [-preflight] [-estimate <threads> <count>]";
 
     /**
      * Report on version...
@@ -172,6 +292,7 @@ public class VEOCreator {
      */
     public VEOCreator(String args[]) throws VEOFatal {
         SimpleDateFormat sdf;
+        TemplateSnapshot ts;
         TimeZone tz;
         StringBuffer sb;
         int c;
@@ -179,12 +300,43 @@ public class VEOCreator {
 
         verbose = false;
         templateDir = null;
+        snapshotFile = null;
         noDataFile = false;
         dataFile = null;
+        dataDir = null;
+        dataPattern = null;
+        watchDir = null;
+        quietPeriod = 2000;
+        serverPort = 0;
+        serverRoot = null;
+        tokenFile = null;
+        metricsPort = 0;
+        manifestFile = null;
+        manifest = null;
+        verifier = null;
+        publisher = null;
+        output = null;
+        bundleFormat = null;
+        bundleCount = 0;
+        bundleBytes = 0;
+        gzip = false;
+        stageDir = null;
+        stageLimit = 0;
+        stageChecksum = false;
+        mover = null;
+        stagedFor = new ConcurrentHashMap<>();
+        preflight = false;
+        estimateThreads = 0;
+        calibrateVEOs = 0;
         hashAlg = "SHA-256";
         signer = null;
         passwd = null;
         outputDir = null;
+        roots = new ArrayList<>();
+        placementPolicy = VEOPlacement.ROUND_ROBIN;
+        locatorFile = null;
+        layout = null;
+        placement = null;
         help = false;
 
         // process command line arguments
@@ -215,9 +367,30 @@ public class VEOCreator {
             System.out.println("");
             System.out.println(" Optional:");
             System.out.println("  -d <file>: file path to the data (control) file (must be present unless -nd is set)");
+            System.out.println("  -dir <directory> <pattern>: build a simple record VEO from each file in the directory tree matching the glob pattern");
+            System.out.println("  -watch <directory>: run continuously, building VEOs from content as it arrives in the directory");
+            System.out.println("  -quiet <ms>: when watching, the time a file must be unchanged before it is complete (default 2000)");
+            System.out.println("  -serve <port>: run as a server, accepting jobs on the loopback port");
+            System.out.println("  -serveroot <directory>: when serving, job output directories must lie within this directory (default is the output directory)");
+            System.out.println("  -token <file>: when serving, write the token clients must present to this file (default ~/.veoserver-<port>)");
             System.out.println("  -nd: no data file is required to generate the VEOs");
             System.out.println("  -h <hashAlgorithm>: specifies the hash algorithm (default SHA-256)");
             System.out.println("  -o <directory>: the directory in which the VEOs are created (default is current working directory)");
+            System.out.println("  -placement rr|queued|hash: how VEOs are spread across several output directories (-o given more than once)");
+            System.out.println("  -locator <file>: write the name and final path of each VEO to this file");
+            System.out.println("  -layout hash|prefix <depth> <fanout>: place VEOs in nested subdirectories derived from their names");
+            System.out.println("  -snapshot <file>: load the parsed templates from this snapshot file (written if missing or out of date)");
+            System.out.println("  -manifest <file>: write the size and SHA-256 digest of each VEO and its included files to this file");
+            System.out.println("  -atomic: write each VEO to a temporary file and rename it when complete");
+            System.out.println("  -fsync <count> <ms>: as -atomic, but force VEOs to disk in groups of up to count VEOs or ms milliseconds");
+            System.out.println("  -mapped: write VEOs through memory mapped, preallocated files");
+            System.out.println("  -bundle zip|tar <count> <MB>: write VEOs into ZIP or TAR bundles of up to count VEOs or MB megabytes");
+            System.out.println("  -gzip: write VEOs gzip compressed, compressing in parallel");
+            System.out.println("  -stage <directory> <MB> size|sha256: build VEOs in the staging directory, moving them to the output directory in the background");
+            System.out.println("  -verify: verify the signatures of each VEO in the background, quarantining any that fail");
+            System.out.println("  -metrics <port>: serve the generator metrics at '/metrics' on the loopback port");
+            System.out.println("  -preflight: check the whole data file before building any VEOs, reporting all the problems found");
+            System.out.println("  -estimate <threads> <count>: estimate the size of the VEOs, and the time to build them (in this run, and split across threads separate runs) from a trial of count VEOs");
             System.out.println("");
             System.out.println("  -v: verbose mode: give more details about processing");
             System.out.println("  -help: print this listing");
@@ -229,35 +402,163 @@ public class VEOCreator {
         if (templateDir == null) {
             throw new VEOFatal("VEOCreator", 1, "No template directory specified. Usage: " + USAGE);
         }
-        if (dataFile == null && !noDataFile) {
+        if (dataFile == null && dataDir == null && watchDir == null && serverPort == 0 && !noDataFile) {
             throw new VEOFatal("VEOCreator", 2, "No data file specified. Usage: " + USAGE);
         }
         if (pfxFile == null) {
             throw new VEOFatal("VEOCreator", 3, "No PFX file specified. Usage: " + USAGE);
         }
 
+        // only a data file or directory tree can be read twice
+        if (preflight && dataFile == null && dataDir == null) {
+            throw new VEOFatal("VEOCreator", 22, "-preflight can only be used with -d or -dir. Usage: " + USAGE);
+        }
+
+        // estimating sizes the VEOs without writing them, so nothing else
+        // may be written
+        if (estimateThreads != 0) {
+            if (dataFile == null && dataDir == null) {
+                throw new VEOFatal("VEOCreator", 23, "-estimate can only be used with -d or -dir. Usage: " + USAGE);
+            }
+            if (output != null || bundleFormat != null || gzip || publisher != null || stageDir != null
+                    || verifier != null || manifestFile != null || locatorFile != null) {
+                throw new VEOFatal("VEOCreator", 23, "-estimate cannot be used with -mapped, -bundle, -gzip, -atomic, -fsync, -stage, -verify, -manifest, or -locator. Usage: " + USAGE);
+            }
+        }
+
+        // VEOs written into bundles are not files of their own, so they
+        // cannot be published or verified individually
+        if (bundleFormat != null) {
+            if (output != null || publisher != null || verifier != null) {
+                throw new VEOFatal("VEOCreator", 17, "-bundle cannot be used with -mapped, -atomic, -fsync, or -verify. Usage: " + USAGE);
+            }
+            output = new BundleVEOOutput(outputDir, bundleFormat.equals("tar"), bundleCount, bundleBytes);
+        }
+
+        // VEOs are spread across several output directories
+        if (roots.size() > 1 || locatorFile != null) {
+            if (bundleFormat != null) {
+                throw new VEOFatal("VEOCreator", 20, "Several output directories or -locator cannot be used with -bundle. Usage: " + USAGE);
+            }
+            if (roots.isEmpty()) {
+                roots.add(new File("."));
+            }
+            try {
+                placement = new VEOPlacement(roots.toArray(new File[roots.size()]), placementPolicy);
+                if (locatorFile != null) {
+                    placement.setLocator(locatorFile);
+                }
+            } catch (VEOError e) {
+                throw new VEOFatal("VEOCreator", 20, e.getMessage());
+            }
+        }
+
+        // staged VEOs are moved to the output directory by the mover
+        if (stageDir != null) {
+            if (bundleFormat != null) {
+                throw new VEOFatal("VEOCreator", 19, "-stage cannot be used with -bundle. Usage: " + USAGE);
+            }
+            mover = new VEOMover(stageDir, outputDir == null ? new File(".") : outputDir, stageLimit, stageChecksum, 4);
+        }
+
+        // compressed VEOs cannot be verified in place
+        if (gzip) {
+            if (output != null || verifier != null) {
+                throw new VEOFatal("VEOCreator", 18, "-gzip cannot be used with -mapped, -bundle, or -verify. Usage: " + USAGE);
+            }
+            output = new GzipVEOOutput(0, 6);
+        }
+
         System.out.println("Configuration:");
         if (dataFile != null) {
             System.out.println(" Data file: '" + dataFile.toString() + "'");
+        } else if (dataDir != null) {
+            System.out.println(" Data directory: '" + dataDir.toString() + "' (files matching '" + dataPattern + "')");
+        } else if (watchDir != null) {
+            System.out.println(" Watching directory: '" + watchDir.toString() + "' (quiet period " + quietPeriod + "ms)");
+        } else if (serverPort != 0) {
+            System.out.println(" Accepting jobs on loopback port: " + serverPort);
+            if (serverRoot != null) {
+                System.out.println(" Job output directories within: '" + serverRoot.toString() + "'");
+            }
+            if (tokenFile != null) {
+                System.out.println(" Token file: '" + tokenFile.toString() + "'");
+            }
         } else {
             System.out.println(" No data file is specified");
         }
         System.out.println(" Template directory: '" + templateDir.toString() + "'");
+        if (snapshotFile != null) {
+            System.out.println(" Template snapshot: '" + snapshotFile.toString() + "'");
+        }
         System.out.println(" PFX file: '" + pfxFile.toString() + "'");
-        if (outputDir != null) {
+        if (placement != null) {
+            System.out.println(" Output directories: " + placement.toString());
+        } else if (outputDir != null) {
             System.out.println(" Output directory: '" + outputDir.toString() + "'");
         }
+        if (locatorFile != null) {
+            System.out.println(" Locator: '" + locatorFile.toString() + "'");
+        }
+        if (layout != null) {
+            System.out.println(" Output directory layout: " + layout.toString());
+        }
         System.out.println(" Hash algorithm (specified on command line or the default): " + hashAlg);
+        if (manifestFile != null) {
+            System.out.println(" Manifest: '" + manifestFile.toString() + "'");
+        }
+        if (publisher != null && publisher.durable) {
+            System.out.println(" VEOs are published durably (group commit of " + publisher.groupSize + " VEOs or " + publisher.groupWindow + "ms)");
+        } else if (publisher != null) {
+            System.out.println(" VEOs are published atomically");
+        }
+        if (output != null) {
+            System.out.println(" VEOs are written to " + output.toString());
+        }
+        if (stageDir != null) {
+            System.out.println(" VEOs are staged in '" + stageDir.toString() + "' (up to " + stageLimit / (1024 * 1024) + "MB) and moved in the background"
+                    + (stageChecksum ? ", checking the SHA-256 digest of each copy" : ""));
+        }
+        if (verifier != null) {
+            System.out.println(" VEOs are verified once complete");
+        }
+        if (metricsPort != 0) {
+            System.out.println(" Serving metrics on loopback port: " + metricsPort);
+        }
+        if (preflight) {
+            System.out.println(" The data is checked before any VEOs are built");
+        }
+        if (estimateThreads != 0) {
+            System.out.println(" The VEOs are only sized, and the time projected (for one run, and for " + estimateThreads + " separate run(s)) from a trial of " + calibrateVEOs + " VEO(s)");
+        }
         if (verbose) {
             System.out.println(" Verbose output is selected");
         }
 
-        // read the templates
+        // publish the metrics
+        try {
+            VEOMetrics.registerMBean();
+            if (metricsPort != 0) {
+                VEOMetrics.startEndpoint(metricsPort);
+            }
+        } catch (VEOError e) {
+            throw new VEOFatal("VEOCreator", 14, e.getMessage());
+        }
+
+        // read the templates (from the snapshot if possible)
         try {
-            vg = new VEOGenerator(new File(templateDir, "encodingTemplates"), args);
-            rData = Fragment.parseTemplate(new File(templateDir, "record.txt"), args);
-            fData = Fragment.parseTemplate(new File(templateDir, "file.txt"), args);
-            dData = Fragment.parseTemplate(new File(templateDir, "document.txt"), args);
+            if (snapshotFile != null) {
+                ts = TemplateSnapshot.loadOrParse(templateDir, args, snapshotFile);
+                vg = new VEOGenerator(ts.getEncodingTemplates());
+                rData = ts.getRecordTemplate();
+                fData = ts.getFileTemplate();
+                dData = ts.getDocumentTemplate();
+            } else {
+                vg = new VEOGenerator(new File(templateDir, "encodingTemplates"), args);
+                rData = Fragment.parseTemplate(new File(templateDir, "record.txt"), args);
+                fData = Fragment.parseTemplate(new File(templateDir, "file.txt"), args);
+                dData = Fragment.parseTemplate(new File(templateDir, "document.txt"), args);
+            }
         } catch (VEOError e) {
             System.err.println(e.getMessage());
             System.exit(-1);
@@ -288,6 +589,47 @@ public class VEOCreator {
         } catch (VEOError e) {
             throw new VEOFatal("VEOCreator", 5, "Failed opening PFX file: " + e.getMessage());
         }
+
+        // open the manifest, and have the generator calculate the digests
+        if (manifestFile != null) {
+            try {
+                manifest = new VEOManifest(manifestFile, layout);
+            } catch (VEOError e) {
+                throw new VEOFatal("VEOCreator", 15, e.getMessage());
+            }
+            vg.setDigesting(true);
+        }
+
+        // VEOs must be verifiable with the signer's key. If VEOs are
+        // published or staged, they are verified once they appear under their
+        // final name. Staged VEOs are moved once published
+        if (verifier != null) {
+            verifier.expectedKey = signer.getX509CertificateFromChain(0).getPublicKey();
+            if (mover != null) {
+                mover.addListener(verifier::submit);
+            } else if (publisher != null) {
+                publisher.addListener(verifier::submit);
+            }
+        }
+        if (mover != null && publisher != null) {
+            publisher.addListener(f -> mover.submit(f, destination(f)));
+        }
+
+        // VEOs placed across several output directories are queued until
+        // they have been moved (if staged) or published
+        if (placement != null) {
+            if (mover != null) {
+                mover.addListener(f -> placement.settled(f.getName()));
+            } else if (publisher != null) {
+                publisher.addListener(f -> placement.settled(f.getName()));
+            }
+        }
+        if (publisher != null) {
+            vg.setPublisher(publisher);
+        }
+        if (output != null) {
+            vg.setOutput(output);
+        }
     }
 
     /**
@@ -330,6 +672,14 @@ public class VEOCreator {
                     continue;
                 }
 
+                // get template snapshot file (need not exist yet)
+                if (args[i].toLowerCase().equals("-snapshot")) {
+                    i++;
+                    snapshotFile = new File(args[i]);
+                    i++;
+                    continue;
+                }
+
                 // get data file
                 if (args[i].toLowerCase().equals("-d")) {
                     i++;
@@ -338,6 +688,192 @@ public class VEOCreator {
                     continue;
                 }
 
+                // get directory tree to generate VEOs from
+                if (args[i].toLowerCase().equals("-dir")) {
+                    i++;
+                    dataDir = openFile("data directory", args[i], true);
+                    i++;
+                    dataPattern = args[i];
+                    i++;
+                    continue;
+                }
+
+                // get inbox to watch
+                if (args[i].toLowerCase().equals("-watch")) {
+                    i++;
+                    watchDir = openFile("watch directory", args[i], true);
+                    i++;
+                    continue;
+                }
+
+                // get quiet period of files in the watch directory
+                if (args[i].toLowerCase().equals("-quiet")) {
+                    i++;
+                    try {
+                        quietPeriod = Long.parseLong(args[i]);
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 24, "Invalid quiet period '" + args[i] + "'");
+                    }
+                    if (quietPeriod < 0) {
+                        throw new VEOFatal("VEOCreator", 24, "Quiet period must not be negative, not " + quietPeriod);
+                    }
+                    i++;
+                    continue;
+                }
+
+                // get port to accept jobs on
+                if (args[i].toLowerCase().equals("-serve")) {
+                    i++;
+                    try {
+                        serverPort = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 13, "Invalid port '" + args[i] + "'");
+                    }
+                    if (serverPort < 1 || serverPort > 65535) {
+                        throw new VEOFatal("VEOCreator", 13, "Port must be between 1 and 65535, not " + serverPort);
+                    }
+                    i++;
+                    continue;
+                }
+
+                // get directory that job output directories must lie within
+                if (args[i].toLowerCase().equals("-serveroot")) {
+                    i++;
+                    serverRoot = openFile("server output root", args[i], true);
+                    i++;
+                    continue;
+                }
+
+                // get file to write the server's token to
+                if (args[i].toLowerCase().equals("-token")) {
+                    i++;
+                    tokenFile = new File(args[i]);
+                    i++;
+                    continue;
+                }
+
+                // get manifest file
+                if (args[i].toLowerCase().equals("-manifest")) {
+                    i++;
+                    manifestFile = new File(args[i]);
+                    i++;
+                    continue;
+                }
+
+                // publish VEOs atomically
+                if (args[i].toLowerCase().equals("-atomic")) {
+                    publisher = new VEOPublisher(false, 1, 0);
+                    i++;
+                    continue;
+                }
+
+                // publish VEOs atomically and durably
+                if (args[i].toLowerCase().equals("-fsync")) {
+                    try {
+                        publisher = new VEOPublisher(true, Integer.parseInt(args[i + 1]), Long.parseLong(args[i + 2]));
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 16, "Invalid group commit count or time: '" + args[i + 1] + "' '" + args[i + 2] + "'");
+                    }
+                    i += 3;
+                    continue;
+                }
+
+                // write VEOs through memory mapped files
+                if (args[i].toLowerCase().equals("-mapped")) {
+                    output = new MappedVEOOutput();
+                    i++;
+                    continue;
+                }
+
+                // write VEOs into bundles
+                if (args[i].toLowerCase().equals("-bundle")) {
+                    bundleFormat = args[i + 1].toLowerCase();
+                    if (!bundleFormat.equals("zip") && !bundleFormat.equals("tar")) {
+                        throw new VEOFatal("VEOCreator", 17, "Bundle format must be 'zip' or 'tar', not '" + args[i + 1] + "'");
+                    }
+                    try {
+                        bundleCount = Integer.parseInt(args[i + 2]);
+                        bundleBytes = Long.parseLong(args[i + 3]) * 1024 * 1024;
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 17, "Invalid bundle count or size: '" + args[i + 2] + "' '" + args[i + 3] + "'");
+                    }
+                    i += 4;
+                    continue;
+                }
+
+                // write gzip compressed VEOs
+                if (args[i].toLowerCase().equals("-gzip")) {
+                    gzip = true;
+                    i++;
+                    continue;
+                }
+
+                // build VEOs in a staging directory
+                if (args[i].toLowerCase().equals("-stage")) {
+                    stageDir = openFile("staging directory", args[i + 1], true);
+                    try {
+                        stageLimit = Long.parseLong(args[i + 2]) * 1024 * 1024;
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 19, "Invalid staging limit: '" + args[i + 2] + "'");
+                    }
+                    switch (args[i + 3].toLowerCase()) {
+                        case "size":
+                            stageChecksum = false;
+                            break;
+                        case "sha256":
+                            stageChecksum = true;
+                            break;
+                        default:
+                            throw new VEOFatal("VEOCreator", 19, "Staged VEOs must be checked by 'size' or 'sha256', not '" + args[i + 3] + "'");
+                    }
+                    i += 4;
+                    continue;
+                }
+
+                // verify VEOs once complete
+                if (args[i].toLowerCase().equals("-verify")) {
+                    verifier = new VEOVerifier(null);
+                    i++;
+                    continue;
+                }
+
+                // get port to serve metrics on
+                if (args[i].toLowerCase().equals("-metrics")) {
+                    i++;
+                    try {
+                        metricsPort = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 13, "Invalid port '" + args[i] + "'");
+                    }
+                    if (metricsPort < 1 || metricsPort > 65535) {
+                        throw new VEOFatal("VEOCreator", 13, "Port must be between 1 and 65535, not " + metricsPort);
+                    }
+                    i++;
+                    continue;
+                }
+
+                // check the data before building
+                if (args[i].toLowerCase().equals("-preflight")) {
+                    preflight = true;
+                    i++;
+                    continue;
+                }
+
+                // estimate the size of the VEOs and the time to build them
+                if (args[i].toLowerCase().equals("-estimate")) {
+                    try {
+                        estimateThreads = Integer.parseInt(args[i + 1]);
+                        calibrateVEOs = Integer.parseInt(args[i + 2]);
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 23, "Invalid thread or trial VEO count: '" + args[i + 1] + "' '" + args[i + 2] + "'");
+                    }
+                    if (estimateThreads < 1 || calibrateVEOs < 0) {
+                        throw new VEOFatal("VEOCreator", 23, "Thread count must be at least 1, and trial VEO count at least 0");
+                    }
+                    i += 3;
+                    continue;
+                }
+
                 // data file will be passed to buildVEOs()
                 if (args[i].toLowerCase().equals("-nd")) {
                     noDataFile = true;
@@ -358,7 +894,42 @@ public class VEOCreator {
                 // get output directory
                 if (args[i].toLowerCase().equals("-o")) {
                     i++;
-                    outputDir = openFile("output directory", args[i], true);
+                    roots.add(openFile("output directory", args[i], true));
+                    if (outputDir == null) {
+                        outputDir = roots.get(0);
+                    }
+                    i++;
+                    continue;
+                }
+
+                // get policy to place VEOs across output directories
+                if (args[i].toLowerCase().equals("-placement")) {
+                    i++;
+                    placementPolicy = VEOPlacement.policy(args[i]);
+                    if (placementPolicy == 0) {
+                        throw new VEOFatal("VEOCreator", 20, "Placement must be 'rr', 'queued', or 'hash', not '" + args[i] + "'");
+                    }
+                    i++;
+                    continue;
+                }
+
+                // get layout of the output directories
+                if (args[i].toLowerCase().equals("-layout")) {
+                    try {
+                        layout = new VEOLayout(VEOLayout.scheme(args[i + 1]), Integer.parseInt(args[i + 2]), Integer.parseInt(args[i + 3]));
+                    } catch (NumberFormatException nfe) {
+                        throw new VEOFatal("VEOCreator", 21, "Invalid layout depth or fan-out: '" + args[i + 2] + "' '" + args[i + 3] + "'");
+                    } catch (VEOError e) {
+                        throw new VEOFatal("VEOCreator", 21, e.getMessage());
+                    }
+                    i += 4;
+                    continue;
+                }
+
+                // get locator file
+                if (args[i].toLowerCase().equals("-locator")) {
+                    i++;
+                    locatorFile = new File(args[i]);
                     i++;
                     continue;
                 }
@@ -465,34 +1036,314 @@ public class VEOCreator {
     }
 
     /**
-     * Build the VEOs. This method processes the data file passed as a command
-     * line argument in the constructor, building VEOs from the data and the
-     * templates.
+     * Build the VEOs. This method processes the data file (or directory tree)
+     * passed as a command line argument in the constructor, building VEOs from
+     * the data and the templates. If requested, the data is checked first.
+     * If estimating, the VEOs are only sized (see {@link #estimate}).
      *
      * @throws VEOError when anything goes wrong...
      */
     public void buildVEOs() throws VEOError {
+        if (preflight) {
+            preflight();
+        }
+        if (estimateThreads != 0) {
+            estimate();
+            return;
+        }
+        if (dataDir != null) {
+            buildVEOs(new DirectoryDataSource(dataDir, dataPattern, 's', ".meta"));
+            return;
+        }
         buildVEOs(dataFile);
     }
 
+    /**
+     * Check the data file (or directory tree) passed as a command line argument
+     * in the constructor before any VEOs are built from it. All the problems
+     * found are printed.
+     *
+     * @throws VEOError if any problems were found
+     */
+    public void preflight() throws VEOError {
+        VEOPreflight pf;
+        List<String> problems;
+        DataSource ds;
+        long start;
+        int i;
+        String name = "VEOCreator.preflight(): ";
+
+        // the checks are mostly looking up files, so use more threads than
+        // processors
+        start = System.currentTimeMillis();
+        pf = new VEOPreflight(rData, dData, fData, vg, Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+        ds = openData();
+        try {
+            problems = pf.check(ds);
+        } finally {
+            closeData(ds);
+        }
+        for (i = 0; i < problems.size(); i++) {
+            System.out.println(problems.get(i));
+        }
+        System.out.println("Preflight: " + pf.getNoRows() + " row(s), " + pf.getNoVEOs() + " VEO(s) checked in "
+                + (System.currentTimeMillis() - start) + "ms, " + problems.size() + " problem(s) found");
+        if (!problems.isEmpty()) {
+            throw new VEOError(name + problems.size() + " problem(s) found in the data; no VEOs built");
+        }
+    }
+
+    /**
+     * Estimate the space and time needed to build the VEOs from the data file
+     * (or directory tree) passed as a command line argument in the
+     * constructor. Each VEO is built into a {@link SizingVEOOutput}, giving its
+     * exact size without writing it or reading the binary files it includes.
+     * The first VEOs are then built for real in a temporary directory, and
+     * the time taken for each is fitted to a fixed time per VEO plus a time per
+     * byte. From this, the time to build all the VEOs is projected, both in
+     * this single run and split across independent runs (one per thread
+     * requested) over equal parts of the control file.
+     *
+     * @throws VEOError when anything goes wrong...
+     */
+    public void estimate() throws VEOError {
+        SizingVEOOutput sizer;
+        DataSource ds;
+        File calDir, saveOutputDir;
+        VEOPlacement savePlacement;
+        VEOLayout saveLayout;
+        File[] built;
+        long[] size, time;
+        long start, n, sizeMs, t;
+        double sx, sy, sxx, sxy, d, a, b, serial;
+        int seqNo, k, i, cpus, threads;
+        String veoName;
+        String name = "VEOCreator.estimate(): ";
+
+        // size each VEO
+        start = System.currentTimeMillis();
+        sizer = new SizingVEOOutput(4096);
+        vg.setOutput(sizer);
+        vg.setSizing(true);
+        ds = openData();
+        try {
+            seqNo = 1;
+            while (!ds.isAtEnd()) {
+                n = sizer.getNoVEOs();
+                buildNewVEO(seqNo, ds);
+                seqNo++;
+                if (sizer.getNoVEOs() != n) {
+                    System.out.println(sizer.getLastVEO() + "\t" + sizer.getLastSize());
+                }
+            }
+            if (ds.getError() != null) {
+                throw new VEOError(name + "data source did not supply all its rows: " + ds.getError().getMessage());
+            }
+        } finally {
+            closeData(ds);
+            vg.setSizing(false);
+            vg.setOutput(null);
+        }
+        sizeMs = System.currentTimeMillis() - start;
+        System.out.println(sizer.report() + " in " + sizeMs + "ms");
+        if (calibrateVEOs == 0 || sizer.getNoVEOs() == 0) {
+            return;
+        }
+
+        // build the first VEOs in a temporary directory, timing each
+        saveOutputDir = outputDir;
+        savePlacement = placement;
+        saveLayout = layout;
+        try {
+            calDir = Files.createTempDirectory((outputDir == null ? new File(".") : outputDir).toPath(), "estimate").toFile();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "cannot create trial directory: " + ioe.getMessage());
+        }
+        outputDir = calDir;
+        placement = null;
+        layout = null;
+        built = new File[calibrateVEOs];
+        size = new long[calibrateVEOs];
+        time = new long[calibrateVEOs];
+        k = 0;
+        ds = openData();
+        try {
+            seqNo = 1;
+            while (!ds.isAtEnd() && k < calibrateVEOs) {
+                veoName = ds.getColumn(2);
+                n = veosBuilt;
+                t = System.nanoTime();
+                buildNewVEO(seqNo, ds);
+                t = System.nanoTime() - t;
+                seqNo++;
+                if (veosBuilt != n) {
+                    built[k] = new File(calDir, veoName);
+                    size[k] = built[k].length();
+                    time[k] = t;
+                    k++;
+                }
+            }
+        } finally {
+            closeData(ds);
+            outputDir = saveOutputDir;
+            placement = savePlacement;
+            layout = saveLayout;
+            deleteTree(calDir);
+        }
+        if (k == 0) {
+            return;
+        }
+
+        // fit the times to a + b * size by least squares. If the VEOs are
+        // too alike in size to separate the two, the time is taken as
+        // proportional to the size
+        sx = 0;
+        sy = 0;
+        sxx = 0;
+        sxy = 0;
+        for (i = 0; i < k; i++) {
+            sx += size[i];
+            sy += time[i] / 1e6;
+            sxx += (double) size[i] * size[i];
+            sxy += size[i] * (time[i] / 1e6);
+        }
+        d = k * sxx - sx * sx;
+        a = -1;
+        b = -1;
+        if (k > 1 && d > sxx * 1e-6) {
+            b = (k * sxy - sx * sy) / d;
+            a = (sy - b * sx) / k;
+        }
+        if (a < 0 || b < 0) {
+            a = 0;
+            b = sy / sx;
+        }
+        serial = a * sizer.getNoVEOs() + b * sizer.getBytes();
+        cpus = Runtime.getRuntime().availableProcessors();
+        threads = Math.min(estimateThreads, cpus);
+        System.out.println(String.format("Trial: %d VEO(s) (%.1f MB) built in %.0fms: %.2fms per VEO + %.2fms per MB",
+                k, sx / 1e6, sy, a, b * 1e6));
+        System.out.println("Projected time to build " + sizer.getNoVEOs() + " VEO(s): " + duration(serial) + " in this run");
+        if (estimateThreads > 1) {
+            System.out.println("  or " + duration(serial / threads) + " if the control file is split into " + estimateThreads
+                    + " parts and each part is run by a separate VEOCreator at the same time"
+                    + (threads < estimateThreads ? " (only " + cpus + " processor(s) available)" : ""));
+        }
+    }
+
+    /**
+     * Delete a directory and everything in it. Failures are ignored, as this
+     * is only tidying up.
+     *
+     * @param dir the directory to delete
+     */
+    private static void deleteTree(File dir) {
+        File[] files;
+        int i;
+
+        files = dir.listFiles();
+        if (files != null) {
+            for (i = 0; i < files.length; i++) {
+                if (files[i].isDirectory()) {
+                    deleteTree(files[i]);
+                } else {
+                    files[i].delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Format a duration as hours, minutes, and seconds
+     *
+     * @param ms the duration in milliseconds
+     * @return the formatted duration
+     */
+    private static String duration(double ms) {
+        long s;
+
+        s = (long) (ms / 1000);
+        return String.format("%d:%02d:%04.1f", s / 3600, (s / 60) % 60, (ms - (s / 60) * 60000) / 1000);
+    }
+
+    /**
+     * Open the data file (or directory tree) passed as a command line argument
+     * in the constructor. A data file whose name ends in '.csv' is read as
+     * comma separated values, otherwise as tab separated values.
+     *
+     * @return the data source
+     * @throws VEOError if the data could not be opened
+     */
+    private DataSource openData() throws VEOError {
+        if (dataDir != null) {
+            return new DirectoryDataSource(dataDir, dataPattern, 's', ".meta");
+        }
+        if (dataFile.getName().toLowerCase().endsWith(".csv")) {
+            return new CSVDataSource(dataFile);
+        }
+        return new TableDataSource(dataFile);
+    }
+
+    /**
+     * Close a data source opened by openData()
+     *
+     * @param ds the data source
+     * @throws VEOError if the data source failed to close
+     */
+    private void closeData(DataSource ds) throws VEOError {
+        if (ds instanceof TableDataSource) {
+            ((TableDataSource) ds).close();
+        } else if (ds instanceof CSVDataSource) {
+            ((CSVDataSource) ds).close();
+        }
+    }
+
     /**
      * Build the VEOs. This method processes the data file contained in File
-     * argument, building VEOs from the data and the templates.
+     * argument, building VEOs from the data and the templates. If the name of
+     * the data file ends in '.csv' it is read as comma separated values,
+     * otherwise it is read as tab separated values.
      *
      * @param data file containing the data file
      * @throws VEOError when anything goes wrong...
      */
     public void buildVEOs(File data) throws VEOError {
+        buildVEOs(data, true);
+    }
+
+    /**
+     * Build the VEOs from a data file, optionally without waiting for them to
+     * be published (see {@link #buildVEOs(DataSource, boolean)}).
+     *
+     * @param data file containing the data file
+     * @param flush true if the VEOs are to be published before returning
+     * @throws VEOError when anything goes wrong...
+     */
+    void buildVEOs(File data, boolean flush) throws VEOError {
         TableDataSource tds;
+        CSVDataSource cds;
         String name = "VEOCreator.buildVEOs(): ";
 
         if (data == null) {
             throw new VEOError(name + "Null datafile!");
         }
 
+        if (data.getName().toLowerCase().endsWith(".csv")) {
+            cds = new CSVDataSource(data);
+            try {
+                buildVEOs(cds, flush);
+            } finally {
+                cds.close();
+            }
+            return;
+        }
         tds = new TableDataSource(data);
-        buildVEOs(tds);
-        tds.close();
+        try {
+            buildVEOs(tds, flush);
+        } finally {
+            tds.close();
+        }
     }
 
     /**
@@ -519,11 +1370,31 @@ public class VEOCreator {
     /**
      * Build the VEOs. This method processes a generic data source building VEOs
      * from the data and the templates.
+     * <p>
+     * The rows are consumed in order as each VEO is built, so a data source
+     * that produces its rows incrementally (e.g. a {@link StreamDataSource})
+     * starts generating VEOs as soon as the first complete VEO is available.
      *
      * @param data the data to use when building the VEOs
-     * @throws VEOError when anything goes wrong...
+     * @throws VEOError when anything goes wrong, including the data source
+     * ending early (see {@link DataSource#getError})
      */
     public void buildVEOs(DataSource data) throws VEOError {
+        buildVEOs(data, true);
+    }
+
+    /**
+     * Build the VEOs from a data source, optionally without waiting for them
+     * to be published, moved, and verified. A caller building several data
+     * sources in a batch (e.g. {@link VEOWatcher}) passes false, and calls
+     * {@link #flush} once at the end of the batch.
+     *
+     * @param data the data to use when building the VEOs
+     * @param flush true if the VEOs are to be published before returning
+     * @throws VEOError when anything goes wrong, including the data source
+     * ending early (see {@link DataSource#getError})
+     */
+    void buildVEOs(DataSource data, boolean flush) throws VEOError {
         int seqNo;
         String name = "VEOCreator.buildVEOs(): ";
 
@@ -533,6 +1404,7 @@ public class VEOCreator {
 
         // build VEOs from information in data file
         seqNo = 1;
+        veosBuilt = 0;
         while (!data.isAtEnd()) {
             if (verbose) {
                 System.err.print(System.currentTimeMillis() / 1000 + " ");
@@ -541,23 +1413,68 @@ public class VEOCreator {
             buildNewVEO(seqNo, data);
             seqNo++;
         }
+        if (flush) {
+            flush();
+        }
+
+        // the data source may not have supplied all its rows, leaving VEOs unbuilt
+        if (data.getError() != null) {
+            throw new VEOError(name + "data source did not supply all its rows (" + veosBuilt + " VEO(s) built): " + data.getError().getMessage());
+        }
+    }
+
+    /**
+     * Wait for the VEOs built so far to be published, moved, and verified,
+     * reporting on each.
+     *
+     * @throws VEOError if the VEOs could not be published
+     */
+    void flush() throws VEOError {
+        long failed;
+
+        if (publisher != null) {
+            publisher.flush();
+            System.out.println(publisher.report());
+        }
+        if (mover != null) {
+            mover.drain();
+            System.out.println(mover.report());
+        }
+        if (verifier != null) {
+            failed = verifier.drain();
+            System.out.println(verifier.getNoVerified() + " VEO(s) verified, " + failed + " failed and quarantined");
+        }
     }
 
     /**
      * Build an individual VEO according to the templates and the data...
      */
-    private void buildNewVEO(int seqNo, DataSource tds) throws VEOError {
-        File veo;
+    void buildNewVEO(int seqNo, DataSource tds) throws VEOError {
+        File veo, dir, dest;
+        String veoName;
+        int root;
+        long start;
         String name = "VEOCreator.buildNewVEO(): ";
 
-        // VEO file name is in column 2...
-        if (outputDir == null) {
-            veo = new File(tds.getColumn(2));
+        // VEO file name is in column 2... The VEO is placed in one of the
+        // output directories, and built in the staging directory if staging
+        veoName = tds.getColumn(2) + (gzip ? ".gz" : "");
+        root = -1;
+        dir = outputDir;
+        if (placement != null) {
+            root = placement.choose(veoName);
+            dir = placement.root(root);
+        }
+        if (layout == null) {
+            dest = dir == null ? new File(veoName) : new File(dir, veoName);
+            veo = stageDir == null ? dest : new File(stageDir, veoName);
         } else {
-            veo = new File(outputDir, tds.getColumn(2));
+            dest = layout.place(dir, veoName, stageDir == null && bundleFormat == null && !vg.sizing);
+            veo = stageDir == null ? dest : layout.place(stageDir, veoName, true);
         }
 
         // start VEO
+        start = System.nanoTime();
         vg.startVEO(veo, seqNo, 1);
         try {
             vg.addSignatureBlock(signer, hashAlg);
@@ -654,12 +1571,66 @@ public class VEOCreator {
             // otherwise it's wrong!
         } else {
             System.err.println(name + "Out of sequence table data row. Expecting DS_File or DS_Record, found " + tds.getRowType());
+            tds.getNextRow();
             vg.cleanUpAfterError();
             return;
         }
 
-        // end VEO
-        vg.endVEO();
+        // end VEO. The VEO is queued in its output directory until it has
+        // been published or moved (before endVEO(), as a publisher may
+        // settle it before endVEO() returns), and unqueued if it fails. A
+        // staged VEO that is published is moved once it has been published,
+        // so its output directory (which may change between jobs of a
+        // server) is remembered until then
+        if (placement != null) {
+            placement.queued(dest.getName(), root, dest, vg.bytesOut);
+        }
+        if (mover != null && publisher != null) {
+            stagedFor.put(dest.getName(), dir == null ? new File(".") : dir);
+        }
+        try {
+            vg.endVEO();
+        } catch (VEOError ve) {
+            if (placement != null) {
+                placement.abandoned(dest.getName());
+            }
+            stagedFor.remove(dest.getName());
+            vg.cleanUpAfterError();
+            throw new VEOError(ve.getMessage());
+        }
+        veosBuilt++;
+        if (manifest != null) {
+            manifest.add(dest, layout == null ? null : layout.path(veoName), vg, (System.nanoTime() - start) / 1000000);
+        }
+        if (mover != null && publisher == null) {
+            mover.submit(veo, dir == null ? new File(".") : dir);
+        } else if (verifier != null && publisher == null) {
+            verifier.submit(veo);
+        }
+        if (placement != null && mover == null && publisher == null) {
+            placement.settled(dest.getName());
+        }
+    }
+
+    /**
+     * Get the output directory a staged VEO is to be moved to once it has
+     * been published (the output directory when it was built)
+     *
+     * @param veo the staged VEO
+     * @return the output directory
+     */
+    private File destination(File veo) {
+        File dir;
+        int root;
+
+        dir = stagedFor.remove(veo.getName());
+        if (dir != null) {
+            return dir;
+        }
+        if (placement != null && (root = placement.rootOf(veo.getName())) != -1) {
+            return placement.root(root);
+        }
+        return mover.destDir;
     }
 
     /**
@@ -670,14 +1641,80 @@ public class VEOCreator {
      */
     public static void main(String args[]) {
         VEOCreator vc;
+        VEOWatcher vw;
+        Thread mainThread;
 
         // process datafile
+        vc = null;
         try {
             vc = new VEOCreator(args);
+            if (vc.watchDir != null) {
+                vw = new VEOWatcher(vc, vc.watchDir, vc.quietPeriod);
+
+                // on shutdown, stop the watcher and (if it was running) wait
+                // for the run to finish
+                mainThread = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    if (vw.stop()) {
+                        try {
+                            mainThread.join();
+                        } catch (InterruptedException ie) {
+                            /* ignore */ }
+                    }
+                }));
+                vw.run();
+                return;
+            }
+            if (vc.serverPort != 0) {
+                new VEOServer(vc, vc.serverPort, vc.tokenFile, vc.serverRoot != null ? vc.serverRoot : (vc.outputDir != null ? vc.outputDir : new File("."))).run();
+                return;
+            }
             vc.buildVEOs();
         } catch (VEOError e) {
             System.err.println("Error in constructing VEO (" + e.getMessage() + ")");
+            finish(vc);
             System.exit(-1);
+        } finally {
+            finish(vc);
+        }
+    }
+
+    /**
+     * Finish a run: publish the VEOs completed (even if the run failed), stop
+     * serving metrics, and close the manifest.
+     *
+     * @param vc the creator (may be null)
+     */
+    private static void finish(VEOCreator vc) {
+        VEOMetrics.stopEndpoint();
+        if (vc == null) {
+            return;
+        }
+        if (vc.publisher != null) {
+            try {
+                vc.publisher.close();
+            } catch (VEOError e) {
+                System.err.println("Error publishing VEOs (" + e.getMessage() + ")");
+            }
+        }
+        if (vc.mover != null) {
+            vc.mover.close();
+        }
+        if (vc.output != null) {
+            try {
+                vc.output.close();
+                if (vc.output.report() != null) {
+                    System.out.println(vc.output.report());
+                }
+            } catch (VEOError e) {
+                System.err.println("Error completing output (" + e.getMessage() + ")");
+            }
+        }
+        if (vc.placement != null) {
+            vc.placement.close();
+        }
+        if (vc.manifest != null) {
+            vc.manifest.close();
         }
     }
 }
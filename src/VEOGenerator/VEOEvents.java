@@ -0,0 +1,108 @@
+package VEOGenerator;
+
+/**
+ * *************************************************************
+ *
+ * V E O E V E N T S
+ *
+ * This class emits flight recorder events for the stages of building a VEO.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class emits Java Flight Recorder events as {@link VEOGenerator} builds
+ * each VEO, so that a recording of a production run can be related to the
+ * individual VEOs and the stages of building them. An event is emitted for
+ * startVEO, each signature block, each record, document, encoding, and file,
+ * and each signature calculated and patched into the VEO by endVEO. Each event
+ * carries the name of the VEO, its sequence number, the number of bytes
+ * written to the VEO during the stage, and (for encodings) the path of the
+ * attachment.
+ * <p>
+ * The event classes themselves are in VEOFlightEvents, which is in a separate
+ * source root (src-jfr) as the flight recorder API (jdk.jfr) is not part of
+ * the Java 8 platform; it is only compiled if the JDK building the project
+ * provides the API (see build.xml). VEOFlightEvents is loaded by name, and
+ * only if the JVM provides the API, so the generator builds and runs without
+ * it. If the API is present, but the events are not enabled in the recording
+ * (or no recording is running), each call costs a check of a flag.
+ * <p>
+ * A typical use is
+ * <pre>
+ *    ev = VEOEvents.begin(VEOEvents.RECORD, vg);
+ *    ... build the record ...
+ *    VEOEvents.end(ev, vg, null);
+ * </pre>
+ */
+final class VEOEvents {
+
+    // the stages for which events are emitted
+    static final int START_VEO = 0;
+    static final int SIGNATURE_BLOCK = 1;
+    static final int RECORD = 2;
+    static final int DOCUMENT = 3;
+    static final int ENCODING = 4;
+    static final int FILE = 5;
+    static final int SIGNING = 6;
+    static final int PATCH = 7;
+
+    // records the events (null if the flight recorder is not available)
+    private static final Recorder RECORDER = loadRecorder();
+
+    /**
+     * The interface to the flight recorder events (implemented by
+     * VEOFlightEvents)
+     */
+    interface Recorder {
+
+        Object begin(int stage, long bytesOut);
+
+        void end(Object event, String veo, int seqNo, long bytesOut, String attachment);
+    }
+
+    private VEOEvents() {
+    }
+
+    /**
+     * Load the flight recorder events, if both the flight recorder API and
+     * the event classes are present
+     */
+    private static Recorder loadRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("VEOGenerator.VEOFlightEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Start timing a stage.
+     *
+     * @param stage the stage (e.g. RECORD)
+     * @param vg the generator building the VEO
+     * @return the event, or null if events are not being recorded
+     */
+    static Object begin(int stage, VEOGenerator vg) {
+        if (RECORDER == null) {
+            return null;
+        }
+        return RECORDER.begin(stage, vg.bytesOut);
+    }
+
+    /**
+     * Finish timing a stage, and emit the event.
+     *
+     * @param event the event returned by begin() (may be null)
+     * @param vg the generator building the VEO
+     * @param attachment the path of the attachment processed (may be null)
+     */
+    static void end(Object event, VEOGenerator vg, String attachment) {
+        if (event == null) {
+            return;
+        }
+        RECORDER.end(event, vg.veoName, vg.seqNo, vg.bytesOut, attachment);
+    }
+}
@@ -22,11 +22,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.security.PrivateKey;
@@ -35,6 +41,7 @@ import java.security.SignatureException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * This class generates a VEO using a set of XML templates and datafiles. VEOs
@@ -141,6 +148,22 @@ public class VEOGenerator {
     int revisionId;		// current revision number
     int documentId;		// current document number
     int encodingId;		// current encoding number
+    String veoName;		// name of the VEO file being written
+    long bytesOut;		// bytes written to the current VEO
+    Object recordEvent;	// flight recorder event for the current record
+    Object documentEvent;	// flight recorder event for the current document
+    File veoFile;		// the VEO file being written
+    File veoTarget;		// the final name of the VEO (differs from veoFile if publishing)
+    VEOPublisher publisher;	// publishes completed VEOs (null if written in place)
+    VEOOutput output;	// engine writing the VEOs (null if plain files)
+    long sizeHint;		// expected size of the next VEO (0 if unknown)
+    boolean digesting;	// true if computing digests of VEOs and attachments
+    boolean sizing;	// true if only the size of the VEOs is wanted
+    String veoDigest;	// SHA-256 of the last completed VEO (hex)
+    long veoSize;		// size of the last completed VEO
+    ArrayList<String> attachments;	// files included in the current VEO
+    ArrayList<Long> attachmentSizes;	// sizes of the included files
+    ArrayList<String> attachmentDigests;	// SHA-256 of the included files (hex)
 
     int state;		// which components have been generated
     int NOT_STARTED = 0;	// no VEOs have been started
@@ -216,6 +239,9 @@ public class VEOGenerator {
         }
         veo = null;
         fos = null;
+        output = null;
+        sizeHint = 0;
+        sizing = false;
         signing = false;
         sigId = 1;
         signatures = new ArrayList<>();
@@ -296,6 +322,26 @@ public class VEOGenerator {
         }
     }
 
+    /**
+     * Construct a VEOGenerator instance from encoding templates that have
+     * already been parsed (e.g. loaded from a {@link TemplateSnapshot}). The
+     * key of the map is the file extension the template applies to (e.g.
+     * 'pdf'), and the map must contain the key 'unknown'.
+     *
+     * @param encTemplates the parsed encoding templates
+     * @throws VEOError	If a fatal error occurs
+     */
+    public VEOGenerator(HashMap<String, Fragment> encTemplates) throws VEOError {
+        this();
+
+        String name = "VEOGenerator(): ";
+
+        if (encTemplates == null) {
+            throw new VEOError(name + "encoding templates are null");
+        }
+        this.encTemplates = encTemplates;
+    }
+
     /**
      * Construct a VEOGenerator instance without specifying a file encoding
      * directory. Must only be used with includeSignedObject()
@@ -313,6 +359,9 @@ public class VEOGenerator {
         }
         veo = null;
         fos = null;
+        output = null;
+        sizeHint = 0;
+        sizing = false;
         signing = false;
         sigId = 1;
         signatures = new ArrayList<>();
@@ -380,6 +429,7 @@ public class VEOGenerator {
      */
     public void startVEO(File veofile, int seqNo, int revisionId) throws VEOError {
         String name = "VEOGenerator.startVEO(): ";
+        Object ev;
 
         // sanity check
         if (state != NOT_STARTED && state != VEO_ENDED) {
@@ -393,6 +443,18 @@ public class VEOGenerator {
 
         this.seqNo = seqNo;
         this.revisionId = revisionId;
+        veoTarget = veofile;
+        veoFile = publisher == null ? veofile : publisher.tempFile(veofile);
+        veoName = veofile.getName();
+        bytesOut = 0;
+        veoDigest = null;
+        veoSize = 0;
+        attachments = new ArrayList<>();
+        attachmentSizes = new ArrayList<>();
+        attachmentDigests = new ArrayList<>();
+        recordEvent = null;
+        documentEvent = null;
+        ev = VEOEvents.begin(VEOEvents.START_VEO, this);
         signing = false;
         sigId = 1;
         signatures = new ArrayList<>();
@@ -400,17 +462,29 @@ public class VEOGenerator {
         signsSigBlock = 0;
 
         // open veoName for writing
-        try {
-            fos = new FileOutputStream(veofile);
-        } catch (FileNotFoundException fnfe) {
-            throw new VEOError("Output VEO file '" + veofile.getName() + "' cannot be opened for writing");
+        if (output == null) {
+            try {
+                fos = new FileOutputStream(veoFile);
+            } catch (FileNotFoundException fnfe) {
+                throw new VEOError("Output VEO file '" + veofile.getName() + "' cannot be opened for writing");
+            }
+            veo = fos.getChannel();
+        } else {
+            fos = null;
+            try {
+                veo = output.open(veoFile, sizeHint);
+            } catch (IOException ioe) {
+                throw new VEOError("Output VEO file '" + veofile.getName() + "' cannot be opened for writing: " + ioe.getMessage());
+            }
         }
-        veo = fos.getChannel();
+        sizeHint = 0;
 
         // generate start of XML file up to vers:Signature
         outputDataToVeo(cs.encode(contentsVEO1));
 
         state = VEO_STARTED;
+        VEOMetrics.veosStarted.increment();
+        VEOEvents.end(ev, this, null);
 
         // use the following when it is necessary to output the byte stream
         // being signed
@@ -438,12 +512,28 @@ public class VEOGenerator {
      * and it is desired to call startVEO again.
      */
     public void cleanUpAfterError() {
+        boolean abandoned;
+
+        abandoned = state != NOT_STARTED && state != VEO_ENDED;
+        if (abandoned) {
+            VEOMetrics.veosFailed.increment();
+        }
         state = NOT_STARTED;
+        if (abandoned && output != null) {
+            output.abandon(veo);
+        }
         try {
             veo.close();
-            fos.close();
+            if (fos != null) {
+                fos.close();
+            }
         } catch (IOException ioe) {
             /* ignore */ }
+
+        // an abandoned VEO is never published
+        if (abandoned && publisher != null) {
+            publisher.discard(veoFile);
+        }
     }
 
     /**
@@ -483,6 +573,8 @@ public class VEOGenerator {
         byte b;
         Signature sig;
         byte[] signature;
+        long signTime, patchTime, t;
+        Object ev;
 
         // sanity check
         if (veo == null) {
@@ -496,7 +588,6 @@ public class VEOGenerator {
             throw new VEOError(name
                     + "endVEO() has already been called on this VEO");
         }
-        state = VEO_ENDED;
 
         // use the following when it is necessary to output the byte stream being signed
         /*
@@ -513,18 +604,26 @@ public class VEOGenerator {
         outputDataToVeo(cs.encode(contentsVEO2));
 
         // finalise signatures and place them in signature blocks
+        signTime = 0;
+        patchTime = 0;
         for (i = 0; i < signatures.size(); i++) {
             sig = signatures.get(i);
 
             // calculate signature and convert it into a byte buffer
+            t = System.nanoTime();
+            ev = VEOEvents.begin(VEOEvents.SIGNING, this);
             try {
                 signature = sig.sign();
             } catch (SignatureException e) {
                 throw new VEOError(name + e.getMessage());
             }
+            VEOEvents.end(ev, this, null);
+            signTime += System.nanoTime() - t;
             bb = b64.toBase64(signature);
 
             // position write position in VEO file & write signature
+            t = System.nanoTime();
+            ev = VEOEvents.begin(VEOEvents.PATCH, this);
             try {
                 veo.position(position.get(i));
             } catch (IOException ioe) {
@@ -533,6 +632,8 @@ public class VEOGenerator {
                         + ioe.getMessage());
             }
             outputDataToVeo(bb);
+            VEOEvents.end(ev, this, null);
+            patchTime += System.nanoTime() - t;
 
             // is this the signature we will calculate lock signature on?
             if (signsSigBlock == i + 1) {
@@ -550,14 +651,20 @@ public class VEOGenerator {
                 }
 
                 // calculate signature and convert it into a byte buffer
+                t = System.nanoTime();
+                ev = VEOEvents.begin(VEOEvents.SIGNING, this);
                 try {
                     signature = lockSig.sign();
                 } catch (SignatureException e) {
                     throw new VEOError(name + e.getMessage());
                 }
+                VEOEvents.end(ev, this, null);
+                signTime += System.nanoTime() - t;
                 bb = b64.toBase64(signature);
 
                 // position write position in VEO file & write signature
+                t = System.nanoTime();
+                ev = VEOEvents.begin(VEOEvents.PATCH, this);
                 try {
                     veo.position(locksigPosn);
                 } catch (IOException ioe) {
@@ -566,15 +673,81 @@ public class VEOGenerator {
                             + ioe.getMessage());
                 }
                 outputDataToVeo(bb);
+                VEOEvents.end(ev, this, null);
+                patchTime += System.nanoTime() - t;
             }
         }
+        VEOMetrics.signing.record(signTime);
+        VEOMetrics.patch.record(patchTime);
 
-        // close veo
+        // close veo. An output engine may do work on closing (e.g. adding
+        // the VEO to a bundle), and a VEO that is to be digested or published
+        // may have been truncated, so in these cases failure matters. The
+        // temporary file of a VEO that was to be published is discarded
         try {
             veo.close();
-            fos.close();
+            if (fos != null) {
+                fos.close();
+            }
         } catch (IOException ioe) {
-            /* ignore */ }
+            if (output != null || publisher != null || digesting) {
+                if (publisher != null) {
+                    publisher.discard(veoFile);
+                }
+                throw new VEOError(name + "failed completing VEO '" + veoTarget + "': " + ioe.getMessage());
+            }
+        }
+
+        // digest the completed VEO. As the signatures have just been written
+        // into the start of the VEO, the VEO has to be read back; it will
+        // still be in the operating system's cache
+        if (digesting) {
+            digestVEO();
+        }
+
+        // give the completed VEO its final name
+        if (publisher != null) {
+            publisher.publish(veoFile, veoTarget);
+        }
+
+        // the VEO is only ended once all of this has succeeded; until then,
+        // cleanUpAfterError() abandons it (e.g. discarding the temporary file)
+        state = VEO_ENDED;
+        VEOMetrics.veosCompleted.increment();
+    }
+
+    /**
+     * Calculate the SHA-256 digest and size of the completed VEO
+     *
+     * @throws VEOError if the VEO could not be read back
+     */
+    private void digestVEO() throws VEOError {
+        String name = "VEOGenerator.digestVEO(): ";
+        MessageDigest md;
+        ByteBuffer bb;
+        long posn;
+        int n;
+
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new VEOError(name + "SHA-256 not available: " + nsae.getMessage());
+        }
+        bb = ByteBuffer.allocate(65536);
+        posn = 0;
+        try (ReadableByteChannel ch = output == null
+                ? FileChannel.open(veoFile.toPath(), StandardOpenOption.READ) : output.readBack(veoFile)) {
+            while ((n = ch.read(bb)) > 0) {
+                bb.flip();
+                md.update(bb);
+                bb.clear();
+                posn += n;
+            }
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed reading back VEO '" + veoFile + "': " + ioe.getMessage());
+        }
+        veoSize = posn;
+        veoDigest = VEOManifest.toHex(md.digest());
     }
 
     /**
@@ -624,6 +797,7 @@ public class VEOGenerator {
     public void addSignatureBlock(PFXUser signer, String hashAlg)
             throws VEOError {
         String name = "VEOGenerator.addSignatureBlock(): ";
+        Object ev;
         Long posn;
         Signature sig;
         PrivateKey priKey;
@@ -667,6 +841,7 @@ public class VEOGenerator {
         }
         algorithmId = hashAlg + "with" + priKey.getAlgorithm();
 
+        ev = VEOEvents.begin(VEOEvents.SIGNATURE_BLOCK, this);
         outputDataToVeo(cs.encode(contentsSig1a));
         outputDataToVeo(cs.encode(Integer.toString(revisionId)));
         outputDataToVeo(cs.encode(contentsSig2));
@@ -675,6 +850,7 @@ public class VEOGenerator {
         outputDataToVeo(cs.encode(contentsSig3));
         posn = produceSignatureBlock(algorithmId, signer, false, name);
         outputDataToVeo(cs.encode(contentsSig15a));
+        VEOEvents.end(ev, this, null);
 
         // remember position of signature in file
         position.add(posn);
@@ -743,6 +919,7 @@ public class VEOGenerator {
     public void addLockSignatureBlock(int id, PFXUser signer, String hashAlg)
             throws VEOError {
         String name = "VEOGenerator.addLockSignatureBlock(): ";
+        Object ev;
         PrivateKey priKey;
         String algorithmId;
 
@@ -800,6 +977,7 @@ public class VEOGenerator {
         algorithmId = hashAlg + "with" + priKey.getAlgorithm();
 
         // generate lock signature block
+        ev = VEOEvents.begin(VEOEvents.SIGNATURE_BLOCK, this);
         outputDataToVeo(cs.encode(contentsSig1b));
         outputDataToVeo(cs.encode(Integer.toString(revisionId))); // revision
         outputDataToVeo(cs.encode(contentsSig2));
@@ -807,6 +985,16 @@ public class VEOGenerator {
         outputDataToVeo(cs.encode(contentsSig3));
         locksigPosn = produceSignatureBlock(algorithmId, signer, true, name);
         outputDataToVeo(cs.encode(contentsSig15b));
+        VEOEvents.end(ev, this, null);
+
+        // all the signature placeholders have now been written
+        if (output != null) {
+            try {
+                output.signatureBlocksWritten(veo);
+            } catch (IOException ioe) {
+                throw new VEOError(name + "failed writing to veo " + ioe.getMessage());
+            }
+        }
 
         // initialise signature calculation
         try {
@@ -1061,6 +1249,9 @@ public class VEOGenerator {
      * This method includes a signed object into the VEO verbatim. It must be
      * called after addLockSignatureBlock() and before startRecord() or
      * startFile().
+     * <p>
+     * The stream is read, written, and signed in blocks (see
+     * {@link #includeSignedObject(ReadableByteChannel)}).
      *
      * @param is the file to include
      * @throws VEOError if a fatal error occurs
@@ -1068,9 +1259,181 @@ public class VEOGenerator {
     public void includeSignedObject(InputStream is)
             throws VEOError {
         String name = "VEOGenerator.includeContent(): ";
-        byte[] bin;
 
-        // sanity checks
+        if (is == null) {
+            throw new VEOError(name + "file is null");
+        }
+        includeSignedObject(Channels.newChannel(is));
+    }
+
+    /**
+     * This method includes a signed object held in a file into the VEO
+     * verbatim. It must be called after addLockSignatureBlock() and before
+     * startRecord() or startFile().
+     * <p>
+     * The file is copied as described in
+     * {@link #includeSignedObject(FileChannel, long, long)}.
+     *
+     * @param file the file to include
+     * @throws VEOError if a fatal error occurs
+     */
+    public void includeSignedObject(Path file)
+            throws VEOError {
+        String name = "VEOGenerator.includeSignedObject(): ";
+
+        if (file == null) {
+            throw new VEOError(name + "file is null");
+        }
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            includeSignedObject(fc, 0, fc.size());
+        } catch (IOException ioe) {
+            throw new VEOError(name + "Error reading input file '" + file + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * This method includes a signed object read from a channel into the VEO
+     * verbatim. It must be called after addLockSignatureBlock() and before
+     * startRecord() or startFile().
+     * <p>
+     * The channel is read in 64KB blocks. Each block is written to the VEO
+     * with a single write, and passed to the signatures with a single update
+     * (after removing the whitespace).
+     *
+     * @param ch the channel to read the signed object from (read until end of
+     * stream)
+     * @throws VEOError if a fatal error occurs
+     */
+    public void includeSignedObject(ReadableByteChannel ch)
+            throws VEOError {
+        String name = "VEOGenerator.includeSignedObject(): ";
+        ByteBuffer bb;
+        byte[] block;
+        int n;
+
+        checkIncludeSignedObject(ch, name);
+        block = new byte[VEOVerifier.BLOCK];
+        bb = ByteBuffer.wrap(block);
+        try {
+            while (ch.read(bb) != -1) {
+                if (bb.position() < block.length) {
+                    continue;
+                }
+                bb.flip();
+                n = bb.remaining();
+                writeFully(bb);
+                digestBlock(block, n);
+                bb.clear();
+            }
+            bb.flip();
+            n = bb.remaining();
+            writeFully(bb);
+            digestBlock(block, n);
+        } catch (IOException ioe) {
+            throw new VEOError(name + "Error reading input file: " + ioe.getMessage());
+        } catch (SignatureException se) {
+            throw new VEOError(name + "failed updating signature" + se.getMessage());
+        }
+        state = REC_ENDED;
+    }
+
+    /**
+     * This method includes a signed object held in a buffer into the VEO
+     * verbatim. It must be called after addLockSignatureBlock() and before
+     * startRecord() or startFile().
+     * <p>
+     * The bytes between the position and limit of the buffer are written in
+     * 64KB blocks, and each block passed to the signatures with a single
+     * update (after removing the whitespace). The buffer may be direct or
+     * memory mapped. The position of the buffer is advanced to its limit.
+     *
+     * @param buffer the buffer containing the signed object
+     * @throws VEOError if a fatal error occurs
+     */
+    public void includeSignedObject(ByteBuffer buffer)
+            throws VEOError {
+        String name = "VEOGenerator.includeSignedObject(): ";
+        ByteBuffer bb;
+        byte[] block;
+        int n;
+
+        checkIncludeSignedObject(buffer, name);
+        block = new byte[VEOVerifier.BLOCK];
+        try {
+            while (buffer.hasRemaining()) {
+                n = Math.min(block.length, buffer.remaining());
+                bb = buffer.slice();
+                bb.limit(n);
+                bb.get(block, 0, n);
+                bb.rewind();
+                writeFully(bb);
+                digestBlock(block, n);
+                buffer.position(buffer.position() + n);
+            }
+        } catch (IOException ioe) {
+            throw new VEOError(name + "Error writing to veo: " + ioe.getMessage());
+        } catch (SignatureException se) {
+            throw new VEOError(name + "failed updating signature" + se.getMessage());
+        }
+        state = REC_ENDED;
+    }
+
+    /**
+     * This method includes a signed object held in a region of a file into the
+     * VEO verbatim. It must be called after addLockSignatureBlock() and before
+     * startRecord() or startFile().
+     * <p>
+     * The region is memory mapped a window at a time and passed to the
+     * signatures in 64KB blocks (with the whitespace removed), and then copied
+     * into the VEO with FileChannel.transferTo(), which avoids copying the
+     * bytes through the Java heap.
+     *
+     * @param src the file containing the signed object
+     * @param posn the position of the signed object in the file
+     * @param count the length of the signed object
+     * @throws VEOError if a fatal error occurs
+     */
+    public void includeSignedObject(FileChannel src, long posn, long count)
+            throws VEOError {
+        String name = "VEOGenerator.includeSignedObject(): ";
+        MappedByteBuffer mbb;
+        byte[] block;
+        long done, len;
+        int n;
+
+        checkIncludeSignedObject(src, name);
+        block = new byte[VEOVerifier.BLOCK];
+        try {
+            for (done = 0; done < count; done += len) {
+                len = Math.min(VEOVerifier.WINDOW, count - done);
+
+                // pass the window to the signatures, removing whitespace
+                mbb = src.map(FileChannel.MapMode.READ_ONLY, posn + done, len);
+                while (mbb.hasRemaining()) {
+                    n = Math.min(block.length, mbb.remaining());
+                    mbb.get(block, 0, n);
+                    digestBlock(block, n);
+                }
+
+                // copy the window to the VEO
+                transfer(src, posn + done, len);
+            }
+        } catch (IOException ioe) {
+            throw new VEOError(name + "Error reading input file: " + ioe.getMessage());
+        } catch (SignatureException se) {
+            throw new VEOError(name + "failed updating signature" + se.getMessage());
+        }
+        state = REC_ENDED;
+    }
+
+    /**
+     * Check that a signed object can be included in the VEO
+     *
+     * @param src the source of the signed object
+     * @param name the name of the calling method (for errors)
+     * @throws VEOError if the signed object cannot be included
+     */
+    private void checkIncludeSignedObject(Object src, String name) throws VEOError {
         if (veo == null) {
             throw new VEOError(name + "VEO has not been started");
         }
@@ -1082,21 +1445,69 @@ public class VEOGenerator {
             throw new VEOError(name
                     + "startRecord() or startFile() has already been called on this VEO");
         }
-        if (is == null) {
+        if (src == null) {
             throw new VEOError(name + "file is null");
         }
+    }
 
-        signing = true;
-        try {
-            bin = new byte[1];
-            while (is.read(bin) != -1) {
-                outputDataToVeo(bin);
+    /**
+     * Pass a block of bytes to the signatures, removing the whitespace. The
+     * block is modified.
+     *
+     * @param block the bytes
+     * @param len the number of bytes in the block
+     * @throws SignatureException if a signature could not be updated
+     */
+    private void digestBlock(byte[] block, int len) throws SignatureException {
+        int i, n;
+
+        n = VEOVerifier.stripWhitespace(block, len);
+        for (i = 0; i < signatures.size(); i++) {
+            signatures.get(i).update(block, 0, n);
+            VEOMetrics.digested(signatures.get(i).getAlgorithm(), n);
+        }
+    }
+
+    /**
+     * Write all of a buffer to the end of the VEO
+     *
+     * @param bb the buffer
+     * @throws IOException if the write failed
+     */
+    private void writeFully(ByteBuffer bb) throws IOException {
+        int n;
+
+        n = bb.remaining();
+        while (bb.hasRemaining()) {
+            veo.write(bb);
+        }
+        bytesOut += n;
+        VEOMetrics.bytesWritten.add(n);
+        VEOMetrics.writeCalls.increment();
+    }
+
+    /**
+     * Copy a region of a file to the end of the VEO
+     *
+     * @param src the file
+     * @param posn the start of the region
+     * @param count the length of the region
+     * @throws IOException if the copy failed
+     */
+    private void transfer(FileChannel src, long posn, long count) throws IOException {
+        long n;
+
+        while (count > 0) {
+            n = src.transferTo(posn, count, veo);
+            if (n <= 0) {
+                throw new IOException("transfer made no progress");
             }
-        } catch (IOException ioe) {
-            throw new VEOError(name + "Error reading input file: " + ioe.getMessage());
+            posn += n;
+            count -= n;
+            bytesOut += n;
+            VEOMetrics.bytesWritten.add(n);
+            VEOMetrics.writeCalls.increment();
         }
-        state = REC_ENDED;
-        signing = false;
     }
 
     /**
@@ -1152,6 +1563,7 @@ public class VEOGenerator {
     public void startRecord(Fragment template, DataSource data)
             throws VEOError {
         String name = "VEOGenerator.startRecord(): ";
+        long t;
 
         // sanity checks
         if (veo == null) {
@@ -1172,6 +1584,7 @@ public class VEOGenerator {
             throw new VEOError(name + "data is null");
         }
         state = REC_STARTED;
+        recordEvent = VEOEvents.begin(VEOEvents.RECORD, this);
 
         // First document will be 1...
         documentId = 1;
@@ -1182,7 +1595,9 @@ public class VEOGenerator {
         outputDataToVeo(cs.encode(contentsRecVEO1b));
 
         // build record metadata from template and data
+        t = System.nanoTime();
         template.finalise(data, this);
+        VEOMetrics.render.record(System.nanoTime() - t);
     }
 
     /**
@@ -1232,6 +1647,8 @@ public class VEOGenerator {
 
         outputDataToVeo(cs.encode(contentsRecVEO2));
         signing = false;
+        VEOEvents.end(recordEvent, this, null);
+        recordEvent = null;
     }
 
     /**
@@ -1281,6 +1698,7 @@ public class VEOGenerator {
     public void startDocument(Fragment template, DataSource data)
             throws VEOError {
         String name = "VEOGenerator.startDocument(): ";
+        long t;
 
         // sanity checks
         if (veo == null) {
@@ -1305,6 +1723,7 @@ public class VEOGenerator {
             throw new VEOError(name + "data is null");
         }
         state = DOC_STARTED;
+        documentEvent = VEOEvents.begin(VEOEvents.DOCUMENT, this);
 
         outputDataToVeo(cs.encode(contentsRecDocVEO1a));
         outputDataToVeo(cs.encode(Integer.toString(revisionId)));
@@ -1313,7 +1732,9 @@ public class VEOGenerator {
         outputDataToVeo(cs.encode(contentsRecDocVEO1c));
 
         // build record metadata from template and data
+        t = System.nanoTime();
         template.finalise(data, this);
+        VEOMetrics.render.record(System.nanoTime() - t);
 
         outputDataToVeo(cs.encode(contentsRecDocVEO2));
 
@@ -1366,6 +1787,8 @@ public class VEOGenerator {
         }
         state = DOC_ENDED;
         outputDataToVeo(cs.encode(contentsRecDocVEO3));
+        VEOEvents.end(documentEvent, this, null);
+        documentEvent = null;
 
         documentId++;
     }
@@ -1525,6 +1948,8 @@ public class VEOGenerator {
         EncodingFragment ef;
         String s[] = new String[4];
         String name = "VEOGenerator.addSimpleRecord(): ";
+        long t;
+        Object recEv, docEv;
 
         // sanity checks
         if (veo == null) {
@@ -1559,14 +1984,18 @@ public class VEOGenerator {
         signing = true;
 
         // start record
+        recEv = VEOEvents.begin(VEOEvents.RECORD, this);
         outputDataToVeo(cs.encode(contentsRecVEO1a));
         outputDataToVeo(cs.encode(new DateFragment(name).versDateTime(0)));
         outputDataToVeo(cs.encode(contentsRecVEO1b));
 
         // build record metadata from template and data
+        t = System.nanoTime();
         recTemplate.finalise(data, this);
+        VEOMetrics.render.record(System.nanoTime() - t);
 
         // start document
+        docEv = VEOEvents.begin(VEOEvents.DOCUMENT, this);
         outputDataToVeo(cs.encode(contentsRecDocVEO1a));
         outputDataToVeo(cs.encode("1"));
         outputDataToVeo(cs.encode(contentsRecDocVEO1b));
@@ -1574,7 +2003,9 @@ public class VEOGenerator {
         outputDataToVeo(cs.encode(contentsRecDocVEO1c));
 
         // build record metadata from template and data
+        t = System.nanoTime();
         docTemplate.finalise(data, this);
+        VEOMetrics.render.record(System.nanoTime() - t);
 
         // transition from doc to encoding
         outputDataToVeo(cs.encode(contentsRecDocVEO2));
@@ -1608,9 +2039,11 @@ public class VEOGenerator {
 
         // end document
         outputDataToVeo(cs.encode(contentsRecDocVEO3));
+        VEOEvents.end(docEv, this, null);
 
         // end record
         outputDataToVeo(cs.encode(contentsRecVEO2));
+        VEOEvents.end(recEv, this, null);
 
         signing = false;
         state = REC_ENDED;
@@ -1672,6 +2105,8 @@ public class VEOGenerator {
     public void addFile(Fragment template, DataSource data)
             throws VEOError {
         String name = "VEOGenerator.addFile(): ";
+        long t;
+        Object ev;
 
         // sanity checks
         if (veo == null) {
@@ -1701,16 +2136,20 @@ public class VEOGenerator {
         }
         state = FILE_ENDED;
 
+        ev = VEOEvents.begin(VEOEvents.FILE, this);
         signing = true;
         outputDataToVeo(cs.encode(contentsFileVEO1a));
         outputDataToVeo(cs.encode(new DateFragment(name).versDateTime(0)));
         outputDataToVeo(cs.encode(contentsFileVEO1b));
 
         // build record metadata from template and data
+        t = System.nanoTime();
         template.finalise(data, this);
+        VEOMetrics.render.record(System.nanoTime() - t);
 
         outputDataToVeo(cs.encode(contentsFileVEO2));
         signing = false;
+        VEOEvents.end(ev, this, null);
     }
 
     /**
@@ -1767,13 +2206,16 @@ public class VEOGenerator {
     public void outputDataToVeo(byte[] b)
             throws VEOError {
         String name = "Fragment.outputDataToVeo(): ";
-        int i, j;
+        int i, j, n;
         Signature s;
 
         try {
 
             // write data to VEO
             veo.write(ByteBuffer.wrap(b));
+            bytesOut += b.length;
+            VEOMetrics.bytesWritten.add(b.length);
+            VEOMetrics.writeCalls.increment();
 
             // write data to the signature calculations (if calculating signatures)
             // note that tabs, line feeds, carriage returns & spaces must be
@@ -1781,12 +2223,14 @@ public class VEOGenerator {
             if (signing) {
                 for (i = 0; i < signatures.size(); i++) {
                     s = signatures.get(i);
+                    n = 0;
                     for (j = 0; j < b.length; j++) {
                         if (b[j] == 0x09 || b[j] == 0x0a
                                 || b[j] == 0x0d || b[j] == 0x20) {
                             continue;
                         }
                         s.update(b[j]);
+                        n++;
                         // use the following when it is necessary to output the
                         // byte stream being signed
                         /*
@@ -1797,6 +2241,7 @@ public class VEOGenerator {
                         }
                          */
                     }
+                    VEOMetrics.digested(s.getAlgorithm(), n);
                 }
             }
 
@@ -1835,12 +2280,15 @@ public class VEOGenerator {
             throws VEOError {
         String name = "Fragment.outputDataToVeo(): ";
         byte b;
-        int i, j;
+        int i, j, n;
         Signature s;
 
         try {
 
             // write data to VEO
+            bytesOut += bb.remaining();
+            VEOMetrics.bytesWritten.add(bb.remaining());
+            VEOMetrics.writeCalls.increment();
             veo.write(bb);
 
             // write data to the signature calculations (if calculating signatures)
@@ -1849,6 +2297,7 @@ public class VEOGenerator {
             if (signing) {
                 for (i = 0; i < signatures.size(); i++) {
                     s = signatures.get(i);
+                    n = 0;
                     for (j = 0; j < bb.limit(); j++) {
                         b = bb.get(j);
                         if (b == 0x09 || b == 0x0a
@@ -1856,6 +2305,7 @@ public class VEOGenerator {
                             continue;
                         }
                         s.update(b);
+                        n++;
                         // code to capture byte stream
                         /*
                         if (i == 0) {
@@ -1863,6 +2313,7 @@ public class VEOGenerator {
                         }
                          */
                     }
+                    VEOMetrics.digested(s.getAlgorithm(), n);
                 }
             }
 
@@ -1909,6 +2360,151 @@ public class VEOGenerator {
         return seqNo;
     }
 
+    /**
+     * Set whether SHA-256 digests of the VEOs, and of the files included in
+     * them, are to be calculated (see {@link VEOManifest}). By default they are
+     * not.
+     *
+     * @param digesting true if the digests are to be calculated
+     */
+    public void setDigesting(boolean digesting) {
+        this.digesting = digesting;
+    }
+
+    /**
+     * Set whether only the size of the VEOs is wanted (see
+     * {@link SizingVEOOutput}). If set, the Base64 encodings of binary files
+     * are not generated: the position in the VEO is simply moved on by their
+     * length, so the output engine must discard the VEOs (and the signatures
+     * are not valid). By default, this is not set.
+     *
+     * @param sizing true if only the size of the VEOs is wanted
+     */
+    public void setSizing(boolean sizing) {
+        this.sizing = sizing;
+    }
+
+    /**
+     * Skip over data in the VEO being sized without generating it (see
+     * {@link #setSizing}). The data is not included in the signatures.
+     * <p>
+     * <i>This method should not be called by programs constructing VEOs. It is
+     * provided for use by the other classes in this package</i>
+     *
+     * @param length the number of bytes to skip
+     * @throws VEOError if not sizing, or the VEO could not be positioned
+     */
+    public void skipOutput(long length) throws VEOError {
+        String name = "VEOGenerator.skipOutput(): ";
+
+        if (!sizing) {
+            throw new VEOError(name + "output can only be skipped when sizing VEOs");
+        }
+        try {
+            veo.position(veo.position() + length);
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed positioning in veo " + ioe.getMessage());
+        }
+        bytesOut += length;
+    }
+
+    /**
+     * Set the engine used to write the VEOs (see {@link VEOOutput}). If null
+     * (the default), each VEO is written through an ordinary file channel.
+     *
+     * @param output the output engine
+     */
+    public void setOutput(VEOOutput output) {
+        this.output = output;
+    }
+
+    /**
+     * Give the expected size of the next VEO to be started. Output engines that
+     * preallocate the VEO use this; it is cleared by startVEO().
+     *
+     * @param sizeHint the expected size in bytes (0 if unknown)
+     */
+    public void setSizeHint(long sizeHint) {
+        this.sizeHint = sizeHint;
+    }
+
+    /**
+     * Set the publisher used to give completed VEOs their final names. If a
+     * publisher is set, each VEO is written to a temporary file and only
+     * renamed to the name passed to startVEO() when it is complete (see
+     * {@link VEOPublisher}). By default, VEOs are written in place.
+     *
+     * @param publisher the publisher (null to write VEOs in place)
+     */
+    public void setPublisher(VEOPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Gets the SHA-256 digest of the last VEO completed (as lower case hex).
+     *
+     * @return the digest, or null if digesting was not set
+     */
+    public String getVEODigest() {
+        return veoDigest;
+    }
+
+    /**
+     * Gets the size of the last VEO completed (if digesting was set).
+     *
+     * @return the size in bytes
+     */
+    public long getVEOSize() {
+        return veoSize;
+    }
+
+    /**
+     * Gets the paths of the files included in the current (or last) VEO (if
+     * digesting was set).
+     *
+     * @return the paths
+     */
+    public List<String> getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * Gets the sizes of the files included in the current (or last) VEO. The
+     * sizes are in the same order as the paths returned by getAttachments().
+     *
+     * @return the sizes
+     */
+    public List<Long> getAttachmentSizes() {
+        return attachmentSizes;
+    }
+
+    /**
+     * Gets the SHA-256 digests (as lower case hex) of the files included in the
+     * current (or last) VEO. The digests are in the same order as the paths
+     * returned by getAttachments().
+     *
+     * @return the digests
+     */
+    public List<String> getAttachmentDigests() {
+        return attachmentDigests;
+    }
+
+    /**
+     * Record the digest of a file included in the current VEO.
+     * <p>
+     * <i>This method should not be called by programs constructing VEOs. It is
+     * provided for use by the other classes in this package</i>
+     *
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param digest the SHA-256 digest of the file
+     */
+    void addAttachmentDigest(String path, long size, byte[] digest) {
+        attachments.add(path);
+        attachmentSizes.add(size);
+        attachmentDigests.add(VEOManifest.toHex(digest));
+    }
+
     /**
      * Test main program
      *
@@ -0,0 +1,205 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * *************************************************************
+ *
+ * V E O L A Y O U T
+ *
+ * This class places VEOs in nested subdirectories of an output directory.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class spreads the VEOs in an output directory across nested
+ * subdirectories, so that no directory holds more than a manageable number of
+ * entries however many VEOs are produced. The subdirectories for a VEO are
+ * derived from its name, so a consumer can find a VEO from its name alone:
+ * <ul>
+ * <li>HASH - the SHA-256 digest of the VEO name (in UTF-8) is taken as an
+ * unsigned big endian number (the first eight bytes), and each level is the
+ * next digit of this number in base fan-out (least significant first),
+ * written in lower case hexadecimal zero padded to the width of fan-out - 1.
+ * For example, with a depth of 2 and a fan-out of 256, 'V0000001.veo' is
+ * placed in 'd0/8f/V0000001.veo'.</li>
+ * <li>PREFIX - each level is the next fan-out characters of the VEO name (so
+ * with a depth of 2 and a fan-out of 3, 'V0000001.veo' is placed in
+ * 'V00/000/V0000001.veo'). If the name is too short, the missing characters
+ * are written as '_'.</li>
+ * </ul>
+ * The directories are created as they are first needed; the directories
+ * known to exist are remembered, so each is only checked (or created) once.
+ */
+public class VEOLayout {
+
+    int scheme;             // HASH or PREFIX
+    int depth;              // number of levels of subdirectory
+    int fanout;             // subdirectories per level (or characters per level)
+    int width;              // width of a subdirectory name (HASH)
+    Set<String> created;    // directories known to exist
+
+    public static final int HASH = 1;
+    public static final int PREFIX = 2;
+
+    /**
+     * Construct a layout.
+     *
+     * @param scheme HASH or PREFIX
+     * @param depth the number of levels of subdirectories (1-8)
+     * @param fanout the number of subdirectories per level (2-65536) for
+     * HASH, or the number of characters of the name per level for PREFIX
+     * @throws VEOError if the parameters are invalid
+     */
+    public VEOLayout(int scheme, int depth, int fanout) throws VEOError {
+        String name = "VEOLayout(): ";
+
+        if (scheme != HASH && scheme != PREFIX) {
+            throw new VEOError(name + "unknown layout scheme: " + scheme);
+        }
+        if (depth < 1 || depth > 8) {
+            throw new VEOError(name + "depth must be between 1 and 8, not " + depth);
+        }
+        if (scheme == HASH && (fanout < 2 || fanout > 65536)) {
+            throw new VEOError(name + "fan-out must be between 2 and 65536, not " + fanout);
+        }
+        if (scheme == PREFIX && (fanout < 1 || fanout > 16)) {
+            throw new VEOError(name + "characters per level must be between 1 and 16, not " + fanout);
+        }
+        if (scheme == HASH && Math.pow(fanout, depth) > Math.pow(2, 63)) {
+            throw new VEOError(name + "fan-out ^ depth is too large");
+        }
+        this.scheme = scheme;
+        this.depth = depth;
+        this.fanout = fanout;
+        width = Integer.toHexString(fanout - 1).length();
+        created = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Get a layout scheme from its name ('hash' or 'prefix')
+     *
+     * @param s the name
+     * @return the scheme (0 if the name is not recognised)
+     */
+    public static int scheme(String s) {
+        switch (s.toLowerCase()) {
+            case "hash":
+                return HASH;
+            case "prefix":
+                return PREFIX;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Get the path of a VEO relative to its output directory
+     *
+     * @param name the name of the VEO
+     * @return the relative path (using '/')
+     */
+    public String path(String name) {
+        StringBuilder sb;
+        MessageDigest md;
+        byte[] d;
+        long h;
+        int i, j, k;
+        String s;
+
+        sb = new StringBuilder();
+        if (scheme == HASH) {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new IllegalStateException("VEOLayout.path(): SHA-256 not available");
+            }
+            d = md.digest(name.getBytes(StandardCharsets.UTF_8));
+            h = 0;
+            for (i = 0; i < 8; i++) {
+                h = (h << 8) | (d[i] & 0xff);
+            }
+            for (i = 0; i < depth; i++) {
+                s = Long.toHexString(Long.remainderUnsigned(h, fanout));
+                for (j = s.length(); j < width; j++) {
+                    sb.append('0');
+                }
+                sb.append(s).append('/');
+                h = Long.divideUnsigned(h, fanout);
+            }
+        } else {
+            k = 0;
+            for (i = 0; i < depth; i++) {
+                for (j = 0; j < fanout; j++, k++) {
+                    sb.append(k < name.length() && isSafe(name.charAt(k)) ? name.charAt(k) : '_');
+                }
+                sb.append('/');
+            }
+        }
+        sb.append(name);
+        return sb.toString();
+    }
+
+    /**
+     * Is a character safe to use in a directory name?
+     */
+    private static boolean isSafe(char c) {
+        return c != '/' && c != '\\' && c != '.' && c != ':' && c >= ' ';
+    }
+
+    /**
+     * Get the file a VEO is to be written to under an output directory,
+     * creating the subdirectories if necessary.
+     *
+     * @param root the output directory (null for the current directory)
+     * @param name the name of the VEO
+     * @param create true if the subdirectories are to be created
+     * @return the file
+     * @throws VEOError if a subdirectory could not be created
+     */
+    public File place(File root, String name, boolean create) throws VEOError {
+        File f, dir;
+
+        f = root == null ? new File(path(name)) : new File(root, path(name));
+        dir = f.getAbsoluteFile().getParentFile();
+        if (create && !created.contains(dir.getPath())) {
+            try {
+                Files.createDirectories(dir.toPath());
+            } catch (IOException ioe) {
+                throw new VEOError("VEOLayout.place(): cannot create directory '" + dir + "': " + ioe.getMessage());
+            }
+            created.add(dir.getPath());
+        }
+        return f;
+    }
+
+    /**
+     * Describe the layout as a JSON object (for the manifest)
+     *
+     * @return the description
+     */
+    public String toJSON() {
+        if (scheme == HASH) {
+            return "{\"scheme\":\"hash\",\"depth\":" + depth + ",\"fanout\":" + fanout + ",\"digest\":\"SHA-256\"}";
+        }
+        return "{\"scheme\":\"prefix\",\"depth\":" + depth + ",\"chars\":" + fanout + "}";
+    }
+
+    @Override
+    public String toString() {
+        if (scheme == HASH) {
+            return "hash of name, " + depth + " level(s) of " + fanout + " subdirectories";
+        }
+        return "prefix of name, " + depth + " level(s) of " + fanout + " character(s)";
+    }
+}
@@ -0,0 +1,265 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * *************************************************************
+ *
+ * V E O M A N I F E S T
+ *
+ * This class writes a manifest describing the VEOs built in a run.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class writes a manifest of the VEOs built in a run, so that a catalogue
+ * can be loaded without reading the VEOs again. There is one entry per VEO,
+ * giving the path of the VEO, its size, the SHA-256 digest of the complete VEO
+ * (including the signatures), its sequence number, the time taken to build it,
+ * and the path, size, and SHA-256 digest of each file included in it.
+ * <p>
+ * The digests are obtained from the {@link VEOGenerator}, which must have had
+ * {@link VEOGenerator#setDigesting} called. The attachments are digested as
+ * they are read to be encoded into the VEO. The VEO is digested as soon as it
+ * is complete; as the signatures are written into the start of the VEO last,
+ * this is done by reading the VEO back while it is still in the operating
+ * system's cache.
+ * <p>
+ * If the name of the manifest ends in '.csv', the manifest is written as
+ * comma separated values with a header line. The attachments are in the last
+ * column, separated by ';', with the path, size, and digest of each separated
+ * by '|'. Otherwise, the manifest is written as JSON Lines (one JSON object per
+ * line), e.g.
+ * <pre>
+ * {"veo":"/out/1D-2E.veo","size":1606047,"sha256":"...","seqNo":1,"buildMs":312,
+ *  "attachments":[{"path":"/in/a.docx","size":265160,"sha256":"..."}]}
+ * </pre>
+ * Each entry is flushed as it is written, so the manifest is usable while a
+ * long run (or a server) is still active.
+ * <p>
+ * If the VEOs are placed in subdirectories of the output directories (see
+ * {@link VEOLayout}), each entry also gives the path of the VEO relative to
+ * its output directory ('relpath', the last CSV column), and a JSON Lines
+ * manifest starts with a line describing the layout, e.g.
+ * <pre>
+ * {"layout":{"scheme":"hash","depth":2,"fanout":256,"digest":"SHA-256"}}
+ * </pre>
+ */
+public class VEOManifest {
+
+    File file;      // the manifest
+    Writer w;       // writer for the manifest
+    boolean csv;    // true if writing CSV rather than JSON Lines
+    VEOLayout layout; // layout of the output directories (null if flat)
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Create a manifest. An existing file is overwritten.
+     *
+     * @param file the manifest to write
+     * @throws VEOError if the manifest could not be created
+     */
+    public VEOManifest(File file) throws VEOError {
+        this(file, null);
+    }
+
+    /**
+     * Create a manifest for VEOs placed according to a layout. An existing
+     * file is overwritten.
+     *
+     * @param file the manifest to write
+     * @param layout the layout of the output directories (null if flat)
+     * @throws VEOError if the manifest could not be created
+     */
+    public VEOManifest(File file, VEOLayout layout) throws VEOError {
+        String name = "VEOManifest(): ";
+
+        if (file == null) {
+            throw new VEOError(name + "manifest file is null");
+        }
+        this.file = file;
+        this.layout = layout;
+        csv = file.getName().toLowerCase().endsWith(".csv");
+        try {
+            w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            if (csv) {
+                w.write("veo,size,sha256,seqNo,buildMs,attachments" + (layout != null ? ",relpath" : "") + "\r\n");
+            } else if (layout != null) {
+                w.write("{\"layout\":" + layout.toJSON() + "}\n");
+            }
+            w.flush();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed creating manifest '" + file + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Add an entry for the VEO just completed by a generator.
+     *
+     * @param veo the VEO file
+     * @param vg the generator that built it (after endVEO())
+     * @param buildMs the time taken to build the VEO (ms)
+     * @throws VEOError if the entry could not be written
+     */
+    public synchronized void add(File veo, VEOGenerator vg, long buildMs) throws VEOError {
+        add(veo, null, vg, buildMs);
+    }
+
+    /**
+     * Add an entry for the VEO just completed by a generator, giving its path
+     * relative to its output directory.
+     *
+     * @param veo the VEO file
+     * @param relpath the path relative to the output directory (ignored if
+     * there is no layout)
+     * @param vg the generator that built it (after endVEO())
+     * @param buildMs the time taken to build the VEO (ms)
+     * @throws VEOError if the entry could not be written
+     */
+    public synchronized void add(File veo, String relpath, VEOGenerator vg, long buildMs) throws VEOError {
+        StringBuilder sb, att;
+        List<String> paths, digests;
+        List<Long> sizes;
+        int i;
+        String name = "VEOManifest.add(): ";
+
+        paths = vg.getAttachments();
+        sizes = vg.getAttachmentSizes();
+        digests = vg.getAttachmentDigests();
+        sb = new StringBuilder();
+        if (csv) {
+            sb.append(csvString(veo.getAbsolutePath())).append(',');
+            sb.append(vg.getVEOSize()).append(',');
+            sb.append(vg.getVEODigest()).append(',');
+            sb.append(vg.getSeqNo()).append(',');
+            sb.append(buildMs).append(',');
+            att = new StringBuilder();
+            for (i = 0; i < paths.size(); i++) {
+                if (i > 0) {
+                    att.append(';');
+                }
+                att.append(paths.get(i)).append('|').append(sizes.get(i)).append('|').append(digests.get(i));
+            }
+            sb.append(csvString(att.toString()));
+            if (layout != null) {
+                sb.append(',').append(csvString(relpath == null ? "" : relpath));
+            }
+            sb.append("\r\n");
+        } else {
+            sb.append("{\"veo\":").append(jsonString(veo.getAbsolutePath()));
+            sb.append(",\"size\":").append(vg.getVEOSize());
+            sb.append(",\"sha256\":\"").append(vg.getVEODigest()).append('"');
+            sb.append(",\"seqNo\":").append(vg.getSeqNo());
+            sb.append(",\"buildMs\":").append(buildMs);
+            if (layout != null && relpath != null) {
+                sb.append(",\"relpath\":").append(jsonString(relpath));
+            }
+            sb.append(",\"attachments\":[");
+            for (i = 0; i < paths.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"path\":").append(jsonString(paths.get(i)));
+                sb.append(",\"size\":").append(sizes.get(i));
+                sb.append(",\"sha256\":\"").append(digests.get(i)).append("\"}");
+            }
+            sb.append("]}\n");
+        }
+        try {
+            w.write(sb.toString());
+            w.flush();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed writing to manifest '" + file + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Close the manifest.
+     */
+    public synchronized void close() {
+        try {
+            w.close();
+        } catch (IOException ioe) {
+            /* ignore */ }
+    }
+
+    /**
+     * Convert a digest into lower case hexadecimal
+     *
+     * @param b the digest
+     * @return the hexadecimal string
+     */
+    static String toHex(byte[] b) {
+        char[] c;
+        int i;
+
+        c = new char[b.length * 2];
+        for (i = 0; i < b.length; i++) {
+            c[i * 2] = HEX[(b[i] >> 4) & 0xf];
+            c[i * 2 + 1] = HEX[b[i] & 0xf];
+        }
+        return new String(c);
+    }
+
+    /**
+     * Quote a string as a JSON string
+     */
+    private static String jsonString(String s) {
+        StringBuilder sb;
+        char c;
+        int i;
+
+        sb = new StringBuilder();
+        sb.append('"');
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * Quote a string as a CSV column (RFC 4180), if necessary
+     */
+    private static String csvString(String s) {
+        if (s.indexOf(',') == -1 && s.indexOf('"') == -1 && s.indexOf('\n') == -1 && s.indexOf('\r') == -1) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,381 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * *************************************************************
+ *
+ * V E O M E T R I C S
+ *
+ * This class collects metrics about the work done by the generator.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is a registry of metrics describing the work done by
+ * {@link VEOGenerator}. The metrics are shared by all the VEOGenerators in the
+ * JVM and are always collected; the cost is a few counter increments per write
+ * to a VEO and a few calls to System.nanoTime() per VEO.
+ * <p>
+ * The metrics are:
+ * <ul>
+ * <li>the number of VEOs started, completed, and failed</li>
+ * <li>the bytes written to VEOs, and the number of writes</li>
+ * <li>the bytes passed to the signature digests, by signature algorithm</li>
+ * <li>the bytes Base64 encoded</li>
+ * <li>the bytes of attachments (encodings and included files) read</li>
+ * <li>histograms of the time taken by each stage: rendering the record,
+ * document, and file templates; generating each encoding; calculating the
+ * signatures at the end of the VEO; and patching the signatures into the
+ * VEO</li>
+ * </ul>
+ * The metrics can be published as a JMX MBean ('VEOGenerator:type=Metrics')
+ * and as a text exposition (in the Prometheus format) served over HTTP from a
+ * port on the loopback interface (see {@link #startEndpoint}).
+ */
+public final class VEOMetrics {
+
+    static final LongAdder veosStarted = new LongAdder();
+    static final LongAdder veosCompleted = new LongAdder();
+    static final LongAdder veosFailed = new LongAdder();
+    static final LongAdder bytesWritten = new LongAdder();
+    static final LongAdder writeCalls = new LongAdder();
+    static final LongAdder base64BytesEncoded = new LongAdder();
+    static final LongAdder attachmentBytesRead = new LongAdder();
+    static final ConcurrentHashMap<String, LongAdder> bytesDigested = new ConcurrentHashMap<>();
+
+    static final Histogram render = new Histogram("render");
+    static final Histogram encoding = new Histogram("encoding");
+    static final Histogram signing = new Histogram("signing");
+    static final Histogram patch = new Histogram("patch");
+
+    private static HttpServer endpoint = null;
+    private static boolean registered = false;
+
+    private VEOMetrics() {
+    }
+
+    /**
+     * A histogram of durations. The buckets are fixed, from 10 microseconds to
+     * 10 seconds.
+     */
+    static final class Histogram {
+
+        final String stage;     // name of the stage being timed
+        final LongAdder[] counts; // count in each bucket (the last is +Inf)
+        final LongAdder sum;    // sum of durations (ns)
+        final LongAdder count;  // number of durations
+
+        // upper bounds of the buckets in nanoseconds
+        static final long[] BOUNDS = {
+            10000L, 25000L, 50000L, 100000L, 250000L, 500000L,
+            1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L,
+            100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L,
+            5000000000L, 10000000000L};
+
+        Histogram(String stage) {
+            int i;
+
+            this.stage = stage;
+            counts = new LongAdder[BOUNDS.length + 1];
+            for (i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+            sum = new LongAdder();
+            count = new LongAdder();
+        }
+
+        /**
+         * Record a duration
+         *
+         * @param nanos the duration in nanoseconds
+         */
+        void record(long nanos) {
+            int i;
+
+            for (i = 0; i < BOUNDS.length && nanos > BOUNDS[i]; i++) {
+            }
+            counts[i].increment();
+            sum.add(nanos);
+            count.increment();
+        }
+
+        /**
+         * Return an upper bound on a percentile (the bound of the bucket in
+         * which it falls)
+         *
+         * @param p the percentile (0-100)
+         * @return the bound in nanoseconds (-1 if no durations, or
+         * Long.MAX_VALUE if beyond the last bucket)
+         */
+        long percentile(double p) {
+            long n, target, seen;
+            int i;
+
+            n = count.sum();
+            if (n == 0) {
+                return -1;
+            }
+            target = (long) Math.ceil(p / 100.0 * n);
+            seen = 0;
+            for (i = 0; i < BOUNDS.length; i++) {
+                seen += counts[i].sum();
+                if (seen >= target) {
+                    return BOUNDS[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Record that bytes were passed to a signature digest
+     *
+     * @param algorithm the signature algorithm (e.g. 'SHA256withRSA')
+     * @param n the number of bytes
+     */
+    static void digested(String algorithm, long n) {
+        LongAdder la;
+
+        la = bytesDigested.get(algorithm);
+        if (la == null) {
+            la = bytesDigested.computeIfAbsent(algorithm, k -> new LongAdder());
+        }
+        la.add(n);
+    }
+
+    /**
+     * Return the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics
+     */
+    public static String exposition() {
+        StringBuilder sb;
+
+        sb = new StringBuilder();
+        counter(sb, "veogen_veos_started_total", "VEOs started", veosStarted.sum());
+        counter(sb, "veogen_veos_completed_total", "VEOs completed", veosCompleted.sum());
+        counter(sb, "veogen_veos_failed_total", "VEOs abandoned after an error", veosFailed.sum());
+        counter(sb, "veogen_bytes_written_total", "Bytes written to VEOs", bytesWritten.sum());
+        counter(sb, "veogen_write_calls_total", "Writes to VEOs", writeCalls.sum());
+        counter(sb, "veogen_base64_bytes_encoded_total", "Bytes Base64 encoded", base64BytesEncoded.sum());
+        counter(sb, "veogen_attachment_bytes_read_total", "Bytes of attachments read", attachmentBytesRead.sum());
+        sb.append("# HELP veogen_bytes_digested_total Bytes passed to signature digests\n");
+        sb.append("# TYPE veogen_bytes_digested_total counter\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(bytesDigested).entrySet()) {
+            sb.append("veogen_bytes_digested_total{algorithm=\"").append(e.getKey()).append("\"} ").append(e.getValue().sum()).append('\n');
+        }
+        sb.append("# HELP veogen_stage_seconds Time taken by each stage of building a VEO\n");
+        sb.append("# TYPE veogen_stage_seconds histogram\n");
+        histogram(sb, render);
+        histogram(sb, encoding);
+        histogram(sb, signing);
+        histogram(sb, patch);
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, Histogram h) {
+        long cumulative;
+        int i;
+
+        cumulative = 0;
+        for (i = 0; i < Histogram.BOUNDS.length; i++) {
+            cumulative += h.counts[i].sum();
+            sb.append("veogen_stage_seconds_bucket{stage=\"").append(h.stage).append("\",le=\"")
+                    .append(Histogram.BOUNDS[i] / 1e9).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += h.counts[i].sum();
+        sb.append("veogen_stage_seconds_bucket{stage=\"").append(h.stage).append("\",le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append("veogen_stage_seconds_sum{stage=\"").append(h.stage).append("\"} ").append(h.sum.sum() / 1e9).append('\n');
+        sb.append("veogen_stage_seconds_count{stage=\"").append(h.stage).append("\"} ").append(h.count.sum()).append('\n');
+    }
+
+    /**
+     * Register the metrics with the platform MBean server as
+     * 'VEOGenerator:type=Metrics'. Registering more than once has no effect.
+     *
+     * @throws VEOError if the MBean could not be registered
+     */
+    public static synchronized void registerMBean() throws VEOError {
+        MBeanServer mbs;
+        String name = "VEOMetrics.registerMBean(): ";
+
+        if (registered) {
+            return;
+        }
+        mbs = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mbs.registerMBean(new MetricsMBean(), new ObjectName("VEOGenerator:type=Metrics"));
+        } catch (InstanceAlreadyExistsException iaee) {
+            // registered by another class loader; ignore
+        } catch (JMException jme) {
+            throw new VEOError(name + "failed registering MBean: " + jme.getMessage());
+        }
+        registered = true;
+    }
+
+    /**
+     * Start serving the text exposition of the metrics at '/metrics' on a
+     * port on the loopback interface.
+     *
+     * @param port the port
+     * @throws VEOError if the port could not be opened
+     */
+    public static synchronized void startEndpoint(int port) throws VEOError {
+        String name = "VEOMetrics.startEndpoint(): ";
+
+        if (endpoint != null) {
+            return;
+        }
+        try {
+            endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed opening port " + port + ": " + ioe.getMessage());
+        }
+        endpoint.createContext("/metrics", exchange -> {
+            byte[] b;
+
+            b = exposition().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, b.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(b);
+            }
+        });
+        endpoint.start();
+    }
+
+    /**
+     * Stop serving the text exposition (if it was started).
+     */
+    public static synchronized void stopEndpoint() {
+        if (endpoint != null) {
+            endpoint.stop(0);
+            endpoint = null;
+        }
+    }
+
+    /**
+     * The MBean exposing the metrics. The attributes are the counters, the
+     * bytes digested by each algorithm seen so far, and the count, mean, and
+     * 99th percentile (in microseconds) of each stage. A percentile beyond the
+     * last bucket (10 seconds) is reported as Long.MAX_VALUE.
+     */
+    private static class MetricsMBean implements DynamicMBean {
+
+        /**
+         * Get the current values of all the attributes
+         */
+        private TreeMap<String, Long> values() {
+            TreeMap<String, Long> v;
+            Histogram[] hs = {render, encoding, signing, patch};
+            long n, p99;
+            int i;
+
+            v = new TreeMap<>();
+            v.put("VEOsStarted", veosStarted.sum());
+            v.put("VEOsCompleted", veosCompleted.sum());
+            v.put("VEOsFailed", veosFailed.sum());
+            v.put("BytesWritten", bytesWritten.sum());
+            v.put("WriteCalls", writeCalls.sum());
+            v.put("Base64BytesEncoded", base64BytesEncoded.sum());
+            v.put("AttachmentBytesRead", attachmentBytesRead.sum());
+            for (Map.Entry<String, LongAdder> e : bytesDigested.entrySet()) {
+                v.put("BytesDigested_" + e.getKey(), e.getValue().sum());
+            }
+            for (i = 0; i < hs.length; i++) {
+                n = hs[i].count.sum();
+                v.put(hs[i].stage + "Count", n);
+                v.put(hs[i].stage + "MeanMicros", n == 0 ? 0 : hs[i].sum.sum() / n / 1000);
+                p99 = hs[i].percentile(99);
+                v.put(hs[i].stage + "P99Micros", p99 == Long.MAX_VALUE ? p99 : p99 / 1000);
+            }
+            return v;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long v;
+
+            v = values().get(attribute);
+            if (v == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return v;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList al;
+            TreeMap<String, Long> v;
+            int i;
+
+            al = new AttributeList();
+            v = values();
+            for (i = 0; i < attributes.length; i++) {
+                if (v.containsKey(attributes[i])) {
+                    al.add(new Attribute(attributes[i], v.get(attributes[i])));
+                }
+            }
+            return al;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            ArrayList<MBeanAttributeInfo> attrs;
+
+            attrs = new ArrayList<>();
+            for (String s : values().keySet()) {
+                attrs.add(new MBeanAttributeInfo(s, "long", s, true, false, false));
+            }
+            return new MBeanInfo(getClass().getName(), "VEOGenerator metrics",
+                    attrs.toArray(new MBeanAttributeInfo[attrs.size()]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * *************************************************************
+ *
+ * V E O M O V E R
+ *
+ * This class moves completed VEOs from a staging directory to their final
+ * destination in the background.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class allows VEOs to be built in a fast local staging directory, and
+ * moved to slow final storage (such as a network share) in the background. The
+ * generator then runs at the speed of the local disk (including the seeking
+ * back to patch the signatures), while the VEOs are copied to the final
+ * storage in parallel.
+ * <p>
+ * Each completed VEO is given to the mover (see {@link #submit}), and is
+ * copied by one of a pool of threads to the same relative path under the
+ * destination directory (or under a destination given with the VEO), using
+ * large sequential reads and writes. The copy is
+ * written to a temporary file ('.&lt;name&gt;.partial') and checked: the size
+ * of the copy is always compared with the staged VEO, and, if requested, the
+ * copy is read back and its SHA-256 digest compared with the digest of the
+ * staged VEO calculated while copying. The copy is then renamed to the final
+ * name, and the staged VEO deleted. If the copy fails or does not match, the
+ * staged VEO is left in the staging directory and the failure is reported.
+ * <p>
+ * The total size of the staged VEOs waiting to be moved is limited; if the
+ * limit would be exceeded, submit() blocks until enough VEOs have been moved.
+ * <p>
+ * Listeners (see {@link #addListener}) are told of each VEO once it has
+ * appeared under its final name.
+ */
+public class VEOMover {
+
+    File stageDir;          // directory in which VEOs are built
+    File destDir;           // directory to which VEOs are moved
+    long limit;             // maximum bytes of staged VEOs waiting to be moved
+    boolean checksum;       // true if copies are read back and digested
+    int threads;            // number of threads moving VEOs
+    ExecutorService movers; // threads moving VEOs
+    ArrayList<Consumer<File>> listeners; // told when a VEO has been moved
+    long staged;            // bytes of staged VEOs waiting to be moved
+    int pending;            // number of VEOs waiting to be moved
+    long noMoved;           // number of VEOs moved
+    long bytesMoved;        // bytes moved
+    long noFailed;          // number of VEOs that failed to move
+
+    static final int BUFFER = 8 * 1024 * 1024;
+
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER));
+
+    /**
+     * Construct a mover.
+     *
+     * @param stageDir the staging directory
+     * @param destDir the final destination
+     * @param limit the maximum number of bytes of staged VEOs waiting to be
+     * moved
+     * @param checksum true if each copy is read back and its digest checked
+     * @param threads the number of threads moving VEOs
+     */
+    public VEOMover(File stageDir, File destDir, long limit, boolean checksum, int threads) {
+        this.stageDir = stageDir.getAbsoluteFile();
+        this.destDir = destDir.getAbsoluteFile();
+        this.limit = limit < 1 ? Long.MAX_VALUE : limit;
+        this.checksum = checksum;
+        this.threads = threads < 1 ? 1 : threads;
+        movers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "VEOMover");
+            t.setDaemon(true);
+            return t;
+        });
+        listeners = new ArrayList<>();
+        staged = 0;
+        pending = 0;
+        noMoved = 0;
+        bytesMoved = 0;
+        noFailed = 0;
+    }
+
+    /**
+     * Add a listener that is told of each VEO when it appears under its final
+     * name. Listeners are called on the moving threads.
+     *
+     * @param listener the listener
+     */
+    public synchronized void addListener(Consumer<File> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Get the final name of a staged VEO (the same relative path under the
+     * destination directory)
+     *
+     * @param veo the staged VEO
+     * @return the final name
+     */
+    public File target(File veo) {
+        return target(veo, destDir);
+    }
+
+    /**
+     * Get the final name of a staged VEO under a given destination directory
+     *
+     * @param veo the staged VEO
+     * @param dest the destination directory
+     * @return the final name
+     */
+    public File target(File veo, File dest) {
+        String s, v;
+
+        s = stageDir.getPath() + File.separator;
+        v = veo.getAbsolutePath();
+        if (v.startsWith(s)) {
+            return new File(dest, v.substring(s.length()));
+        }
+        return new File(dest, veo.getName());
+    }
+
+    /**
+     * Queue a completed VEO to be moved, waiting if the staging limit has been
+     * reached. A VEO larger than the limit is accepted once no other VEOs are
+     * waiting.
+     *
+     * @param veo the staged VEO
+     */
+    public void submit(File veo) {
+        submit(veo, destDir);
+    }
+
+    /**
+     * Queue a completed VEO to be moved to a given destination directory,
+     * waiting if the staging limit has been reached.
+     *
+     * @param veo the staged VEO
+     * @param dest the destination directory
+     */
+    public void submit(File veo, File dest) {
+        final long len;
+
+        len = veo.length();
+        synchronized (this) {
+            while (pending > 0 && staged + len > limit) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            staged += len;
+            pending++;
+        }
+        movers.execute(() -> move(veo, target(veo, dest), len));
+    }
+
+    /**
+     * Move a VEO, and release its space
+     */
+    private void move(File veo, File dest, long len) {
+        boolean moved;
+
+        moved = false;
+        try {
+            copy(veo, dest);
+            Files.delete(veo.toPath());
+            moved = true;
+        } catch (VEOError | IOException e) {
+            System.err.println("VEOMover.move(): failed moving '" + veo + "' (left in staging directory): " + e.getMessage());
+        }
+        synchronized (this) {
+            staged -= len;
+            pending--;
+            if (moved) {
+                noMoved++;
+                bytesMoved += len;
+            } else {
+                noFailed++;
+            }
+            notifyAll();
+        }
+        if (moved) {
+            notifyListeners(dest);
+        }
+    }
+
+    /**
+     * Copy a VEO to its destination via a temporary file, check the copy, and
+     * rename it
+     */
+    private void copy(File veo, File dest) throws VEOError, IOException {
+        File temp;
+        ByteBuffer bb;
+        MessageDigest md;
+        byte[] digest;
+        long size, posn;
+        int n;
+        String name = "VEOMover.copy(): ";
+
+        if (!dest.getParentFile().isDirectory() && !dest.getParentFile().mkdirs() && !dest.getParentFile().isDirectory()) {
+            throw new VEOError(name + "cannot create directory '" + dest.getParentFile() + "'");
+        }
+        temp = new File(dest.getParentFile(), "." + dest.getName() + ".partial");
+        md = checksum ? sha256() : null;
+        bb = buffers.get();
+        bb.clear();
+        size = 0;
+        try (FileChannel in = FileChannel.open(veo.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while ((n = in.read(bb)) != -1) {
+                bb.flip();
+                if (md != null) {
+                    md.update(bb.duplicate());
+                }
+                while (bb.hasRemaining()) {
+                    out.write(bb);
+                }
+                size += n;
+                bb.clear();
+            }
+        }
+        try {
+            // check the copy
+            if (size != veo.length() || temp.length() != size) {
+                throw new VEOError(name + "copy of '" + veo + "' is " + temp.length() + " bytes, not " + veo.length());
+            }
+            if (md != null) {
+                digest = md.digest();
+                md.reset();
+                bb.clear();
+                posn = 0;
+                try (FileChannel fc = FileChannel.open(temp.toPath(), StandardOpenOption.READ)) {
+                    while ((n = fc.read(bb, posn)) > 0) {
+                        bb.flip();
+                        md.update(bb);
+                        bb.clear();
+                        posn += n;
+                    }
+                }
+                if (!Arrays.equals(digest, md.digest())) {
+                    throw new VEOError(name + "copy of '" + veo + "' does not match (SHA-256 differs)");
+                }
+            }
+            Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (VEOError | IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Get a SHA-256 message digest
+     */
+    private static MessageDigest sha256() throws VEOError {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new VEOError("VEOMover.sha256(): SHA-256 not available: " + nsae.getMessage());
+        }
+    }
+
+    /**
+     * Tell the listeners that a VEO has been moved
+     */
+    private void notifyListeners(File veo) {
+        ArrayList<Consumer<File>> l;
+        int i;
+
+        synchronized (this) {
+            l = new ArrayList<>(listeners);
+        }
+        for (i = 0; i < l.size(); i++) {
+            l.get(i).accept(veo);
+        }
+    }
+
+    /**
+     * Wait until all the VEOs submitted so far have been moved (or have
+     * failed).
+     *
+     * @return the number of VEOs that have failed to move
+     */
+    public synchronized long drain() {
+        while (pending > 0) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return noFailed;
+    }
+
+    /**
+     * Wait for the VEOs to be moved, and stop the moving threads.
+     *
+     * @return the number of VEOs that have failed to move
+     */
+    public long close() {
+        long failed;
+
+        failed = drain();
+        movers.shutdown();
+        try {
+            movers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return failed;
+    }
+
+    /**
+     * Report on the VEOs moved
+     *
+     * @return a one line report
+     */
+    public synchronized String report() {
+        return String.format("%d VEO(s) (%.1f MB) moved%s, %d failed (left in '%s')",
+                noMoved, bytesMoved / 1e6, checksum ? " and checksummed" : "", noFailed, stageDir);
+    }
+}
@@ -0,0 +1,107 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * *************************************************************
+ *
+ * V E O O U T P U T
+ *
+ * This class represents an engine that writes VEOs.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class is the abstraction of how a {@link VEOGenerator} writes a VEO. By
+ * default, the generator writes each VEO through an ordinary file channel. If
+ * an output engine is given to the generator (see
+ * {@link VEOGenerator#setOutput}), the generator asks the engine for the
+ * channel to write each VEO to instead.
+ * <p>
+ * The generator writes the VEO sequentially, except that, once the VEO is
+ * complete, it positions back to write the signatures into the placeholders in
+ * the signature blocks. The generator never reads from the channel. The VEO
+ * ends at the highest position written; when the channel is closed, the engine
+ * must ensure that the VEO is exactly this long. The placeholders all lie in
+ * the signature blocks; once the last signature block has been written, the
+ * generator calls {@link #signatureBlocksWritten}. If the VEO is abandoned,
+ * {@link #abandon} is called before the channel is closed.
+ */
+abstract public class VEOOutput {
+
+    /**
+     * Open the channel to write a VEO to.
+     *
+     * @param veo the file to contain the VEO
+     * @param sizeHint the expected size of the VEO in bytes (0 if unknown)
+     * @return the channel
+     * @throws IOException if the channel could not be opened
+     */
+    abstract public FileChannel open(File veo, long sizeHint) throws IOException;
+
+    /**
+     * Note that all the signature blocks have been written to a channel. After
+     * this, the generator only positions back to before the current position
+     * when patching in the signatures. By default, nothing is done.
+     *
+     * @param ch the channel returned by open()
+     * @throws IOException if the engine failed
+     */
+    public void signatureBlocksWritten(FileChannel ch) throws IOException {
+    }
+
+    /**
+     * Note that the VEO being written to a channel has been abandoned (the
+     * generator closes the channel afterwards). By default, nothing is done,
+     * and the incomplete VEO is left as written.
+     *
+     * @param ch the channel returned by open()
+     */
+    public void abandon(FileChannel ch) {
+    }
+
+    /**
+     * Read back a VEO that has just been completed (used to digest the
+     * complete VEO). By default, the file is opened.
+     *
+     * @param veo the file passed to open()
+     * @return a channel reading the complete VEO
+     * @throws IOException if the VEO could not be read
+     */
+    public ReadableByteChannel readBack(File veo) throws IOException {
+        return FileChannel.open(veo.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Finish writing (called once no more VEOs are to be written). By default,
+     * nothing is done.
+     *
+     * @throws VEOError if the output could not be completed
+     */
+    public void close() throws VEOError {
+    }
+
+    /**
+     * Report on the output written
+     *
+     * @return a one line report (null if nothing to report)
+     */
+    public String report() {
+        return null;
+    }
+
+    /**
+     * Describe this output engine
+     *
+     * @return a short description
+     */
+    @Override
+    abstract public String toString();
+}
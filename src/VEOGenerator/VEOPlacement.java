@@ -0,0 +1,278 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * *************************************************************
+ *
+ * V E O P L A C E M E N T
+ *
+ * This class spreads VEOs across several output directories.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class spreads the VEOs produced in a run across several output
+ * directories (roots), normally on independent volumes, so that the write
+ * bandwidth scales with the number of volumes. The root for each VEO is
+ * chosen by a placement policy:
+ * <ul>
+ * <li>ROUND_ROBIN - the roots are used in turn.</li>
+ * <li>LEAST_QUEUED - the root with the fewest bytes of VEOs queued (written,
+ * but not yet settled) is used, ties being broken in turn. A VEO is settled
+ * when it has been durably published or moved from the staging directory (see
+ * {@link VEOPublisher} and {@link VEOMover}); if neither is in use, a VEO is
+ * settled as soon as it is complete, and this policy behaves as
+ * ROUND_ROBIN.</li>
+ * <li>HASH - the root is chosen from a hash (CRC-32) of the VEO name, so the
+ * same VEO is always placed in the same root.</li>
+ * </ul>
+ * If a locator file is given, a line is written to it as each VEO settles,
+ * giving the VEO name and the path at which it landed, separated by a tab.
+ * Each line is flushed as it is written.
+ */
+public class VEOPlacement {
+
+    File[] roots;           // the output directories
+    int policy;             // the placement policy
+    long[] queued;          // bytes of VEOs queued per root
+    int next;               // next root in turn
+    HashMap<String, Queued> inFlight; // VEOs queued, by name
+    File locatorFile;       // locator (null if none)
+    Writer locator;         // writer for the locator
+
+    public static final int ROUND_ROBIN = 1;
+    public static final int LEAST_QUEUED = 2;
+    public static final int HASH = 3;
+
+    /**
+     * A VEO that has been placed but not yet settled
+     */
+    private static class Queued {
+
+        int root;
+        File veo;
+        long bytes;
+
+        Queued(int root, File veo, long bytes) {
+            this.root = root;
+            this.veo = veo;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Construct a placement over a set of roots.
+     *
+     * @param roots the output directories
+     * @param policy the placement policy
+     * @throws VEOError if there are no roots, or the policy is unknown
+     */
+    public VEOPlacement(File[] roots, int policy) throws VEOError {
+        String name = "VEOPlacement(): ";
+
+        if (roots == null || roots.length == 0) {
+            throw new VEOError(name + "no output roots given");
+        }
+        if (policy != ROUND_ROBIN && policy != LEAST_QUEUED && policy != HASH) {
+            throw new VEOError(name + "unknown placement policy: " + policy);
+        }
+        this.roots = roots;
+        this.policy = policy;
+        queued = new long[roots.length];
+        next = 0;
+        inFlight = new HashMap<>();
+        locatorFile = null;
+        locator = null;
+    }
+
+    /**
+     * Get a placement policy from its name ('rr', 'queued', or 'hash')
+     *
+     * @param s the name
+     * @return the policy (0 if the name is not recognised)
+     */
+    public static int policy(String s) {
+        switch (s.toLowerCase()) {
+            case "rr":
+                return ROUND_ROBIN;
+            case "queued":
+                return LEAST_QUEUED;
+            case "hash":
+                return HASH;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Write a locator recording where each VEO lands. An existing file is
+     * overwritten.
+     *
+     * @param file the locator file
+     * @throws VEOError if the locator could not be created
+     */
+    public void setLocator(File file) throws VEOError {
+        try {
+            locator = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        } catch (IOException ioe) {
+            throw new VEOError("VEOPlacement.setLocator(): failed creating locator '" + file + "': " + ioe.getMessage());
+        }
+        locatorFile = file;
+    }
+
+    /**
+     * Choose the root for a VEO
+     *
+     * @param name the name of the VEO
+     * @return the index of the root
+     */
+    public synchronized int choose(String name) {
+        CRC32 crc;
+        int i, j, best;
+
+        switch (policy) {
+            case HASH:
+                crc = new CRC32();
+                crc.update(name.getBytes(StandardCharsets.UTF_8));
+                return (int) (crc.getValue() % roots.length);
+            case LEAST_QUEUED:
+                best = next;
+                for (i = 1; i < roots.length; i++) {
+                    j = (next + i) % roots.length;
+                    if (queued[j] < queued[best]) {
+                        best = j;
+                    }
+                }
+                next = (best + 1) % roots.length;
+                return best;
+            default:
+                best = next;
+                next = (next + 1) % roots.length;
+                return best;
+        }
+    }
+
+    /**
+     * Get a root
+     *
+     * @param i the index of the root
+     * @return the output directory
+     */
+    public File root(int i) {
+        return roots[i];
+    }
+
+    /**
+     * Get the number of roots
+     *
+     * @return the number of roots
+     */
+    public int getNoRoots() {
+        return roots.length;
+    }
+
+    /**
+     * Note that a VEO has been written, and is queued until it settles.
+     *
+     * @param name the name of the VEO
+     * @param root the root chosen for it
+     * @param veo the path at which it will land
+     * @param bytes its size
+     */
+    public synchronized void queued(String name, int root, File veo, long bytes) {
+        inFlight.put(name, new Queued(root, veo, bytes));
+        queued[root] += bytes;
+    }
+
+    /**
+     * Get the root a queued VEO was placed in
+     *
+     * @param name the name of the VEO
+     * @return the index of the root (-1 if the VEO is not queued)
+     */
+    public synchronized int rootOf(String name) {
+        Queued q;
+
+        q = inFlight.get(name);
+        return q == null ? -1 : q.root;
+    }
+
+    /**
+     * Note that a VEO has settled (landed at its final path), and record it in
+     * the locator.
+     *
+     * @param name the name of the VEO
+     */
+    public synchronized void settled(String name) {
+        Queued q;
+
+        if ((q = inFlight.remove(name)) == null) {
+            return;
+        }
+        queued[q.root] -= q.bytes;
+        if (locator != null) {
+            try {
+                locator.write(name + "\t" + q.veo.getAbsolutePath() + "\n");
+                locator.flush();
+            } catch (IOException ioe) {
+                System.err.println("VEOPlacement.settled(): failed writing to locator '" + locatorFile + "': " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Note that a queued VEO was abandoned (e.g. it could not be completed),
+     * so it no longer counts against its root, and is not recorded in the
+     * locator.
+     *
+     * @param name the name of the VEO
+     */
+    public synchronized void abandoned(String name) {
+        Queued q;
+
+        if ((q = inFlight.remove(name)) != null) {
+            queued[q.root] -= q.bytes;
+        }
+    }
+
+    /**
+     * Close the locator
+     */
+    public synchronized void close() {
+        if (locator == null) {
+            return;
+        }
+        try {
+            locator.close();
+        } catch (IOException ioe) {
+            System.err.println("VEOPlacement.close(): failed closing locator '" + locatorFile + "': " + ioe.getMessage());
+        }
+        locator = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb;
+        int i;
+
+        sb = new StringBuilder();
+        sb.append(policy == HASH ? "hash of name" : policy == LEAST_QUEUED ? "least queued bytes" : "round robin");
+        sb.append(" across");
+        for (i = 0; i < roots.length; i++) {
+            sb.append(" '").append(roots[i]).append('\'');
+        }
+        return sb.toString();
+    }
+}
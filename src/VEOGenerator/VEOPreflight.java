@@ -0,0 +1,428 @@
+package VEOGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * *************************************************************
+ *
+ * V E O P R E F L I G H T
+ *
+ * This class checks a data source before any VEOs are built from it.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class checks the whole of a data source before any VEOs are built from
+ * it, so that the problems that would otherwise only be found when the
+ * offending row is reached (possibly hours into a run) are all reported at
+ * once. The checks are:
+ * <ul>
+ * <li>each row has a known type, and the rows are in sequence: a VEO starts
+ * with a record ('r'), file ('f'), or simple record ('s') row; a record row is
+ * followed by one or more document ('d') rows; and each document row is
+ * followed by one or more encoding ('e') rows.</li>
+ * <li>the templates needed for each VEO are present.</li>
+ * <li>each VEO has a name (column 2), and no two VEOs have the same
+ * name.</li>
+ * <li>each row has at least as many columns as the highest column referred to
+ * by the template that will be applied to it.</li>
+ * <li>each file referred to (by an encoding row, column 3 of a simple record
+ * row, or a 'file' or 'encoding' substitution in a template) exists and is a
+ * normal file, and there is an encoding template for it.</li>
+ * </ul>
+ * The rows are read in order by the calling thread, which checks the sequence
+ * and the names. The rows are then checked in batches by a pool of threads;
+ * these checks consist mostly of looking up the files on disk, which is where
+ * the time goes on a large data source. The problems are returned in row
+ * order.
+ */
+public class VEOPreflight {
+
+    Fragment rData;         // template for record metadata (null if none)
+    Fragment dData;         // template for document metadata (null if none)
+    Fragment fData;         // template for file metadata (null if none)
+    VEOGenerator vg;        // source of the encoding templates (null if not checked)
+    int rCols;              // highest column referred to by rData
+    int dCols;              // highest column referred to by dData
+    int fCols;              // highest column referred to by fData
+    int threads;            // number of threads checking rows
+    int noRows;             // number of rows read
+    int noVEOs;             // number of VEOs found
+
+    static final int BATCH = 512;
+
+    // states of the sequence check
+    static final int START = 0;     // expecting the start of a VEO
+    static final int RECORD = 1;    // after a record row, expecting a document
+    static final int DOCUMENT = 2;  // after a document row, expecting an encoding
+    static final int ENCODING = 3;  // after an encoding row
+
+    /**
+     * A row of the data source
+     */
+    private static class Row {
+
+        int no;
+        int type;
+        String[] cols;
+
+        Row(int no, DataSource data) {
+            int i;
+
+            this.no = no;
+            type = data.getRowType();
+            cols = new String[data.getNoColumns()];
+            for (i = 0; i < cols.length; i++) {
+                cols[i] = data.getColumn(i + 1);
+            }
+        }
+
+        String column(int i) {
+            return i < 1 || i > cols.length || cols[i - 1] == null ? "" : cols[i - 1];
+        }
+    }
+
+    /**
+     * A problem found in a row
+     */
+    private static class Problem {
+
+        int row;
+        String msg;
+
+        Problem(int row, String msg) {
+            this.row = row;
+            this.msg = msg;
+        }
+    }
+
+    /**
+     * Construct a preflight check for a set of templates.
+     *
+     * @param rData the template for record metadata (null if none)
+     * @param dData the template for document metadata (null if none)
+     * @param fData the template for file metadata (null if none)
+     * @param vg the generator holding the encoding templates (null if the
+     * encoding templates are not to be checked)
+     * @param threads the number of threads checking rows
+     */
+    public VEOPreflight(Fragment rData, Fragment dData, Fragment fData, VEOGenerator vg, int threads) {
+        this.rData = rData;
+        this.dData = dData;
+        this.fData = fData;
+        this.vg = vg;
+        this.threads = threads < 1 ? 1 : threads;
+        rCols = highestColumn(rData);
+        dCols = highestColumn(dData);
+        fCols = highestColumn(fData);
+        noRows = 0;
+        noVEOs = 0;
+    }
+
+    /**
+     * Get the highest column referred to by a template
+     *
+     * @param template the template (may be null)
+     * @return the highest column (0 if none)
+     */
+    static int highestColumn(Fragment template) {
+        Fragment f;
+        int max, c;
+
+        max = 0;
+        for (f = template; f != null; f = f.next) {
+            c = 0;
+            if (f instanceof ColumnFragment) {
+                c = ((ColumnFragment) f).column;
+            } else if (f instanceof ColumnXMLFragment) {
+                c = ((ColumnXMLFragment) f).column;
+            } else if (f instanceof FileFragment) {
+                c = ((FileFragment) f).column;
+            } else if (f instanceof EncodingFragment) {
+                c = ((EncodingFragment) f).column;
+            }
+            if (c > max) {
+                max = c;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Check a data source. The data source is read to the end.
+     *
+     * @param data the data source
+     * @return the problems found, in row order (empty if none)
+     */
+    public List<String> check(DataSource data) {
+        ExecutorService pool;
+        ArrayDeque<Future<ArrayList<Problem>>> queue;
+        ArrayList<Problem> problems;
+        ArrayList<Row> batch;
+        HashMap<String, Integer> names;
+        ArrayList<String> result;
+        Row row;
+        Integer first;
+        int state, start;
+        String s;
+
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "VEOPreflight");
+            t.setDaemon(true);
+            return t;
+        });
+        queue = new ArrayDeque<>();
+        problems = new ArrayList<>();
+        batch = new ArrayList<>();
+        names = new HashMap<>();
+        state = START;
+        start = 0;
+        noRows = 0;
+        noVEOs = 0;
+        try {
+            while (!data.isAtEnd()) {
+                noRows++;
+                row = new Row(noRows, data);
+
+                // check the sequence of rows. A record or document that is
+                // not followed by what it needs is reported, and the row
+                // then considered afresh
+                if (state == RECORD && row.type != DataSource.DS_Document) {
+                    problems.add(new Problem(start, "record has no document rows"));
+                    state = START;
+                } else if (state == DOCUMENT && row.type != DataSource.DS_Encoding) {
+                    problems.add(new Problem(start, "document has no encoding rows"));
+                    state = row.type == DataSource.DS_Document ? DOCUMENT : START;
+                    start = row.no;
+                } else if (state == RECORD || (state == ENCODING && row.type == DataSource.DS_Document)) {
+                    state = DOCUMENT;
+                    start = row.no;
+                } else if (state == DOCUMENT || (state == ENCODING && row.type == DataSource.DS_Encoding)) {
+                    state = ENCODING;
+                } else if (state == ENCODING) {
+                    state = START;
+                }
+                if (state == START) {
+                    if (row.type == DataSource.DS_Record || row.type == DataSource.DS_File || row.type == DataSource.DS_SimpleRecord) {
+                        noVEOs++;
+                        s = row.column(2);
+                        if (s.equals("")) {
+                            problems.add(new Problem(row.no, "no VEO name in column 2"));
+                        } else if ((first = names.putIfAbsent(s, row.no)) != null) {
+                            problems.add(new Problem(row.no, "VEO name '" + s + "' was already used in row " + first));
+                        }
+                        if (row.type == DataSource.DS_Record) {
+                            state = RECORD;
+                            start = row.no;
+                        }
+                    } else if (row.type == DataSource.DS_Document || row.type == DataSource.DS_Encoding) {
+                        problems.add(new Problem(row.no, "out of sequence: '" + row.column(1).trim() + "' row is not part of a record"));
+                    } else {
+                        problems.add(new Problem(row.no, "unknown row type '" + row.column(1).trim() + "' (must be 'r', 'f', 's', 'd', or 'e')"));
+                    }
+                }
+
+                // check the rows themselves in batches in the background,
+                // collecting the results of the oldest batches when too many
+                // are queued
+                batch.add(row);
+                if (batch.size() == BATCH) {
+                    submit(pool, queue, batch);
+                    batch = new ArrayList<>();
+                    while (queue.size() > threads * 4 || (!queue.isEmpty() && queue.peek().isDone())) {
+                        collect(queue, problems);
+                    }
+                }
+                data.getNextRow();
+            }
+            if (state == RECORD) {
+                problems.add(new Problem(start, "record has no document rows"));
+            } else if (state == DOCUMENT) {
+                problems.add(new Problem(start, "document has no encoding rows"));
+            }
+            if (!batch.isEmpty()) {
+                submit(pool, queue, batch);
+            }
+            while (!queue.isEmpty()) {
+                collect(queue, problems);
+            }
+        } finally {
+            for (Future<ArrayList<Problem>> f : queue) {
+                f.cancel(true);
+            }
+            pool.shutdown();
+        }
+
+        // the sort is stable, so the problems in a row stay in order
+        Collections.sort(problems, (a, b) -> Integer.compare(a.row, b.row));
+        result = new ArrayList<>(problems.size());
+        for (Problem p : problems) {
+            result.add("row " + p.row + ": " + p.msg);
+        }
+        return result;
+    }
+
+    /**
+     * Queue a batch of rows to be checked
+     */
+    private void submit(ExecutorService pool, ArrayDeque<Future<ArrayList<Problem>>> queue, ArrayList<Row> batch) {
+        final ArrayList<Row> rows = batch;
+
+        queue.add(pool.submit(() -> {
+            ArrayList<Problem> p = new ArrayList<>();
+            for (Row r : rows) {
+                checkRow(r, p);
+            }
+            return p;
+        }));
+    }
+
+    /**
+     * Wait for the oldest batch to be checked, and add its problems
+     */
+    private void collect(ArrayDeque<Future<ArrayList<Problem>>> queue, ArrayList<Problem> problems) {
+        try {
+            problems.addAll(queue.remove().get());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            problems.add(new Problem(0, "preflight check interrupted"));
+        } catch (ExecutionException ee) {
+            problems.add(new Problem(0, "preflight check failed: " + ee.getCause().toString()));
+        }
+    }
+
+    /**
+     * Check one row against the template that will be applied to it, and the
+     * files it refers to
+     */
+    private void checkRow(Row row, ArrayList<Problem> p) {
+        if (row.type == DataSource.DS_Record) {
+            if (rData == null) {
+                p.add(new Problem(row.no, "no record template ('record.txt')"));
+            }
+            checkTemplate(row, rData, rCols, "record.txt", p);
+        } else if (row.type == DataSource.DS_Document) {
+            if (dData == null) {
+                p.add(new Problem(row.no, "no document template ('document.txt')"));
+            }
+            checkTemplate(row, dData, dCols, "document.txt", p);
+        } else if (row.type == DataSource.DS_File) {
+            if (fData == null) {
+                p.add(new Problem(row.no, "no file template ('file.txt')"));
+            }
+            checkTemplate(row, fData, fCols, "file.txt", p);
+        } else if (row.type == DataSource.DS_SimpleRecord) {
+            if (rData == null || dData == null) {
+                p.add(new Problem(row.no, "simple records need both a record and a document template ('record.txt' and 'document.txt')"));
+            }
+            checkTemplate(row, rData, rCols, "record.txt", p);
+            checkTemplate(row, dData, dCols, "document.txt", p);
+            checkFile(row, 3, true, p);
+        } else if (row.type == DataSource.DS_Encoding) {
+            checkFile(row, 2, true, p);
+        }
+    }
+
+    /**
+     * Check that a row has the columns a template refers to, and that the
+     * files it includes exist (a missing column has already been reported)
+     */
+    private void checkTemplate(Row row, Fragment template, int cols, String file, ArrayList<Problem> p) {
+        Fragment f;
+
+        if (template == null) {
+            return;
+        }
+        if (row.cols.length < cols) {
+            p.add(new Problem(row.no, "has " + row.cols.length + " column(s), but '" + file + "' refers to column " + cols));
+        }
+        for (f = template; f != null; f = f.next) {
+            if (f instanceof FileFragment && ((FileFragment) f).column <= row.cols.length) {
+                checkFile(row, ((FileFragment) f).column, false, p);
+            } else if (f instanceof EncodingFragment && ((EncodingFragment) f).column <= row.cols.length) {
+                checkFile(row, ((EncodingFragment) f).column, true, p);
+            }
+        }
+    }
+
+    /**
+     * Check that a file named in a column exists and is a normal file, and
+     * (if it will be an encoding) that there is an encoding template for it
+     */
+    private void checkFile(Row row, int col, boolean encoding, ArrayList<Problem> p) {
+        BasicFileAttributes attr;
+        Path path;
+        String s, type;
+        int i;
+
+        s = row.column(col);
+        if (s.equals("")) {
+            p.add(new Problem(row.no, "no file named in column " + col));
+            return;
+        }
+        try {
+            path = Paths.get(s);
+            attr = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attr.isRegularFile()) {
+                p.add(new Problem(row.no, "file '" + s + "' (column " + col + ") is not a normal file"));
+                return;
+            }
+        } catch (InvalidPathException ipe) {
+            p.add(new Problem(row.no, "file name '" + s + "' (column " + col + ") is invalid: " + ipe.getMessage()));
+            return;
+        } catch (NoSuchFileException nsfe) {
+            p.add(new Problem(row.no, "file '" + s + "' (column " + col + ") does not exist"));
+            return;
+        } catch (IOException ioe) {
+            p.add(new Problem(row.no, "file '" + s + "' (column " + col + ") cannot be read: " + ioe.toString()));
+            return;
+        }
+
+        // the encoding template is chosen by the file extension
+        if (encoding && vg != null) {
+            type = null;
+            i = path.getFileName().toString().lastIndexOf('.');
+            if (i != -1) {
+                type = path.getFileName().toString().substring(i + 1).toLowerCase();
+            }
+            if ((type == null || type.equals("") || vg.getEncodingTemplate(type) == null) && vg.getEncodingTemplate("unknown") == null) {
+                p.add(new Problem(row.no, "no encoding template for file '" + s + "', and no template for unknown encodings ('unknown.txt')"));
+            }
+        }
+    }
+
+    /**
+     * Get the number of rows read by the last check
+     *
+     * @return the number of rows
+     */
+    public int getNoRows() {
+        return noRows;
+    }
+
+    /**
+     * Get the number of VEOs found by the last check
+     *
+     * @return the number of VEOs
+     */
+    public int getNoVEOs() {
+        return noVEOs;
+    }
+}
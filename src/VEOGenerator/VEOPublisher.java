@@ -0,0 +1,368 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * *************************************************************
+ *
+ * V E O P U B L I S H E R
+ *
+ * This class publishes completed VEOs atomically (and durably).
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class ensures that a VEO only appears under its final name once it is
+ * complete. When a publisher is given to a {@link VEOGenerator} (see
+ * {@link VEOGenerator#setPublisher}), each VEO is written to a temporary
+ * sibling ('.&lt;name&gt;.partial'), and is renamed to its final name when
+ * endVEO() completes. If the VEO is abandoned, the temporary file is deleted.
+ * A crash therefore never leaves a truncated VEO under a name that downstream
+ * processes will pick up.
+ * <p>
+ * If durable publishing is requested, each VEO is also forced to disk before
+ * it is renamed, and the directory is forced after the rename. To avoid the
+ * cost of a disk flush per VEO, the VEOs are committed in groups: a group is
+ * committed when it reaches a given number of VEOs, or when the oldest VEO in
+ * it has waited for a given time. The files in a group are forced in parallel
+ * (allowing the file system to combine the flushes), then renamed, and then
+ * each directory is forced once. Committing happens on a background thread,
+ * so the generator carries on building VEOs. A VEO does not appear under its
+ * final name until its group is committed; {@link #flush} waits until all the
+ * VEOs published so far have been committed.
+ * <p>
+ * Listeners (see {@link #addListener}) are told of each VEO once it has
+ * appeared under its final name.
+ */
+public class VEOPublisher {
+
+    boolean durable;        // true if VEOs are forced to disk before renaming
+    int groupSize;          // commit a group when it has this many VEOs
+    long groupWindow;       // ...or when the oldest VEO has waited this long (ms)
+    ArrayList<File[]> pending; // VEOs (temporary file, final file) awaiting commit
+    int generation;         // number of groups started (identifies the pending group)
+    ScheduledExecutorService committer; // thread that commits groups
+    ExecutorService syncers; // threads that force the files in a group
+    ArrayList<Consumer<File>> listeners; // told when a VEO is published
+    VEOError failure;       // first failure to commit (null if none)
+    long noPublished;       // number of VEOs published
+    long noGroups;          // number of groups committed
+
+    static final int SYNC_THREADS = 4;
+
+    /**
+     * Construct a publisher.
+     *
+     * @param durable true if the VEOs are to be forced to disk before they are
+     * renamed
+     * @param groupSize the maximum number of VEOs in a group (if durable)
+     * @param groupWindow the maximum time a VEO waits for its group to be
+     * committed in milliseconds (if durable)
+     */
+    public VEOPublisher(boolean durable, int groupSize, long groupWindow) {
+        this.durable = durable;
+        this.groupSize = groupSize < 1 ? 1 : groupSize;
+        this.groupWindow = groupWindow < 0 ? 0 : groupWindow;
+        pending = new ArrayList<>();
+        generation = 0;
+        committer = null;
+        syncers = null;
+        listeners = new ArrayList<>();
+        failure = null;
+        noPublished = 0;
+        noGroups = 0;
+    }
+
+    /**
+     * Add a listener that is told of each VEO when it appears under its final
+     * name. Listeners are called on the committing thread.
+     *
+     * @param listener the listener
+     */
+    public synchronized void addListener(Consumer<File> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Get the temporary file used while writing a VEO
+     *
+     * @param veo the final name of the VEO
+     * @return the temporary file
+     */
+    public File tempFile(File veo) {
+        return new File(veo.getAbsoluteFile().getParentFile(), "." + veo.getName() + ".partial");
+    }
+
+    /**
+     * Publish a completed VEO. If publishing is not durable, the VEO is
+     * renamed immediately. Otherwise, it is added to the current group.
+     *
+     * @param temp the temporary file containing the completed VEO
+     * @param veo the final name of the VEO
+     * @throws VEOError if the VEO could not be renamed, or an earlier group
+     * failed to commit
+     */
+    public synchronized void publish(File temp, File veo) throws VEOError {
+        final int gen;
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (!durable) {
+            rename(temp, veo);
+            noPublished++;
+            notifyListeners(veo);
+            return;
+        }
+        if (committer == null) {
+            committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "VEOPublisher commit");
+                t.setDaemon(true);
+                return t;
+            });
+            syncers = Executors.newFixedThreadPool(SYNC_THREADS, r -> {
+                Thread t = new Thread(r, "VEOPublisher sync");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        pending.add(new File[]{temp, veo});
+
+        // first VEO in a group starts the clock
+        if (pending.size() == 1) {
+            gen = generation;
+            committer.schedule(() -> commitIfPending(gen), groupWindow, TimeUnit.MILLISECONDS);
+        }
+
+        // group is full
+        if (pending.size() >= groupSize) {
+            startGroup();
+        }
+    }
+
+    /**
+     * Commit the pending group if it is the one the timer was started for
+     */
+    private void commitIfPending(int gen) {
+        synchronized (this) {
+            if (gen != generation || pending.isEmpty()) {
+                return;
+            }
+            startGroup();
+        }
+    }
+
+    /**
+     * Hand the pending group to the committer. Must be called with the lock
+     * held.
+     */
+    private void startGroup() {
+        final ArrayList<File[]> group;
+
+        group = pending;
+        pending = new ArrayList<>();
+        generation++;
+        committer.execute(() -> commit(group));
+    }
+
+    /**
+     * Commit a group: force the files to disk in parallel, rename them, and
+     * force the directories. Only called on the committer thread.
+     */
+    private void commit(ArrayList<File[]> group) {
+        ArrayList<Callable<Void>> syncs;
+        LinkedHashSet<File> dirs;
+        int i;
+
+        syncs = new ArrayList<>();
+        for (i = 0; i < group.size(); i++) {
+            final File f = group.get(i)[0];
+            syncs.add(() -> {
+                force(f);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> fut : syncers.invokeAll(syncs)) {
+                fut.get();
+            }
+            dirs = new LinkedHashSet<>();
+            for (i = 0; i < group.size(); i++) {
+                rename(group.get(i)[0], group.get(i)[1]);
+                dirs.add(group.get(i)[1].getAbsoluteFile().getParentFile());
+            }
+            for (File d : dirs) {
+                forceDirectory(d);
+            }
+        } catch (VEOError ve) {
+            fail(ve);
+            return;
+        } catch (ExecutionException ee) {
+            fail(new VEOError("VEOPublisher.commit(): " + ee.getCause().getMessage()));
+            return;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            fail(new VEOError("VEOPublisher.commit(): interrupted"));
+            return;
+        }
+        synchronized (this) {
+            noPublished += group.size();
+            noGroups++;
+        }
+        for (i = 0; i < group.size(); i++) {
+            notifyListeners(group.get(i)[1]);
+        }
+    }
+
+    /**
+     * Record the first failure
+     */
+    private synchronized void fail(VEOError ve) {
+        System.err.println(ve.getMessage());
+        if (failure == null) {
+            failure = ve;
+        }
+    }
+
+    /**
+     * Tell the listeners that a VEO has been published
+     */
+    private void notifyListeners(File veo) {
+        ArrayList<Consumer<File>> l;
+        int i;
+
+        synchronized (this) {
+            l = new ArrayList<>(listeners);
+        }
+        for (i = 0; i < l.size(); i++) {
+            l.get(i).accept(veo);
+        }
+    }
+
+    /**
+     * Discard the temporary file of an abandoned VEO
+     *
+     * @param temp the temporary file
+     */
+    public void discard(File temp) {
+        try {
+            Files.deleteIfExists(temp.toPath());
+        } catch (IOException ioe) {
+            System.err.println("VEOPublisher.discard(): failed deleting '" + temp + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Commit the pending group (if any), and wait until all the VEOs published
+     * so far have been committed.
+     *
+     * @throws VEOError if any group failed to commit
+     */
+    public void flush() throws VEOError {
+        ScheduledExecutorService c;
+
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                startGroup();
+            }
+            c = committer;
+        }
+        if (c != null) {
+            try {
+                c.submit(() -> {
+                }).get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ee) {
+                /* cannot happen */ }
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Flush, and stop the background threads.
+     *
+     * @throws VEOError if any group failed to commit
+     */
+    public void close() throws VEOError {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                if (committer != null) {
+                    committer.shutdown();
+                    syncers.shutdown();
+                    committer = null;
+                    syncers = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Report on the VEOs published
+     *
+     * @return a one line report
+     */
+    public synchronized String report() {
+        if (!durable) {
+            return noPublished + " VEO(s) published";
+        }
+        return noPublished + " VEO(s) published durably in " + noGroups + " group commit(s)";
+    }
+
+    /**
+     * Force a file to disk
+     */
+    private static void force(File f) throws VEOError {
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            fc.force(true);
+        } catch (IOException ioe) {
+            throw new VEOError("VEOPublisher.force(): failed forcing '" + f + "' to disk: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Force a directory to disk (so that renames within it are durable). Not
+     * all platforms allow a directory to be opened, so failure is ignored.
+     */
+    private static void forceDirectory(File d) {
+        try (FileChannel fc = FileChannel.open(d.toPath(), StandardOpenOption.READ)) {
+            fc.force(true);
+        } catch (IOException ioe) {
+            /* ignore */ }
+    }
+
+    /**
+     * Rename a file, replacing any existing file
+     */
+    private static void rename(File from, File to) throws VEOError {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new VEOError("VEOPublisher.rename(): failed renaming '" + from + "' to '" + to + "': " + ioe.getMessage());
+        }
+    }
+}
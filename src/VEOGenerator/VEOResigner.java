@@ -0,0 +1,404 @@
+package VEOGenerator;
+
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * *************************************************************
+ *
+ * V E O R E S I G N E R
+ *
+ * This class replaces the signatures of existing V2 VEOs.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class re-signs existing V2 VEOs, typically because the certificate
+ * used to sign them is about to expire. The content of each VEO (the
+ * vers:SignedObject) is not re-encoded. Instead, a new VEO is written
+ * containing fresh signature and lock signature blocks for the new signer,
+ * followed by the original signed object. The signed object is located by
+ * scanning the memory mapped VEO (see {@link VEOVerifier}), and is digested in
+ * blocks and copied with FileChannel.transferTo() (see
+ * {@link VEOGenerator#includeSignedObject(FileChannel, long, long)}). The
+ * revision in the vers:id of the original signature blocks is retained.
+ * <p>
+ * The command line is
+ * <pre>
+ *    VEOResigner -s &lt;pfxFile&gt; &lt;password&gt; [-h &lt;hashAlg&gt;] [-o &lt;outputDir&gt;] [-threads n] [-nocheck] (file|directory)...
+ * </pre>
+ * Every file ending in '.veo' in the directory trees is re-signed, spread
+ * across the threads by a work stealing ForkJoinPool. If an output directory
+ * is given, the re-signed VEOs are written there (mirroring the layout of
+ * each directory given); otherwise each VEO is replaced by its re-signed
+ * version (the new VEO is written beside the original and renamed over it,
+ * so a VEO is never left half written). The hash algorithm is one of 'SHA1',
+ * 'SHA256' (the default), 'SHA384', or 'SHA512'.
+ * <p>
+ * Before a VEO is re-signed, its original signatures are checked (see
+ * {@link VEOVerifier#verify}). A VEO whose signatures do not verify has been
+ * altered or corrupted since it was signed; it is reported and left untouched,
+ * as re-signing it would make the altered content appear valid (and, in place,
+ * destroy the evidence). The check can be turned off with '-nocheck'.
+ */
+public class VEOResigner {
+
+    PFXUser signer;         // the new signer
+    String hashAlg;         // hash algorithm to use
+    File outputDir;         // where to put the re-signed VEOs (null if in place)
+    VEOVerifier checker;    // checks the original signatures (null if not checked)
+    ThreadLocal<VEOGenerator> generators; // a generator for each thread
+    LongAdder noOK;         // number of VEOs re-signed
+    LongAdder noFailed;     // number of VEOs that could not be re-signed
+    LongAdder noSkipped;    // number of VEOs skipped as their signatures did not verify
+    LongAdder bytes;        // total length of the signed objects copied
+
+    /**
+     * Construct a re-signer.
+     *
+     * @param signer the new signer
+     * @param hashAlg the hash algorithm to use ('SHA1', 'SHA256', 'SHA384',
+     * or 'SHA512')
+     * @param outputDir the directory to write the re-signed VEOs to (null to
+     * replace the VEOs in place)
+     * @param check true if the original signatures must verify before a VEO
+     * is re-signed
+     */
+    public VEOResigner(PFXUser signer, String hashAlg, File outputDir, boolean check) {
+        this.signer = signer;
+        this.hashAlg = hashAlg;
+        this.outputDir = outputDir;
+        checker = check ? new VEOVerifier(null) : null;
+        generators = new ThreadLocal<>();
+        noOK = new LongAdder();
+        noFailed = new LongAdder();
+        noSkipped = new LongAdder();
+        bytes = new LongAdder();
+    }
+
+    /**
+     * Re-sign a VEO.
+     *
+     * @param veo the VEO to re-sign
+     * @param dest the file to write the re-signed VEO to (may be the same as
+     * veo)
+     * @return the length of the signed object copied
+     * @throws VEOError if the VEO could not be re-signed
+     */
+    public long resign(File veo, File dest) throws VEOError {
+        String name = "VEOResigner.resign(): ";
+        VEOGenerator vg;
+        MappedByteBuffer mbb;
+        Path tmp;
+        long size, start, end, posn;
+        int i, revision;
+
+        vg = generator();
+        try {
+            if (dest.getAbsoluteFile().getParentFile() != null) {
+                Files.createDirectories(dest.getAbsoluteFile().getParentFile().toPath());
+            }
+            tmp = Files.createTempFile(dest.getAbsoluteFile().getParentFile().toPath(), ".resign-", ".tmp");
+        } catch (IOException ioe) {
+            throw new VEOError(name + "cannot create output for '" + dest + "': " + ioe.getMessage());
+        }
+        try (FileChannel fc = FileChannel.open(veo.toPath(), StandardOpenOption.READ)) {
+            size = fc.size();
+
+            // find the start of the signed object (including the indent), and
+            // the revision of the original signatures
+            mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, VEOVerifier.HEADER_LIMIT));
+            i = VEOVerifier.indexOf(mbb, VEOVerifier.SO_START, 0, mbb.limit());
+            if (i == -1) {
+                throw new VEOError(name + "'" + veo + "': no vers:SignedObject found");
+            }
+            revision = revision(mbb, i);
+            while (i > 0 && mbb.get(i - 1) == ' ') {
+                i--;
+            }
+            start = i;
+
+            // find the end of the signed object (including the line end)
+            posn = Math.max(start, size - VEOVerifier.TRAILER_LIMIT);
+            mbb = fc.map(FileChannel.MapMode.READ_ONLY, posn, size - posn);
+            i = VEOVerifier.lastIndexOf(mbb, VEOVerifier.SO_END);
+            if (i == -1) {
+                throw new VEOError(name + "'" + veo + "': no end of vers:SignedObject found");
+            }
+            i += VEOVerifier.SO_END.length;
+            if (i + 1 < mbb.limit() && mbb.get(i) == '\r' && mbb.get(i + 1) == '\n') {
+                i += 2;
+            } else if (i < mbb.limit() && mbb.get(i) == '\n') {
+                i++;
+            }
+            end = posn + i;
+
+            // write the new VEO
+            vg.startVEO(tmp.toFile(), 1, revision);
+            try {
+                vg.addSignatureBlock(signer, hashAlg);
+                vg.addLockSignatureBlock(1, signer, hashAlg);
+                vg.includeSignedObject(fc, start, end - start);
+                vg.endVEO();
+            } catch (VEOError ve) {
+                vg.cleanUpAfterError();
+                throw ve;
+            }
+        } catch (IOException ioe) {
+            deleteQuietly(tmp);
+            throw new VEOError(name + "failed reading '" + veo + "': " + ioe.getMessage());
+        } catch (VEOError ve) {
+            deleteQuietly(tmp);
+            throw ve;
+        }
+
+        // replace the destination with the new VEO
+        try {
+            Files.move(tmp, dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            deleteQuietly(tmp);
+            throw new VEOError(name + "failed replacing '" + dest + "': " + ioe.getMessage());
+        }
+        return end - start;
+    }
+
+    /**
+     * Get the revision from the vers:id of the first signature block
+     * ('Revision-r-Signature-n'). If none is found, 1 is returned.
+     */
+    private static int revision(MappedByteBuffer mbb, int limit) {
+        byte[] b;
+        String s;
+        int i, j;
+
+        b = new byte[limit];
+        mbb.position(0);
+        mbb.get(b);
+        s = new String(b, StandardCharsets.UTF_8);
+        i = s.indexOf("<vers:SignatureBlock");
+        if (i == -1 || (i = s.indexOf("Revision-", i)) == -1) {
+            return 1;
+        }
+        i += 9;
+        j = s.indexOf('-', i);
+        try {
+            return Integer.parseInt(s.substring(i, j));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Get the generator for this thread
+     */
+    private VEOGenerator generator() throws VEOError {
+        VEOGenerator vg;
+
+        vg = generators.get();
+        if (vg == null) {
+            vg = new VEOGenerator();
+            generators.set(vg);
+        }
+        return vg;
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ioe) {
+            /* ignore */ }
+    }
+
+    /**
+     * Re-sign all the VEOs in the given files and directory trees.
+     *
+     * @param roots the files and directories
+     * @param threads the number of threads to use
+     */
+    public void resignAll(ArrayList<File> roots, int threads) {
+        ForkJoinPool pool;
+        ArrayList<ResignTask> tasks;
+        File f, out;
+        int i;
+
+        pool = new ForkJoinPool(threads);
+        tasks = new ArrayList<>();
+        for (i = 0; i < roots.size(); i++) {
+            f = roots.get(i);
+            if (outputDir == null) {
+                out = f;
+            } else if (f.isDirectory()) {
+                out = outputDir;
+            } else {
+                out = new File(outputDir, f.getName());
+            }
+            tasks.add(new ResignTask(f, out));
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Re-sign a VEO, or the VEOs in a directory (forking a task for each
+     * entry)
+     */
+    private class ResignTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        File f;     // the VEO or directory
+        File dest;  // where the re-signed VEO (or directory) goes
+
+        ResignTask(File f, File dest) {
+            this.f = f;
+            this.dest = dest;
+        }
+
+        @Override
+        protected void compute() {
+            File[] entries;
+            ArrayList<ResignTask> subtasks;
+            long start, n;
+            int i;
+
+            if (f.isDirectory()) {
+                entries = f.listFiles();
+                if (entries == null) {
+                    report("FAILED\t" + f + "\tcannot list directory");
+                    return;
+                }
+                subtasks = new ArrayList<>();
+                for (i = 0; i < entries.length; i++) {
+                    if (entries[i].isDirectory() || entries[i].getName().toLowerCase().endsWith(".veo")) {
+                        subtasks.add(new ResignTask(entries[i], new File(dest, entries[i].getName())));
+                    }
+                }
+                invokeAll(subtasks);
+                return;
+            }
+            start = System.nanoTime();
+            if (checker != null) {
+                try {
+                    checker.verify(f);
+                } catch (VEOError ve) {
+                    noSkipped.increment();
+                    report("SKIPPED\t" + f + "\toriginal signatures do not verify, not re-signed: " + ve.getMessage());
+                    return;
+                }
+            }
+            try {
+                n = resign(f, dest);
+            } catch (VEOError ve) {
+                noFailed.increment();
+                report("FAILED\t" + f + "\t" + ve.getMessage());
+                return;
+            }
+            noOK.increment();
+            bytes.add(n);
+            report("OK\t" + f + "\t" + n + "\t" + (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    /**
+     * Print a result line (one line at a time)
+     */
+    private synchronized void report(String s) {
+        System.out.println(s);
+    }
+
+    /**
+     * Main program.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String args[]) {
+        VEOResigner vr;
+        PFXUser signer;
+        ArrayList<File> roots;
+        File pfxFile, outputDir;
+        String passwd, hashAlg;
+        int i, threads;
+        boolean check;
+        long start;
+        double secs;
+        String usage = "Usage: VEOResigner -s <pfxFile> <password> [-h <hashAlg>] [-o <outputDir>] [-threads n] [-nocheck] (file|directory)...";
+
+        pfxFile = null;
+        passwd = null;
+        hashAlg = "SHA256";
+        outputDir = null;
+        check = true;
+        threads = Runtime.getRuntime().availableProcessors();
+        roots = new ArrayList<>();
+        try {
+            for (i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase()) {
+                    case "-s":
+                        pfxFile = new File(args[++i]);
+                        passwd = args[++i];
+                        break;
+                    case "-h":
+                        hashAlg = args[++i];
+                        break;
+                    case "-o":
+                        outputDir = new File(args[++i]);
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-nocheck":
+                        check = false;
+                        break;
+                    default:
+                        roots.add(new File(args[i]));
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            roots.clear();
+        }
+        if (pfxFile == null || roots.isEmpty() || threads < 1) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+        try {
+            signer = new PFXUser(pfxFile.getPath(), passwd);
+        } catch (VEOError e) {
+            System.err.println("Failed opening PFX file: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        vr = new VEOResigner(signer, hashAlg, outputDir, check);
+        start = System.nanoTime();
+        vr.resignAll(roots, threads);
+        secs = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d VEO(s) re-signed, %d failed, %d skipped (signatures did not verify), %.1f MB of signed objects in %.2fs (%.1f VEOs/s, %.1f MB/s) using %d thread(s)",
+                vr.noOK.sum(), vr.noFailed.sum(), vr.noSkipped.sum(), vr.bytes.sum() / 1e6, secs,
+                (vr.noOK.sum() + vr.noFailed.sum() + vr.noSkipped.sum()) / secs, vr.bytes.sum() / 1e6 / secs, threads));
+        System.exit(vr.noFailed.sum() + vr.noSkipped.sum() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,450 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * *************************************************************
+ *
+ * V E O S E R V E R
+ *
+ * This class accepts jobs to build VEOs from local clients.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class runs a {@link VEOCreator} as a resident server. The cost of
+ * starting the JVM, decrypting the PFX file, and parsing the templates is paid
+ * once when the server starts, rather than once per batch. Jobs are then
+ * submitted by {@link VEOClient}, and each is run on the already warmed up
+ * VEOCreator.
+ * <p>
+ * The server only listens on the loopback interface. As the server signs
+ * VEOs with the organisation's key, it only accepts requests from clients
+ * that can read its token: a random value generated when the server starts,
+ * and written to a token file readable only by the owner of the server
+ * (removed when the server stops). Each connection carries one request, a
+ * single line of tab separated fields (UTF-8), the first of which is the
+ * token, and receives a single line in reply. The requests are:
+ * <ul>
+ * <li>BUILD &lt;controlFile&gt; [&lt;outputDir&gt;] - build the VEOs
+ * described in the control file (a tab separated or '.csv' file), placing them
+ * in the output directory (or the server's default output directory). The
+ * paths must be absolute, and the output directory must lie within the
+ * server's output root. Relative file names within the control file are
+ * resolved against the server's working directory. An output directory cannot
+ * be given if the server spreads VEOs across several output directories.</li>
+ * <li>STATUS - report the number of jobs run since the server started.</li>
+ * <li>STOP - stop the server once the current job is complete.</li>
+ * </ul>
+ * The reply to a BUILD request is
+ * <pre>
+ *    OK|FAILED veosBuilt waitMs buildMs [message]
+ * </pre>
+ * where waitMs is the time the job waited for earlier jobs to finish, and
+ * buildMs is the time taken to build the VEOs. Jobs are run one at a time in
+ * the order they are received, as a VEOCreator builds one VEO at a time.
+ * Connections are handled by a bounded pool of threads; if too many are
+ * waiting, a request is refused with a FAILED reply.
+ */
+public class VEOServer {
+
+    VEOCreator vc;          // the warmed up creator
+    int port;               // loopback port listened on
+    File tokenFile;         // file the token is written to
+    File outputRoot;        // output directories of jobs must lie within this
+    byte[] token;           // token clients must present
+    ServerSocket ss;        // the listening socket
+    ExecutorService worker; // the single thread that runs the jobs
+    ThreadPoolExecutor handlers; // threads handling connections
+    volatile boolean stopped; // true when the server has been asked to stop
+
+    // statistics
+    long noJobs;            // number of BUILD requests completed
+    long noFailed;          // number of BUILD requests that failed
+    long noVEOs;            // number of VEOs built
+
+    static final int HANDLERS = 8;          // threads handling connections
+    static final int WAITING = 64;          // connections waiting for a handler
+
+    /**
+     * Construct a server.
+     *
+     * @param vc the VEOCreator used to run the jobs
+     * @param port the loopback port to listen on
+     * @param tokenFile the file to write the token to (null for the default,
+     * see {@link #defaultTokenFile})
+     * @param outputRoot the directory that the output directories of jobs must
+     * lie within
+     * @throws VEOError if the VEOCreator is null, or the output root is not a
+     * directory
+     */
+    public VEOServer(VEOCreator vc, int port, File tokenFile, File outputRoot) throws VEOError {
+        String name = "VEOServer(): ";
+
+        if (vc == null) {
+            throw new VEOError(name + "VEOCreator is null");
+        }
+        try {
+            this.outputRoot = outputRoot.getCanonicalFile();
+        } catch (IOException ioe) {
+            throw new VEOError(name + "cannot resolve output root '" + outputRoot + "': " + ioe.getMessage());
+        }
+        if (!this.outputRoot.isDirectory()) {
+            throw new VEOError(name + "output root '" + outputRoot + "' is not a directory");
+        }
+        this.vc = vc;
+        this.port = port;
+        this.tokenFile = tokenFile == null ? defaultTokenFile(port) : tokenFile;
+        token = null;
+        ss = null;
+        worker = null;
+        handlers = null;
+        stopped = false;
+        noJobs = 0;
+        noFailed = 0;
+        noVEOs = 0;
+    }
+
+    /**
+     * Get the default token file for a port ('.veoserver-&lt;port&gt;' in the
+     * user's home directory)
+     *
+     * @param port the port the server listens on
+     * @return the token file
+     */
+    public static File defaultTokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".veoserver-" + port);
+    }
+
+    /**
+     * Generate the token, and write it to the token file, readable only by the
+     * owner. Any existing token file is replaced.
+     */
+    private void writeToken() throws VEOError {
+        byte[] b;
+        Path p;
+        String name = "VEOServer.writeToken(): ";
+
+        b = new byte[32];
+        new SecureRandom().nextBytes(b);
+        token = VEOManifest.toHex(b).getBytes(StandardCharsets.US_ASCII);
+        p = tokenFile.toPath();
+        try {
+            Files.deleteIfExists(p);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(p, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(p);
+                tokenFile.setReadable(false, false);
+                tokenFile.setWritable(false, false);
+                tokenFile.setReadable(true, true);
+                tokenFile.setWritable(true, true);
+            }
+            Files.write(p, token);
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed writing token file '" + tokenFile + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Read the token of a server from its token file
+     *
+     * @param tokenFile the token file
+     * @return the token
+     * @throws VEOError if the token file could not be read
+     */
+    public static String readToken(File tokenFile) throws VEOError {
+        try {
+            return new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.US_ASCII).trim();
+        } catch (IOException ioe) {
+            throw new VEOError("VEOServer.readToken(): failed reading token file '" + tokenFile + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Accept and run jobs. This method does not return until a STOP request is
+     * received or {@link #stop} is called, and the jobs already accepted have
+     * been completed.
+     *
+     * @throws VEOError if the server could not listen on the port, or the token
+     * file could not be written
+     */
+    public void run() throws VEOError {
+        Socket s;
+        String name = "VEOServer.run(): ";
+
+        try {
+            ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed listening on port " + port + ": " + ioe.getMessage());
+        }
+        try {
+            writeToken();
+        } catch (VEOError e) {
+            try {
+                ss.close();
+            } catch (IOException ioe) {
+                /* ignore */ }
+            throw e;
+        }
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread w = new Thread(r, "VEOServer worker");
+            w.setDaemon(true);
+            return w;
+        });
+        handlers = new ThreadPoolExecutor(HANDLERS, HANDLERS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WAITING), r -> {
+            Thread t = new Thread(r, "VEOServer connection");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("Accepting jobs on " + ss.getLocalSocketAddress() + " (token in '" + tokenFile + "', output within '" + outputRoot + "')");
+
+        try {
+            while (!stopped) {
+                try {
+                    s = ss.accept();
+                } catch (IOException ioe) {
+                    if (!stopped) {
+                        System.err.println(name + "failed accepting connection: " + ioe.getMessage());
+                    }
+                    continue;
+                }
+                startHandler(s);
+            }
+        } finally {
+            try {
+                ss.close();
+            } catch (IOException ioe) {
+                /* ignore */ }
+            tokenFile.delete();
+
+            // let the jobs already accepted finish (and their replies be
+            // sent) before the caller closes down the creator
+            handlers.shutdown();
+            worker.shutdown();
+            try {
+                worker.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                handlers.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            System.out.println("Server stopped after " + noJobs + " job(s) (" + noFailed + " failed), " + noVEOs + " VEO(s) built");
+        }
+    }
+
+    /**
+     * Stop the server. Jobs already accepted are completed.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            if (ss != null) {
+                ss.close();
+            }
+        } catch (IOException ioe) {
+            /* ignore */ }
+    }
+
+    /**
+     * Pass a connection from a client to a handler thread, refusing it if too
+     * many connections are waiting
+     */
+    private void startHandler(Socket s) {
+        try {
+            handlers.execute(() -> handle(s));
+        } catch (RejectedExecutionException ree) {
+            try (Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+                w.write("FAILED\tServer busy\n");
+            } catch (IOException ioe) {
+                /* ignore */ }
+            try {
+                s.close();
+            } catch (IOException ioe) {
+                /* ignore */ }
+        }
+    }
+
+    /**
+     * Handle a single request from a client
+     */
+    private void handle(Socket s) {
+        BufferedReader br;
+        Writer w;
+        String request, reply;
+        String[] fields;
+
+        try {
+            br = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            request = br.readLine();
+            if (request == null) {
+                return;
+            }
+            fields = request.split("\t", -1);
+
+            // the first field is the token; the request follows
+            if (fields.length < 2 || !MessageDigest.isEqual(token, fields[0].getBytes(StandardCharsets.US_ASCII))) {
+                w.write("FAILED\tInvalid token\n");
+                w.flush();
+                return;
+            }
+            fields = Arrays.copyOfRange(fields, 1, fields.length);
+            switch (fields[0].toUpperCase()) {
+                case "BUILD":
+                    reply = build(fields);
+                    break;
+                case "STATUS":
+                    reply = status();
+                    break;
+                case "STOP":
+                    reply = "OK";
+                    stop();
+                    break;
+                default:
+                    reply = "FAILED\tUnknown request '" + fields[0] + "'";
+                    break;
+            }
+            w.write(reply);
+            w.write("\n");
+            w.flush();
+        } catch (IOException ioe) {
+            System.err.println("VEOServer: failed handling request: " + ioe.getMessage());
+        } finally {
+            try {
+                s.close();
+            } catch (IOException ioe) {
+                /* ignore */ }
+        }
+    }
+
+    /**
+     * Run a BUILD request on the worker thread, and wait for it to finish
+     *
+     * @param fields the fields of the request
+     * @return the reply to send to the client
+     */
+    private String build(String[] fields) {
+        final File control, output;
+        final long submitted;
+        Future<String> result;
+
+        if (fields.length < 2 || fields[1].equals("")) {
+            return "FAILED\t0\t0\t0\tNo control file specified";
+        }
+        control = new File(fields[1]);
+        if (!control.isAbsolute() || !control.isFile()) {
+            return "FAILED\t0\t0\t0\tControl file '" + fields[1] + "' is not an absolute path to a file";
+        }
+        output = (fields.length < 3 || fields[2].equals("")) ? null : new File(fields[2]);
+        if (output != null && (!output.isAbsolute() || !output.isDirectory())) {
+            return "FAILED\t0\t0\t0\tOutput directory '" + fields[2] + "' is not an absolute path to a directory";
+        }
+        if (output != null && !withinRoot(output)) {
+            return "FAILED\t0\t0\t0\tOutput directory '" + fields[2] + "' is not within the server's output root";
+        }
+        if (output != null && vc.placement != null) {
+            return "FAILED\t0\t0\t0\tAn output directory cannot be given, as the server spreads VEOs across several output directories";
+        }
+
+        submitted = System.nanoTime();
+        try {
+            result = worker.submit(() -> runJob(control, output, submitted));
+            return result.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return "FAILED\t0\t0\t0\tInterrupted";
+        } catch (ExecutionException | RuntimeException e) {
+            return "FAILED\t0\t0\t0\t" + e.toString();
+        }
+    }
+
+    /**
+     * Is a directory within the output root (following any links)?
+     */
+    private boolean withinRoot(File dir) {
+        String d, r;
+
+        try {
+            d = dir.getCanonicalPath();
+        } catch (IOException ioe) {
+            return false;
+        }
+        r = outputRoot.getPath();
+        return d.equals(r) || d.startsWith(r.endsWith(File.separator) ? r : r + File.separator);
+    }
+
+    /**
+     * Run a job. Only ever called on the worker thread.
+     */
+    private String runJob(File control, File output, long submitted) {
+        File defaultOutput;
+        long started, finished;
+        String error;
+
+        started = System.nanoTime();
+        defaultOutput = vc.outputDir;
+        error = null;
+        try {
+            if (output != null) {
+                vc.outputDir = output;
+            }
+            vc.buildVEOs(control);
+        } catch (VEOError ve) {
+            error = ve.getMessage();
+        } finally {
+            vc.outputDir = defaultOutput;
+        }
+        finished = System.nanoTime();
+
+        synchronized (this) {
+            noJobs++;
+            noVEOs += vc.veosBuilt;
+            if (error != null) {
+                noFailed++;
+            }
+        }
+        if (vc.verbose) {
+            System.err.println("Job '" + control + "': " + vc.veosBuilt + " VEO(s) in " + (finished - started) / 1000000 + "ms" + (error != null ? " FAILED: " + error : ""));
+        }
+        return (error == null ? "OK" : "FAILED") + "\t" + vc.veosBuilt
+                + "\t" + (started - submitted) / 1000000
+                + "\t" + (finished - started) / 1000000
+                + (error == null ? "" : "\t" + error.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+    }
+
+    /**
+     * Reply to a STATUS request
+     */
+    private synchronized String status() {
+        return "OK\t" + noJobs + "\t" + noFailed + "\t" + noVEOs;
+    }
+}
@@ -0,0 +1,484 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * *************************************************************
+ *
+ * V E O V E R I F I E R
+ *
+ * This class verifies the signatures in a V2 VEO.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class verifies the signatures and lock signature in V2 VEOs (such as
+ * those produced by {@link VEOGenerator}) without parsing the VEO as XML.
+ * <p>
+ * The VEO is memory mapped. The signature blocks at the start of the VEO are
+ * located with a simple scan for the element tags, and the signed object is
+ * located by scanning for the '&lt;vers:SignedObject' start tag from the start
+ * of the VEO and the '&lt;/vers:SignedObject&gt;' end tag from the end. The
+ * signed object is then passed through every signature in a single pass,
+ * removing whitespace using the same rules as
+ * {@link VEOGenerator#outputDataToVeo(java.nio.ByteBuffer)}, and in blocks
+ * rather than byte by byte. Finally, the lock signature is checked against
+ * the base64 text of the signature it signs.
+ * <p>
+ * The public key used to verify each signature is taken from the first
+ * certificate in the signature block. If an expected key is given to the
+ * constructor, each signature block must also contain that key.
+ * <p>
+ * A verifier can also check VEOs in the background as they are produced (see
+ * {@link #submit}). A VEO that fails is moved into a 'quarantine' directory
+ * beside it. Each verifier has one background thread, so verification of one
+ * VEO overlaps the building of the next.
+ */
+public class VEOVerifier {
+
+    PublicKey expectedKey;  // if not null, the key that must have signed the VEOs
+    ExecutorService worker; // background worker (null until submit() is called)
+    long noVerified;        // number of VEOs verified in the background
+    long noFailed;          // number of VEOs that failed background verification
+
+    static final int WINDOW = 64 * 1024 * 1024; // size of mapped window over signed object
+    static final int BLOCK = 64 * 1024;         // block of bytes passed to signatures
+    static final int HEADER_LIMIT = 16 * 1024 * 1024; // limit of search for signed object
+    static final int TRAILER_LIMIT = 64 * 1024; // limit of search for end of signed object
+
+    static final byte[] SO_START = "<vers:SignedObject".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] SO_END = "</vers:SignedObject>".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * A signature or lock signature block found in a VEO
+     */
+    static class SigBlock {
+
+        String algorithm;       // Java name of signature algorithm
+        String signatureText;   // the base64 text of the signature (whitespace removed)
+        X509Certificate cert;   // the signer's certificate
+        int signs;              // for a lock signature, the signature it signs
+        Signature sig;          // the signature being checked
+    }
+
+    /**
+     * Construct a verifier.
+     *
+     * @param expectedKey if not null, each signature must have been made with
+     * the private key corresponding to this public key
+     */
+    public VEOVerifier(PublicKey expectedKey) {
+        this.expectedKey = expectedKey;
+        worker = null;
+        noVerified = 0;
+        noFailed = 0;
+    }
+
+    /**
+     * Verify the signatures and lock signature in a VEO.
+     *
+     * @param veo the VEO to check
+     * @return the length of the signed object in bytes
+     * @throws VEOError if the VEO could not be read, is not in the expected
+     * form, or a signature did not verify
+     */
+    public long verify(File veo) throws VEOError {
+        String name = "VEOVerifier.verify(): ";
+        ArrayList<SigBlock> sigs;
+        SigBlock lock, sb;
+        MappedByteBuffer mbb;
+        long size, start, end, posn;
+        int i, len, n;
+        byte[] block, header;
+
+        try (FileChannel fc = FileChannel.open(veo.toPath(), StandardOpenOption.READ)) {
+            size = fc.size();
+
+            // find the start of the signed object, and parse the signature
+            // blocks that precede it
+            mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER_LIMIT));
+            start = indexOf(mbb, SO_START, 0, mbb.limit());
+            if (start == -1) {
+                throw new VEOError(name + "'" + veo + "': no vers:SignedObject found");
+            }
+            header = new byte[(int) start];
+            mbb.get(header);
+            sigs = new ArrayList<>();
+            lock = parseSigBlocks(new String(header, StandardCharsets.UTF_8), sigs, veo);
+
+            // find the end of the signed object
+            posn = Math.max(start, size - TRAILER_LIMIT);
+            mbb = fc.map(FileChannel.MapMode.READ_ONLY, posn, size - posn);
+            i = lastIndexOf(mbb, SO_END);
+            if (i == -1) {
+                throw new VEOError(name + "'" + veo + "': no end of vers:SignedObject found");
+            }
+            end = posn + i + SO_END.length;
+
+            // pass the signed object through each signature, a window at a
+            // time, removing whitespace
+            block = new byte[BLOCK];
+            for (posn = start; posn < end; posn += len) {
+                len = (int) Math.min(WINDOW, end - posn);
+                mbb = fc.map(FileChannel.MapMode.READ_ONLY, posn, len);
+                while (mbb.hasRemaining()) {
+                    n = Math.min(BLOCK, mbb.remaining());
+                    mbb.get(block, 0, n);
+                    n = stripWhitespace(block, n);
+                    for (i = 0; i < sigs.size(); i++) {
+                        sigs.get(i).sig.update(block, 0, n);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed reading '" + veo + "': " + ioe.getMessage());
+        } catch (SignatureException se) {
+            throw new VEOError(name + "'" + veo + "': " + se.getMessage());
+        }
+
+        // check the signatures
+        for (i = 0; i < sigs.size(); i++) {
+            sb = sigs.get(i);
+            if (!check(sb.sig, sb.signatureText)) {
+                throw new VEOError(name + "'" + veo + "': signature " + (i + 1) + " does not verify");
+            }
+        }
+
+        // check the lock signature
+        if (lock.signs < 1 || lock.signs > sigs.size()) {
+            throw new VEOError(name + "'" + veo + "': lock signature signs non-existent signature " + lock.signs);
+        }
+        try {
+            lock.sig.update(sigs.get(lock.signs - 1).signatureText.getBytes(StandardCharsets.US_ASCII));
+        } catch (SignatureException se) {
+            throw new VEOError(name + "'" + veo + "': " + se.getMessage());
+        }
+        if (!check(lock.sig, lock.signatureText)) {
+            throw new VEOError(name + "'" + veo + "': lock signature does not verify");
+        }
+        return end - start;
+    }
+
+    /**
+     * Parse the signature blocks and lock signature block in the header of a
+     * VEO, initialising a Signature for each.
+     *
+     * @param header the text of the VEO before the signed object
+     * @param sigs the list to add the signature blocks to
+     * @param veo the VEO (for error messages)
+     * @return the lock signature block
+     * @throws VEOError if the blocks are not in the expected form
+     */
+    private SigBlock parseSigBlocks(String header, ArrayList<SigBlock> sigs, File veo) throws VEOError {
+        String name = "VEOVerifier.parseSigBlocks(): ";
+        SigBlock lock;
+        String s;
+        int i, j, k;
+
+        i = 0;
+        while ((i = header.indexOf("<vers:SignatureBlock", i)) != -1) {
+            j = header.indexOf("</vers:SignatureBlock>", i);
+            if (j == -1) {
+                throw new VEOError(name + "'" + veo + "': unterminated vers:SignatureBlock");
+            }
+            sigs.add(parseSigBlock(header.substring(i, j), veo));
+            i = j;
+        }
+        if (sigs.isEmpty()) {
+            throw new VEOError(name + "'" + veo + "': no vers:SignatureBlock found");
+        }
+        i = header.indexOf("<vers:LockSignatureBlock");
+        if (i == -1) {
+            throw new VEOError(name + "'" + veo + "': no vers:LockSignatureBlock found");
+        }
+        j = header.indexOf("</vers:LockSignatureBlock>", i);
+        if (j == -1) {
+            throw new VEOError(name + "'" + veo + "': unterminated vers:LockSignatureBlock");
+        }
+        lock = parseSigBlock(header.substring(i, j), veo);
+
+        // get the signature signed from 'vers:signsSignatureBlock="Revision-r-Signature-n"'
+        k = header.indexOf('>', i);
+        s = header.substring(i, k);
+        k = s.lastIndexOf("-Signature-");
+        if (k == -1) {
+            throw new VEOError(name + "'" + veo + "': lock signature does not identify signature block signed");
+        }
+        s = s.substring(k + 11).replace("\"", "").trim();
+        try {
+            lock.signs = Integer.parseInt(s);
+        } catch (NumberFormatException nfe) {
+            throw new VEOError(name + "'" + veo + "': invalid signature block signed: '" + s + "'");
+        }
+        return lock;
+    }
+
+    /**
+     * Parse a single signature block
+     */
+    private SigBlock parseSigBlock(String block, File veo) throws VEOError {
+        String name = "VEOVerifier.parseSigBlock(): ";
+        SigBlock sb;
+        String s;
+
+        sb = new SigBlock();
+        s = element(block, "vers:SignatureAlgorithmIdentifier", veo);
+        sb.algorithm = algorithmName(s.trim());
+        if (sb.algorithm == null) {
+            throw new VEOError(name + "'" + veo + "': unsupported signature algorithm '" + s.trim() + "'");
+        }
+        sb.signatureText = removeWhitespace(element(block, "vers:Signature", veo));
+        s = element(block, "vers:Certificate", veo);
+        try {
+            sb.cert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+                    new ByteArrayInputStream(Base64.getMimeDecoder().decode(s)));
+        } catch (CertificateException | IllegalArgumentException e) {
+            throw new VEOError(name + "'" + veo + "': invalid certificate: " + e.getMessage());
+        }
+        if (expectedKey != null && !expectedKey.equals(sb.cert.getPublicKey())) {
+            throw new VEOError(name + "'" + veo + "': signed with an unexpected key (" + sb.cert.getSubjectX500Principal() + ")");
+        }
+        try {
+            sb.sig = Signature.getInstance(sb.algorithm);
+            sb.sig.initVerify(sb.cert.getPublicKey());
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new VEOError(name + "'" + veo + "': " + e.getMessage());
+        }
+        return sb;
+    }
+
+    /**
+     * Get the text of the first element with the given tag
+     */
+    private static String element(String s, String tag, File veo) throws VEOError {
+        int i, j;
+
+        i = s.indexOf("<" + tag + ">");
+        if (i == -1) {
+            throw new VEOError("VEOVerifier.element(): '" + veo + "': no " + tag + " found in signature block");
+        }
+        i += tag.length() + 2;
+        j = s.indexOf("</" + tag + ">", i);
+        if (j == -1) {
+            throw new VEOError("VEOVerifier.element(): '" + veo + "': unterminated " + tag);
+        }
+        return s.substring(i, j);
+    }
+
+    /**
+     * Map the signature algorithm identifier in a VEO to a Java algorithm
+     * name. Both the object identifiers written by VEOGenerator and the Java
+     * names are accepted.
+     *
+     * @param id the identifier
+     * @return the Java name, or null if not supported
+     */
+    static String algorithmName(String id) {
+        switch (id) {
+            case "1.2.840.10040.4.3":
+            case "SHA1withDSA":
+                return "SHA1withDSA";
+            case "1.2.840.113549.1.1.5":
+            case "SHA1withRSA":
+                return "SHA1withRSA";
+            case "1.2.840.113549.1.1.11":
+            case "SHA256withRSA":
+                return "SHA256withRSA";
+            case "1.2.840.113549.1.1.12":
+            case "SHA384withRSA":
+                return "SHA384withRSA";
+            case "1.2.840.113549.1.1.13":
+            case "SHA512withRSA":
+                return "SHA512withRSA";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Check a signature against its base64 text
+     */
+    private static boolean check(Signature sig, String signatureText) {
+        try {
+            return sig.verify(Base64.getDecoder().decode(signatureText));
+        } catch (SignatureException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Remove the whitespace (tab, line feed, carriage return, space) from the
+     * start of a block of bytes, as done when signing
+     *
+     * @param b the bytes
+     * @param len the number of bytes in the block
+     * @return the number of bytes remaining
+     */
+    static int stripWhitespace(byte[] b, int len) {
+        int i, j;
+        byte c;
+
+        j = 0;
+        for (i = 0; i < len; i++) {
+            c = b[i];
+            if (c == 0x09 || c == 0x0a || c == 0x0d || c == 0x20) {
+                continue;
+            }
+            b[j] = c;
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * Remove the whitespace from a string
+     */
+    static String removeWhitespace(String s) {
+        StringBuilder sb;
+        char c;
+        int i;
+
+        sb = new StringBuilder(s.length());
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            if (c != '\t' && c != '\n' && c != '\r' && c != ' ') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Find the first occurrence of a pattern in a region of a buffer
+     *
+     * @return the index of the pattern, or -1 if not found
+     */
+    static int indexOf(MappedByteBuffer mbb, byte[] pattern, int from, int to) {
+        int i, j;
+
+        for (i = from; i <= to - pattern.length; i++) {
+            for (j = 0; j < pattern.length && mbb.get(i + j) == pattern[j]; j++) {
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the last occurrence of a pattern in a buffer
+     *
+     * @return the index of the pattern, or -1 if not found
+     */
+    static int lastIndexOf(MappedByteBuffer mbb, byte[] pattern) {
+        int i, j;
+
+        for (i = mbb.limit() - pattern.length; i >= 0; i--) {
+            for (j = 0; j < pattern.length && mbb.get(i + j) == pattern[j]; j++) {
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Verify a VEO in the background. If the VEO fails verification the
+     * failure is reported and the VEO is moved to a 'quarantine' directory
+     * beside it.
+     *
+     * @param veo the completed VEO
+     */
+    public synchronized void submit(File veo) {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "VEOVerifier");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        worker.submit(() -> verifyInBackground(veo));
+    }
+
+    /**
+     * Verify a VEO, quarantining it if it fails. Only called on the worker
+     * thread.
+     */
+    private void verifyInBackground(File veo) {
+        File quarantine;
+
+        noVerified++;
+        try {
+            verify(veo);
+            return;
+        } catch (VEOError ve) {
+            noFailed++;
+            System.err.println("VEO FAILED VERIFICATION: " + ve.getMessage());
+        }
+        quarantine = new File(veo.getAbsoluteFile().getParentFile(), "quarantine");
+        try {
+            Files.createDirectories(quarantine.toPath());
+            Files.move(veo.toPath(), new File(quarantine, veo.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Moved '" + veo + "' to '" + quarantine + "'");
+        } catch (IOException ioe) {
+            System.err.println("Failed to quarantine '" + veo + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Wait until all the VEOs submitted have been verified.
+     *
+     * @return the number of VEOs that have failed verification since the
+     * verifier was created
+     */
+    public long drain() {
+        synchronized (this) {
+            if (worker == null) {
+                return 0;
+            }
+        }
+        try {
+            worker.submit(() -> {
+            }).get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            /* cannot happen */ }
+        return noFailed;
+    }
+
+    /**
+     * Get the number of VEOs verified in the background.
+     *
+     * @return the number verified (after drain())
+     */
+    public long getNoVerified() {
+        return noVerified;
+    }
+}
@@ -0,0 +1,666 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * *************************************************************
+ *
+ * V E O W A T C H E R
+ *
+ * This class builds VEOs continuously from content placed in an inbox
+ * directory.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class turns a {@link VEOCreator} into a long running service. Rather
+ * than being run as a batch job, it watches an inbox directory and builds VEOs
+ * as content arrives. The VEOCreator (and hence the parsed templates and the
+ * signer's private key) is loaded once and reused for every VEO.
+ * <p>
+ * Two kinds of content may be placed in the inbox:
+ * <ul>
+ * <li>a control file (a file ending in '.txt' or '.csv' whose first line
+ * starts with a row type, e.g. 'r' or 's', and a separator). The VEOs
+ * described in the control file are built exactly as if it had been passed
+ * with the -d command line argument, except that relative paths in the
+ * encoding column of 'e' rows and the file column of 's' rows are resolved
+ * against the directory containing the control file (i.e. the inbox), not the
+ * working directory. (Other files, e.g. those read by file substitutions in
+ * the templates, must be given by absolute path.) Any files it refers to must
+ * already be in place. Files in the inbox that a control file refers to (by
+ * absolute path, or relative to the inbox) are attachments: they are never
+ * treated as control files or payloads themselves, and are moved aside with
+ * the control file once it has been processed.</li>
+ * <li>a payload described by a sidecar file (e.g. 'scan001.tif' and
+ * 'scan001.tif.meta'). A simple record VEO ('scan001.tif.veo') is built from the
+ * payload, with the metadata columns taken from the first line of the sidecar
+ * file (separated by tabs) as for a {@link DirectoryDataSource}.</li>
+ * </ul>
+ * Any other file (or a payload still waiting for its sidecar) is ignored once
+ * it has been unchanged for ten times the quiet period (and at least a
+ * minute); it is left in the inbox, and is looked at again if it changes, or
+ * if its sidecar or marker arrives.
+ * A file is only processed once it is complete. This is signalled either by
+ * the arrival of a marker file (the name of the file with '.ready' appended,
+ * e.g. 'scan001.tif.ready'), or by the file (and its sidecar) not having
+ * changed for a quiet period. The marker file is preferable when the producer
+ * can create it, as the quiet period adds directly to the latency.
+ * <p>
+ * Files that become complete at about the same time are processed together as
+ * a batch; the VEOs of a batch are published (and verified) together once the
+ * whole batch has been built. Once processed, the files (including any
+ * sidecar, marker, and attachments) are moved to the 'processed' subdirectory
+ * of the inbox, or to the 'failed' subdirectory if the VEO could not be built.
+ * The latency from the arrival of each file to the completion of its VEO(s) is
+ * reported after each batch, and in total when the watcher stops.
+ */
+public class VEOWatcher {
+
+    VEOCreator vc;          // creator holding the templates and the signer
+    Path inbox;             // directory being watched
+    Path processed;         // where successfully processed files are moved
+    Path failed;            // where files that failed are moved
+    long quietPeriod;       // time (ms) a file must be unchanged to be complete
+    String sidecarSuffix;   // suffix of sidecar files
+    HashMap<Path, Pending> pending; // files seen but not yet processed
+    volatile boolean stopped; // true when the watcher has been asked to stop
+    volatile boolean running; // true while run() is watching the inbox
+
+    // statistics
+    long noProcessed;       // number of files processed successfully
+    long noFailed;          // number of files that failed
+    long totalLatency;      // sum of the latencies (ms) of processed files
+    long maxLatency;        // largest latency (ms) seen
+
+    private static final String MARKER_SUFFIX = ".ready";
+    private static final long MIN_AGE_OUT = 60000; // least time (ms) before an unrecognised file is ignored
+
+    /**
+     * A file in the inbox that has not yet been processed
+     */
+    private static class Pending {
+
+        Path file;          // the file
+        long size;          // size when last examined
+        long modified;      // last modified time when last examined
+        long arrived;       // time (ms) the file was first seen
+        long lastChange;    // time (ms) the size or modified time last changed
+        Set<Path> refs;     // files in the inbox a control file refers to (null if not read)
+        long refsSize;      // size of the control file when refs was read
+        long refsModified;  // last modified time of the control file when refs was read
+
+        Pending(Path file, long now) {
+            this.file = file;
+            size = -1;
+            modified = -1;
+            arrived = now;
+            lastChange = now;
+            refs = null;
+            refsSize = -1;
+            refsModified = -1;
+        }
+    }
+
+    /**
+     * Construct a watcher on an inbox. The 'processed' and 'failed'
+     * subdirectories are created if necessary.
+     *
+     * @param vc the VEOCreator used to build the VEOs
+     * @param inbox the directory to watch
+     * @param quietPeriod the time (in milliseconds) a file must remain unchanged
+     * before it is considered complete
+     * @throws VEOError if the inbox is not a directory or the subdirectories
+     * could not be created
+     */
+    public VEOWatcher(VEOCreator vc, File inbox, long quietPeriod) throws VEOError {
+        String name = "VEOWatcher(): ";
+
+        if (vc == null) {
+            throw new VEOError(name + "VEOCreator is null");
+        }
+        if (inbox == null || !inbox.isDirectory()) {
+            throw new VEOError(name + "inbox '" + inbox + "' is not a directory");
+        }
+        this.vc = vc;
+        this.inbox = inbox.toPath().toAbsolutePath().normalize();
+        this.quietPeriod = quietPeriod < 0 ? 0 : quietPeriod;
+        sidecarSuffix = ".meta";
+        processed = this.inbox.resolve("processed");
+        failed = this.inbox.resolve("failed");
+        try {
+            Files.createDirectories(processed);
+            Files.createDirectories(failed);
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed creating processed or failed directory in '" + this.inbox + "': " + ioe.getMessage());
+        }
+        pending = new HashMap<>();
+        stopped = false;
+        running = false;
+        noProcessed = 0;
+        noFailed = 0;
+        totalLatency = 0;
+        maxLatency = 0;
+    }
+
+    /**
+     * Watch the inbox, building VEOs as content becomes complete. This method
+     * does not return until {@link #stop} is called (or the thread is
+     * interrupted). Files already in the inbox when the method is called are
+     * processed as if they had just arrived.
+     *
+     * @throws VEOError if the inbox could not be watched
+     */
+    public void run() throws VEOError {
+        WatchService ws;
+        WatchKey key;
+        Path p;
+        long now, wait;
+        String name = "VEOWatcher.run(): ";
+
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+            inbox.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed watching '" + inbox + "': " + ioe.getMessage());
+        }
+        System.out.println("Watching '" + inbox + "' (quiet period " + quietPeriod + "ms)");
+
+        running = true;
+        try {
+            scan(System.currentTimeMillis());
+            wait = Math.max(50, Math.min(quietPeriod / 2, 1000));
+            while (!stopped) {
+
+                // collect the files that have arrived or changed
+                try {
+                    key = ws.poll(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ClosedWatchServiceException cwse) {
+                    break;
+                }
+                now = System.currentTimeMillis();
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(now);
+                            continue;
+                        }
+                        p = inbox.resolve((Path) event.context());
+                        note(p, now);
+                    }
+                    key.reset();
+                }
+
+                // build VEOs from the files that are now complete
+                processBatch(System.currentTimeMillis());
+            }
+        } finally {
+            running = false;
+            try {
+                ws.close();
+            } catch (IOException ioe) {
+                /* ignore */ }
+        }
+        report();
+    }
+
+    /**
+     * Ask the watcher to stop. This method returns immediately; run() returns
+     * once the file being processed is complete, and the VEOs built have been
+     * published.
+     *
+     * @return true if the watcher was running (so the caller may wait for
+     * run() to return)
+     */
+    public boolean stop() {
+        stopped = true;
+        return running;
+    }
+
+    /**
+     * Look for files already in the inbox
+     */
+    private void scan(long now) {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(inbox)) {
+            for (Path p : ds) {
+                note(p, now);
+            }
+        } catch (IOException ioe) {
+            System.err.println("VEOWatcher: failed reading inbox '" + inbox + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Note that a file has arrived or changed. The arrival of a sidecar or
+     * marker also brings back the file it belongs to, in case that file has
+     * been ignored.
+     */
+    private void note(Path p, long now) {
+        String fileName;
+
+        if (!Files.isRegularFile(p)) {
+            return;
+        }
+        if (!pending.containsKey(p)) {
+            pending.put(p, new Pending(p, now));
+        }
+        fileName = p.getFileName().toString();
+        if (fileName.endsWith(MARKER_SUFFIX)) {
+            note(p.resolveSibling(fileName.substring(0, fileName.length() - MARKER_SUFFIX.length())), now);
+        } else if (fileName.endsWith(sidecarSuffix)) {
+            note(p.resolveSibling(fileName.substring(0, fileName.length() - sidecarSuffix.length())), now);
+        }
+    }
+
+    /**
+     * Check if a file has changed since it was last examined.
+     *
+     * @return false if the file no longer exists
+     */
+    private boolean examine(Pending pf, long now) {
+        File f;
+        long size, modified;
+
+        f = pf.file.toFile();
+        if (!f.exists()) {
+            return false;
+        }
+        size = f.length();
+        modified = f.lastModified();
+        if (size != pf.size || modified != pf.modified) {
+            pf.size = size;
+            pf.modified = modified;
+            pf.lastChange = now;
+        }
+        return true;
+    }
+
+    /**
+     * Is a file complete? It is if its marker exists, or it has not changed
+     * for the quiet period.
+     */
+    private boolean isComplete(Pending pf, long now) {
+        return hasMarker(pf) || now - pf.lastChange >= quietPeriod;
+    }
+
+    /**
+     * Does the marker for a file exist?
+     */
+    private boolean hasMarker(Pending pf) {
+        return Files.exists(pf.file.resolveSibling(pf.file.getFileName().toString() + MARKER_SUFFIX));
+    }
+
+    /**
+     * Find the files that are complete, and build the VEOs from them. The
+     * VEOs of the batch are published once they have all been built.
+     */
+    private void processBatch(long now) {
+        Iterator<Pending> it;
+        Pending pf, sidecar;
+        List<Pending> ready, candidates, payloads;
+        List<Boolean> built;
+        Set<Path> attachments;
+        String fileName;
+        Path sidecarFile, dest;
+        long start, finish, latency, batchMax, batchTotal, ageOut;
+        int i, batchFailed;
+        boolean ok, published;
+
+        // refresh the state of the files seen, dropping any that have gone
+        it = pending.values().iterator();
+        while (it.hasNext()) {
+            if (!examine(it.next(), now)) {
+                it.remove();
+            }
+        }
+
+        // find payloads (files with a sidecar), and possible control files
+        // and the files they refer to
+        ready = new ArrayList<>();
+        payloads = new ArrayList<>();
+        candidates = new ArrayList<>();
+        attachments = new HashSet<>();
+        for (Pending p : pending.values()) {
+            fileName = p.file.getFileName().toString();
+            if (fileName.endsWith(MARKER_SUFFIX) || fileName.endsWith(sidecarSuffix)) {
+                continue;
+            }
+            if (Files.exists(DirectoryDataSource.sidecarOf(p.file, sidecarSuffix))) {
+                payloads.add(p);
+            } else if (isControlFile(p)) {
+                candidates.add(p);
+                attachments.addAll(references(p));
+            }
+        }
+
+        // payloads that are complete are ready, unless a control file refers
+        // to them (they are then built, and moved aside, with the control file)
+        for (i = 0; i < payloads.size(); i++) {
+            pf = payloads.get(i);
+            sidecar = pending.get(DirectoryDataSource.sidecarOf(pf.file, sidecarSuffix));
+            if (isComplete(pf, now) && !attachments.contains(pf.file)
+                    && (sidecar == null || hasMarker(pf) || isComplete(sidecar, now))) {
+                ready.add(pf);
+            }
+        }
+
+        // control files that are complete are ready, unless another control
+        // file refers to them (i.e. they are attachments)
+        for (i = 0; i < candidates.size(); i++) {
+            pf = candidates.get(i);
+            if (isComplete(pf, now) && !attachments.contains(pf.file)) {
+                ready.add(pf);
+            }
+        }
+
+        // stop looking at files that have been waiting too long to be
+        // recognised (they are looked at again if they change)
+        ageOut = Math.max(MIN_AGE_OUT, quietPeriod * 10);
+        it = pending.values().iterator();
+        while (it.hasNext()) {
+            pf = it.next();
+            if (now - pf.lastChange >= ageOut && !ready.contains(pf) && !attachments.contains(pf.file)) {
+                System.out.println("VEOWatcher: ignoring '" + pf.file.getFileName() + "' (not a control file, or a payload with a sidecar)");
+                it.remove();
+            }
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+        Collections.sort(ready, (a, b) -> Long.compare(a.arrived, b.arrived));
+
+        // build the VEOs
+        start = System.currentTimeMillis();
+        built = new ArrayList<>();
+        for (i = 0; i < ready.size() && !stopped; i++) {
+            pf = ready.get(i);
+            sidecarFile = DirectoryDataSource.sidecarOf(pf.file, sidecarSuffix);
+            try {
+                if (Files.exists(sidecarFile)) {
+                    buildFromPayload(pf.file, sidecarFile);
+                } else {
+                    buildFromControlFile(pf.file);
+                }
+                ok = true;
+            } catch (VEOError ve) {
+                System.err.println("VEOWatcher: failed building VEO from '" + pf.file + "': " + ve.getMessage());
+                ok = false;
+            }
+            built.add(ok);
+        }
+
+        // publish the VEOs of the batch
+        try {
+            vc.flush();
+            published = true;
+        } catch (VEOError ve) {
+            System.err.println("VEOWatcher: failed publishing VEOs: " + ve.getMessage());
+            published = false;
+        }
+
+        // move the files aside
+        finish = System.currentTimeMillis();
+        batchMax = 0;
+        batchTotal = 0;
+        batchFailed = 0;
+        for (i = 0; i < built.size(); i++) {
+            pf = ready.get(i);
+            ok = built.get(i) && published;
+            fileName = pf.file.getFileName().toString();
+            sidecarFile = DirectoryDataSource.sidecarOf(pf.file, sidecarSuffix);
+            dest = ok ? processed : failed;
+            latency = finish - pf.arrived;
+            moveAside(pf.file, sidecarFile, dest);
+            pending.remove(pf.file);
+            pending.remove(sidecarFile);
+            pending.remove(pf.file.resolveSibling(fileName + MARKER_SUFFIX));
+            if (pf.refs != null) {
+                for (Path a : pf.refs) {
+                    moveAside(a, DirectoryDataSource.sidecarOf(a, sidecarSuffix), dest);
+                    pending.remove(a);
+                }
+            }
+            if (ok) {
+                noProcessed++;
+                totalLatency += latency;
+                batchTotal += latency;
+                if (latency > maxLatency) {
+                    maxLatency = latency;
+                }
+                if (latency > batchMax) {
+                    batchMax = latency;
+                }
+            } else {
+                noFailed++;
+                batchFailed++;
+            }
+        }
+        System.out.println("Batch of " + i + " file(s) processed in " + (finish - start) + "ms ("
+                + batchFailed + " failed)"
+                + (i > batchFailed ? "; latency from arrival: mean " + (batchTotal / (i - batchFailed)) + "ms, max " + batchMax + "ms" : ""));
+    }
+
+    /**
+     * Is this file a control file? It must end in '.txt' or '.csv', and its
+     * first line must start with a row type followed by a separator (so that
+     * text attachments are not mistaken for control files).
+     */
+    private static boolean isControlFile(Pending pf) {
+        String s;
+        char sep;
+
+        s = pf.file.getFileName().toString().toLowerCase();
+        if (s.endsWith(".txt")) {
+            sep = '\t';
+        } else if (s.endsWith(".csv")) {
+            sep = ',';
+        } else {
+            return false;
+        }
+        try (BufferedReader br = Files.newBufferedReader(pf.file, StandardCharsets.UTF_8)) {
+            s = br.readLine();
+        } catch (IOException ioe) {
+            return false;
+        }
+        if (s == null) {
+            return false;
+        }
+        s = s.trim();
+        if (s.startsWith("\"")) {
+            s = s.substring(1);
+        }
+        return s.length() > 1 && "frs".indexOf(Character.toLowerCase(s.charAt(0))) != -1
+                && (s.charAt(1) == sep || s.charAt(1) == '"');
+    }
+
+    /**
+     * Find the files in the inbox that a control file refers to. A column
+     * refers to a file if it is the absolute path of a file in the inbox, or
+     * its path relative to the directory containing the control file. The
+     * result is remembered until the control file changes.
+     */
+    private Set<Path> references(Pending pf) {
+        Set<Path> refs;
+        String line;
+        String[] cols;
+        Path p;
+        int i;
+
+        if (pf.refs != null && pf.refsSize == pf.size && pf.refsModified == pf.modified) {
+            return pf.refs;
+        }
+        refs = new HashSet<>();
+        try (BufferedReader br = Files.newBufferedReader(pf.file, StandardCharsets.UTF_8)) {
+            while ((line = br.readLine()) != null) {
+                cols = line.split("[\t,]");
+                for (i = 1; i < cols.length; i++) {
+                    cols[i] = cols[i].trim().replace("\"", "");
+                    if (cols[i].equals("")) {
+                        continue;
+                    }
+                    p = resolve(pf.file, cols[i]);
+                    if (p == null) {
+                        continue;
+                    }
+                    if (inbox.equals(p.getParent()) && !p.equals(pf.file) && Files.isRegularFile(p)) {
+                        refs.add(p);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            // unreadable now; try again on the next poll
+            return refs;
+        }
+        pf.refs = refs;
+        pf.refsSize = pf.size;
+        pf.refsModified = pf.modified;
+        return refs;
+    }
+
+    /**
+     * Resolve a path in a control file against the directory containing the
+     * control file
+     *
+     * @param control the control file
+     * @param s the path
+     * @return the absolute path, or null if s is not a valid path
+     */
+    static Path resolve(Path control, String s) {
+        Path p;
+
+        try {
+            p = Paths.get(s);
+        } catch (InvalidPathException ipe) {
+            return null;
+        }
+        if (!p.isAbsolute()) {
+            p = control.toAbsolutePath().getParent().resolve(p);
+        }
+        return p.normalize();
+    }
+
+    /**
+     * Build the VEOs described in a control file. The rows are read first, so
+     * that relative paths in the encoding ('e') and file ('s') columns can be
+     * resolved against the directory containing the control file.
+     */
+    private void buildFromControlFile(Path control) throws VEOError {
+        DataSource ds;
+        List<String[]> rows;
+        String[] row;
+        Path p;
+        int i, col;
+
+        if (control.getFileName().toString().toLowerCase().endsWith(".csv")) {
+            ds = new CSVDataSource(control.toFile());
+        } else {
+            ds = new TableDataSource(control.toFile());
+        }
+        rows = new ArrayList<>();
+        try {
+            while (!ds.isAtEnd()) {
+                row = new String[ds.getNoColumns()];
+                for (i = 0; i < row.length; i++) {
+                    row[i] = ds.getColumn(i + 1);
+                }
+                if (ds.getRowType() == DataSource.DS_Encoding) {
+                    col = 1;
+                } else if (ds.getRowType() == DataSource.DS_SimpleRecord) {
+                    col = 2;
+                } else {
+                    col = -1;
+                }
+                if (col != -1 && col < row.length && !row[col].equals("") && (p = resolve(control, row[col])) != null) {
+                    row[col] = p.toString();
+                }
+                rows.add(row);
+                ds.getNextRow();
+            }
+            if (ds.getError() != null) {
+                throw ds.getError();
+            }
+        } finally {
+            if (ds instanceof CSVDataSource) {
+                ((CSVDataSource) ds).close();
+            } else {
+                ((TableDataSource) ds).close();
+            }
+        }
+        vc.buildVEOs(new StreamDataSource(rows.iterator()), false);
+    }
+
+    /**
+     * Build a simple record VEO from a payload and its sidecar file
+     */
+    private void buildFromPayload(Path payload, Path sidecarFile) throws VEOError {
+        String[] meta, row;
+
+        meta = DirectoryDataSource.readSidecar(sidecarFile);
+        if (meta == null) {
+            meta = new String[0];
+        }
+        row = new String[3 + meta.length];
+        row[0] = "s";
+        row[1] = payload.getFileName().toString() + ".veo";
+        row[2] = payload.toString();
+        System.arraycopy(meta, 0, row, 3, meta.length);
+        vc.buildVEOs(new StreamDataSource(Collections.singletonList(row).iterator()), false);
+    }
+
+    /**
+     * Move a file, its sidecar, and its marker (if they exist) to a directory
+     */
+    private void moveAside(Path file, Path sidecarFile, Path dir) {
+        Path[] files;
+        int i;
+
+        files = new Path[]{file, sidecarFile, file.resolveSibling(file.getFileName().toString() + MARKER_SUFFIX)};
+        for (i = 0; i < files.length; i++) {
+            if (!Files.exists(files[i])) {
+                continue;
+            }
+            try {
+                Files.move(files[i], dir.resolve(files[i].getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ioe) {
+                System.err.println("VEOWatcher: failed moving '" + files[i] + "' to '" + dir + "': " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Report the totals since the watcher started
+     */
+    public void report() {
+        System.out.println("Watcher processed " + noProcessed + " file(s) (" + noFailed + " failed)"
+                + (noProcessed > 0 ? "; latency from arrival: mean " + (totalLatency / noProcessed) + "ms, max " + maxLatency + "ms" : ""));
+    }
+}
@@ -0,0 +1,481 @@
+package VEOGenerator;
+
+import VERSCommon.VEOError;
+import VERSCommon.VEOFatal;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * *************************************************************
+ *
+ * W O R K L O A D G E N E R A T O R
+ *
+ * This class generates synthetic workloads for load testing VEOCreator.
+ *
+ * Copyright 2026 PROV
+ *
+ *************************************************************
+ */
+/**
+ * This class generates a reproducible synthetic workload for VEOCreator, and
+ * optionally runs VEOCreator over it and reports its performance. It is
+ * intended for sizing hardware and for comparing performance between versions.
+ * <p>
+ * The workload is written to an output directory and consists of:
+ * <ul>
+ * <li>control.txt - a control file describing the requested number of VEOs,
+ * with a chosen mix of simple record ('s'), record ('r', 'd', and 'e'), and
+ * file ('f') VEOs</li>
+ * <li>attachments/ - the files included in the VEOs. The file types (pdf,
+ * tif, txt, and xml) are chosen with the requested weights, and the sizes are
+ * distributed log uniformly between a minimum and maximum size</li>
+ * <li>signer.pfx - a test signer with a new key pair and self signed
+ * certificate (password 'password')</li>
+ * </ul>
+ * All content is pseudo random, generated from a seed, so the same arguments
+ * always produce the same workload (apart from the signer's keys).
+ * <p>
+ * If a template directory is given, VEOCreator is then run over the workload
+ * (writing the VEOs to the directory 'veos'), and the throughput (VEOs/s, and
+ * MB/s of attachments read and of VEOs written), the 50th and 99th percentile
+ * time to build a single VEO, and the peak heap in use (sampled after each
+ * VEO) are printed. Rows that did not produce a VEO are reported as failed,
+ * and are not counted in the throughput or latency.
+ * <p>
+ * The command line arguments are
+ * <pre>
+ *    WorkloadGenerator -o &lt;dir&gt; -n &lt;count&gt; [-mix s=6,r=3,f=1] [-types pdf=4,tif=2,txt=1,xml=1] [-size 10K-1M] [-seed &lt;n&gt;] [-run &lt;templateDir&gt;] [-h &lt;hashAlg&gt;]
+ * </pre>
+ */
+public class WorkloadGenerator {
+
+    File outputDir;     // directory in which to write the workload
+    int count;          // number of VEOs
+    String[] rowTypes;  // 's', 'r', 'f'
+    double[] rowWeights; // relative frequency of each row type
+    String[] fileTypes; // file extensions of the attachments
+    double[] fileWeights; // relative frequency of each file type
+    long minSize;       // minimum attachment size (bytes)
+    long maxSize;       // maximum attachment size (bytes)
+    long seed;          // seed for the pseudo random generator
+    File templateDir;   // templates to use when running (null if not running)
+    String hashAlg;     // hash algorithm to use when running
+
+    long attachmentBytes; // total size of the attachments generated
+
+    private static final String USAGE = "WorkloadGenerator -o <dir> -n <count> [-mix s=6,r=3,f=1] [-types pdf=4,tif=2,txt=1,xml=1] [-size 10K-1M] [-seed <n>] [-run <templateDir>] [-h <hashAlg>]";
+    private static final String PASSWORD = "password";
+    private static final String[] WORDS = {
+        "record", "office", "public", "victoria", "archive", "minute", "council",
+        "report", "planning", "permit", "agenda", "meeting", "budget", "annual",
+        "letter", "memo", "review", "policy", "draft", "final", "the", "of", "and"};
+
+    /**
+     * Construct a workload generator from command line arguments.
+     *
+     * @param args command line arguments
+     * @throws VEOError if the arguments are invalid
+     */
+    public WorkloadGenerator(String args[]) throws VEOError {
+        String[] size;
+        int i;
+        String name = "WorkloadGenerator(): ";
+
+        outputDir = null;
+        count = 0;
+        parseWeights("s=6,r=3,f=1", true);
+        parseWeights("pdf=4,tif=2,txt=1,xml=1", false);
+        minSize = 10 * 1024;
+        maxSize = 1024 * 1024;
+        seed = 1;
+        templateDir = null;
+        hashAlg = "SHA256";
+        try {
+            for (i = 0; i < args.length; i++) {
+                switch (args[i].toLowerCase()) {
+                    case "-o":
+                        i++;
+                        outputDir = new File(args[i]);
+                        break;
+                    case "-n":
+                        i++;
+                        count = Integer.parseInt(args[i]);
+                        break;
+                    case "-mix":
+                        i++;
+                        parseWeights(args[i], true);
+                        break;
+                    case "-types":
+                        i++;
+                        parseWeights(args[i], false);
+                        break;
+                    case "-size":
+                        i++;
+                        size = args[i].split("-");
+                        if (size.length != 2) {
+                            throw new VEOError(name + "size must be <min>-<max> (e.g. 10K-1M)");
+                        }
+                        minSize = parseSize(size[0]);
+                        maxSize = parseSize(size[1]);
+                        break;
+                    case "-seed":
+                        i++;
+                        seed = Long.parseLong(args[i]);
+                        break;
+                    case "-run":
+                        i++;
+                        templateDir = new File(args[i]);
+                        break;
+                    case "-h":
+                        i++;
+                        hashAlg = args[i];
+                        break;
+                    default:
+                        throw new VEOError(name + "unrecognised argument '" + args[i] + "'. Usage: " + USAGE);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new VEOError(name + "invalid arguments. Usage: " + USAGE);
+        }
+        if (outputDir == null || count < 1) {
+            throw new VEOError(name + "output directory and a positive count must be specified. Usage: " + USAGE);
+        }
+        if (minSize < 0 || maxSize < minSize) {
+            throw new VEOError(name + "invalid size range " + minSize + "-" + maxSize);
+        }
+    }
+
+    /**
+     * Parse a list of weights (e.g. 's=6,r=3,f=1')
+     */
+    private void parseWeights(String s, boolean isMix) throws VEOError {
+        String[] entries, kv;
+        String[] keys;
+        double[] weights;
+        int i;
+        String name = "WorkloadGenerator.parseWeights(): ";
+
+        entries = s.split(",");
+        keys = new String[entries.length];
+        weights = new double[entries.length];
+        for (i = 0; i < entries.length; i++) {
+            kv = entries[i].split("=");
+            if (kv.length != 2) {
+                throw new VEOError(name + "invalid weight '" + entries[i] + "' (must be <type>=<weight>)");
+            }
+            keys[i] = kv[0].trim().toLowerCase();
+            weights[i] = Double.parseDouble(kv[1]);
+            if (weights[i] < 0) {
+                throw new VEOError(name + "weight of '" + keys[i] + "' is negative");
+            }
+            if (isMix && !keys[i].equals("s") && !keys[i].equals("r") && !keys[i].equals("f")) {
+                throw new VEOError(name + "VEO type must be 's', 'r', or 'f', not '" + keys[i] + "'");
+            }
+            if (!isMix && !Arrays.asList("pdf", "tif", "txt", "xml").contains(keys[i])) {
+                throw new VEOError(name + "file type must be 'pdf', 'tif', 'txt', or 'xml', not '" + keys[i] + "'");
+            }
+        }
+        if (isMix) {
+            rowTypes = keys;
+            rowWeights = weights;
+        } else {
+            fileTypes = keys;
+            fileWeights = weights;
+        }
+    }
+
+    /**
+     * Parse a size with an optional K, M, or G suffix
+     */
+    private static long parseSize(String s) {
+        long mult;
+
+        s = s.trim().toUpperCase();
+        mult = 1;
+        if (s.endsWith("K")) {
+            mult = 1024;
+        } else if (s.endsWith("M")) {
+            mult = 1024 * 1024;
+        } else if (s.endsWith("G")) {
+            mult = 1024 * 1024 * 1024;
+        }
+        if (mult != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * mult;
+    }
+
+    /**
+     * Choose an entry according to its weight
+     */
+    private static int choose(Random r, double[] weights) {
+        double total, x;
+        int i;
+
+        total = 0;
+        for (i = 0; i < weights.length; i++) {
+            total += weights[i];
+        }
+        x = r.nextDouble() * total;
+        for (i = 0; i < weights.length - 1; i++) {
+            x -= weights[i];
+            if (x < 0) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Generate the workload
+     *
+     * @return the control file
+     * @throws VEOError if the workload could not be written
+     */
+    public File generate() throws VEOError {
+        File attachDir, control;
+        Random r;
+        String type, veo;
+        int i, j, noEnc, fileNo;
+        String name = "WorkloadGenerator.generate(): ";
+
+        attachDir = new File(outputDir, "attachments");
+        control = new File(outputDir, "control.txt");
+        try {
+            Files.createDirectories(attachDir.toPath());
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed creating '" + attachDir + "': " + ioe.getMessage());
+        }
+        TestData.createSigner(outputDir, PASSWORD);
+
+        r = new Random(seed);
+        attachmentBytes = 0;
+        fileNo = 0;
+        try (BufferedWriter bw = Files.newBufferedWriter(control.toPath(), StandardCharsets.UTF_8)) {
+            for (i = 1; i <= count; i++) {
+                type = rowTypes[choose(r, rowWeights)];
+                veo = String.format("V%07d.veo", i);
+                switch (type) {
+                    case "s":
+                        fileNo++;
+                        bw.write("s\t" + veo + "\t" + attachment(attachDir, fileNo, r).getAbsolutePath()
+                                + "\t22/" + i + "\t" + words(r, 6) + "\n");
+                        break;
+                    case "r":
+                        bw.write("r\t" + veo + "\t\t22/" + i + "\t" + words(r, 6) + "\n");
+                        bw.write("d\tPROV-test\t" + words(r, 4) + "\n");
+                        noEnc = 1 + r.nextInt(2);
+                        for (j = 0; j < noEnc; j++) {
+                            fileNo++;
+                            bw.write("e\t" + attachment(attachDir, fileNo, r).getAbsolutePath() + "\n");
+                        }
+                        break;
+                    default:
+                        bw.write("f\t" + veo + "\tF" + i + "\t" + words(r, 5) + "\n");
+                        break;
+                }
+            }
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed writing workload: " + ioe.getMessage());
+        }
+        System.out.println("Generated " + count + " VEO(s) with " + fileNo + " attachment(s) ("
+                + String.format("%.1f", attachmentBytes / 1e6) + "MB) in '" + outputDir.getAbsolutePath() + "'");
+        return control;
+    }
+
+    /**
+     * Generate one attachment. The type and size are chosen using the shared
+     * generator, and the contents are generated from a seed derived from the
+     * attachment number.
+     */
+    private File attachment(File dir, int fileNo, Random r) throws IOException {
+        File f;
+        Random content;
+        String type;
+        long size, written;
+        byte[] buf;
+        String header, footer, text;
+
+        type = fileTypes[choose(r, fileWeights)];
+        size = minSize == maxSize ? minSize
+                : (long) Math.exp(Math.log(Math.max(1, minSize)) + r.nextDouble() * (Math.log(maxSize) - Math.log(Math.max(1, minSize))));
+        f = new File(dir, String.format("A%07d.%s", fileNo, type));
+        content = new Random(seed * 31 + fileNo);
+        buf = new byte[65536];
+        switch (type) {
+            case "pdf":
+                header = "%PDF-1.4\n";
+                footer = "\n%%EOF\n";
+                break;
+            case "tif":
+                header = "II*\0";
+                footer = "";
+                break;
+            case "xml":
+                header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<document>\n";
+                footer = "</document>\n";
+                break;
+            default:
+                header = "";
+                footer = "";
+                break;
+        }
+        written = 0;
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(f.toPath()))) {
+            os.write(header.getBytes(StandardCharsets.UTF_8));
+            written += header.length();
+            while (written < size - footer.length()) {
+                if (type.equals("txt") || type.equals("xml")) {
+                    text = (type.equals("xml") ? " <para>" + words(content, 12) + "</para>" : words(content, 12)) + "\n";
+                    os.write(text.getBytes(StandardCharsets.UTF_8));
+                    written += text.length();
+                } else {
+                    content.nextBytes(buf);
+                    os.write(buf, 0, (int) Math.min(buf.length, size - footer.length() - written));
+                    written += Math.min(buf.length, size - footer.length() - written);
+                }
+            }
+            os.write(footer.getBytes(StandardCharsets.UTF_8));
+            written += footer.length();
+        }
+        attachmentBytes += written;
+        return f;
+    }
+
+    /**
+     * Generate a string of random words
+     */
+    private static String words(Random r, int n) {
+        StringBuilder sb;
+        int i;
+
+        sb = new StringBuilder();
+        for (i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[r.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Run VEOCreator over the workload, timing each VEO
+     *
+     * @param control the control file
+     * @throws VEOError if VEOCreator failed
+     */
+    public void run(File control) throws VEOError {
+        VEOCreator vc;
+        TableDataSource tds;
+        File veoDir;
+        File[] veos;
+        MemoryMXBean memory;
+        long[] latency;
+        long start, elapsed, t, veoBytes, heap, peakHeap;
+        int i, n, rows, built;
+        String name = "WorkloadGenerator.run(): ";
+
+        veoDir = new File(outputDir, "veos");
+        try {
+            Files.createDirectories(veoDir.toPath());
+        } catch (IOException ioe) {
+            throw new VEOError(name + "failed creating '" + veoDir + "': " + ioe.getMessage());
+        }
+        try {
+            vc = new VEOCreator(new String[]{"-t", templateDir.getPath(), "-d", control.getPath(),
+                "-s", new File(outputDir, "signer.pfx").getPath(), PASSWORD, "-o", veoDir.getPath(), "-h", hashAlg});
+        } catch (VEOFatal vf) {
+            throw new VEOError(name + vf.getMessage());
+        }
+
+        // build the VEOs one at a time, sampling the heap in use after each.
+        // (The peaks of the individual heap pools are not used, as they are
+        // reached at different times, so their sum overstates the peak.) A
+        // row that does not produce a VEO is counted as failed
+        memory = ManagementFactory.getMemoryMXBean();
+        peakHeap = memory.getHeapMemoryUsage().getUsed();
+        latency = new long[count];
+        n = 0;
+        rows = 0;
+        tds = new TableDataSource(control);
+        start = System.nanoTime();
+        while (!tds.isAtEnd()) {
+            built = vc.veosBuilt;
+            t = System.nanoTime();
+            vc.buildNewVEO(rows + 1, tds);
+            t = System.nanoTime() - t;
+            rows++;
+            if (vc.veosBuilt != built) {
+                if (n < latency.length) {
+                    latency[n] = t;
+                }
+                n++;
+            }
+            heap = memory.getHeapMemoryUsage().getUsed();
+            if (heap > peakHeap) {
+                peakHeap = heap;
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        tds.close();
+
+        veoBytes = 0;
+        veos = veoDir.listFiles();
+        for (i = 0; veos != null && i < veos.length; i++) {
+            veoBytes += veos[i].length();
+        }
+        System.out.println("Built " + n + " VEO(s) in " + String.format("%.2f", elapsed / 1e9) + "s"
+                + (rows > n ? " (" + (rows - n) + " failed)" : ""));
+        System.out.println(String.format(" Throughput: %.1f VEOs/s, %.1f MB/s attachments read, %.1f MB/s VEOs written",
+                n / (elapsed / 1e9), attachmentBytes / 1e6 / (elapsed / 1e9), veoBytes / 1e6 / (elapsed / 1e9)));
+        n = Math.min(n, latency.length);
+        Arrays.sort(latency, 0, n);
+        if (n > 0) {
+            System.out.println(String.format(" Per VEO latency: p50 %.2fms, p99 %.2fms, max %.2fms",
+                    percentile(latency, n, 50) / 1e6, percentile(latency, n, 99) / 1e6, latency[n - 1] / 1e6));
+        }
+        System.out.println(String.format(" Peak heap in use: %.1fMB, sampled after each VEO (maximum %.1fMB)", peakHeap / 1e6, Runtime.getRuntime().maxMemory() / 1e6));
+    }
+
+    /**
+     * Return a percentile of the first n entries of a sorted array (nearest
+     * rank)
+     */
+    private static long percentile(long[] sorted, int n, int p) {
+        int rank;
+
+        rank = (int) Math.ceil(p / 100.0 * n);
+        return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+    }
+
+    /**
+     * Main program.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String args[]) {
+        WorkloadGenerator wg;
+        File control;
+
+        try {
+            wg = new WorkloadGenerator(args);
+            control = wg.generate();
+            if (wg.templateDir != null) {
+                wg.run(control);
+            }
+        } catch (VEOError e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+    }
+}